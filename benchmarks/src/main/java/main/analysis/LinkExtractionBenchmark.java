@@ -0,0 +1,91 @@
+// LinkExtractionBenchmark.java
+package main.analysis;
+
+import main.bench.HtmlFixture;
+import org.jsoup.Jsoup;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lenkeuthenting fra store sider: Jsoup-DOM mot strømmende uthenting. Bruk
+ * {@code -p fixtureDir=<mappe>} for å måle på lagrede sider i stedet for den genererte.
+ * Før målingen sjekkes det at begge finner de samme lenkene, på sidene og på noen vanskelige biter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+public class LinkExtractionBenchmark {
+
+    /** Kommentarer som lukkes på uvanlige måter. */
+    private static final String[] EDGE_CASES = {
+        "<!-- a ---><img src='x.jpg'>",
+        "<!--- a ---><img src='y.png'><!-- z -->",
+        "<!----><img src='a.jpg'><!-- -->",
+        "<!--><img src='b.jpg'><!-- c.jpg -->",
+        "<!---><img src='c.jpg'>",
+        "<!-- d --!><img src='d.jpg'>",
+        "<!-- <img src='skjult.jpg'> - -> --><a href='e.pdf'>e</a>",
+    };
+
+    @Param({"64", "1024", "8192"})
+    public int pageKb;
+
+    @Param({""})
+    public String fixtureDir;
+
+    private List<byte[]> pages;
+
+    @Setup
+    public void setUp() throws IOException {
+        pages = HtmlFixture.load(fixtureDir, pageKb);
+        List<byte[]> checked = new ArrayList<>(pages);
+        for (String html : EDGE_CASES) checked.add(html.getBytes(StandardCharsets.UTF_8));
+        for (byte[] page : checked) {
+            List<String> dom = new ArrayList<>();
+            List<String> streaming = new ArrayList<>();
+            LinkExtractor.extract(Jsoup.parse(new ByteArrayInputStream(page), null, HtmlFixture.BASE_URL), new HashSet<>(),
+                    f -> dom.add(f.getUrl()), dom::add);
+            StreamingLinkExtractor.extract(new ByteArrayInputStream(page), null, HtmlFixture.BASE_URL, new HashSet<>(),
+                    f -> streaming.add(f.getUrl()), streaming::add);
+            if (!dom.equals(streaming)) {
+                String start = new String(page, 0, Math.min(page.length, 80), StandardCharsets.UTF_8);
+                throw new IllegalStateException("Ulike lenker for " + start + ": " + dom + " / " + streaming);
+            }
+        }
+    }
+
+    @Benchmark
+    public void dom(Blackhole bh) throws IOException {
+        for (byte[] page : pages) {
+            LinkExtractor.extract(Jsoup.parse(new ByteArrayInputStream(page), null, HtmlFixture.BASE_URL), new HashSet<>(), bh::consume, bh::consume);
+        }
+    }
+
+    @Benchmark
+    public void streaming(Blackhole bh) throws IOException {
+        for (byte[] page : pages) {
+            StreamingLinkExtractor.extract(new ByteArrayInputStream(page), null, HtmlFixture.BASE_URL, new HashSet<>(), bh::consume, bh::consume);
+        }
+    }
+}
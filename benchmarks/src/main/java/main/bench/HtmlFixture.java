@@ -0,0 +1,77 @@
+// HtmlFixture.java
+package main.bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * HTML-sider for målinger av lenkeuthenting.
+ * <p>
+ * Enten lagrede sider fra en mappe, eller en generert galleriside av ønsket størrelse med den
+ * blandingen vi ser på ekte nettsteder: bilder med srcset, nedlastingslenker med spørrestreng,
+ * lenker til andre sider, stilark, innebygde skript og kommentarer.
+ */
+public final class HtmlFixture {
+
+    public static final String BASE_URL = "https://example.com/galleri/side.html";
+
+    private static final String[] FILE_EXTENSIONS = {".jpg", ".png", ".webp", ".pdf", ".zip", ".mp4", ".JPG", ".docx"};
+
+    private HtmlFixture() {} // Privat konstruktør for hjelpeklasse
+
+    /** Leser alle .html-filer i mappen, eller lager én side på {@code kiloBytes} kB hvis mappen er tom eller ikke oppgitt. */
+    public static List<byte[]> load(String directory, int kiloBytes) throws IOException {
+        List<byte[]> pages = new ArrayList<>();
+        if (directory != null && !directory.isEmpty()) {
+            try (Stream<Path> files = Files.walk(Paths.get(directory))) {
+                for (Path p : (Iterable<Path>) files.filter(Files::isRegularFile).filter(f -> f.toString().endsWith(".html"))::iterator) {
+                    pages.add(Files.readAllBytes(p));
+                }
+            }
+        }
+        if (pages.isEmpty()) pages.add(generate(kiloBytes * 1024, 42).getBytes(StandardCharsets.UTF_8));
+        return pages;
+    }
+
+    /** En galleriside på omtrent {@code targetBytes} byte. Samme frø gir samme side. */
+    public static String generate(int targetBytes, long seed) {
+        Random r = new Random(seed);
+        StringBuilder sb = new StringBuilder(targetBytes + 4096);
+        sb.append("<!DOCTYPE html>\n<html lang=\"no\"><head><meta charset=\"utf-8\"><title>Galleri</title>\n")
+          .append("<link rel=\"stylesheet\" href=\"/css/site.css?v=3\"><link rel=\"icon\" href=\"/favicon.ico\">\n")
+          .append("<script>var tpl = '<a href=\"ikke-en-fil.jpg\">'; for (var i = 0; i < 10; i++) { if (i < 5) {} }</script>\n")
+          .append("<style>.kort{background:url(bakgrunn.png)}</style></head><body>\n");
+        int item = 0;
+        while (sb.length() < targetBytes) {
+            int kind = r.nextInt(10);
+            String ext = FILE_EXTENSIONS[r.nextInt(FILE_EXTENSIONS.length)];
+            sb.append("<div class=\"kort\" data-id=\"").append(item).append("\">");
+            if (kind < 4) {
+                sb.append("<a href=\"/bilder/").append(item).append("/stor").append(ext).append("\" title=\"Bilde &amp; tekst ").append(item).append("\">")
+                  .append("<img src=\"/bilder/").append(item).append("/liten.jpg\" alt=\"Bilde ").append(item).append("\" loading=\"lazy\"></a>");
+            } else if (kind < 6) {
+                sb.append("<picture><source srcset=\"/bilder/").append(item).append("/1x.webp 1x, /bilder/").append(item)
+                  .append("/2x.webp 2x\"><img src=\"/bilder/").append(item).append("/reserve.png\"></picture>");
+            } else if (kind < 8) {
+                sb.append("<a href=\"/last-ned?id=").append(item).append("&amp;type=").append(ext.substring(1).toLowerCase()).append("\">Last ned</a> ")
+                  .append("<a href=\"side-").append(item).append(".html#kommentarer\">Mer</a>");
+            } else if (kind == 8) {
+                sb.append("<!-- <img src=\"kommentert-").append(item).append(".jpg\"> -->")
+                  .append("<video src=\"https://cdn.example.org/video/").append(item).append(".mp4\"><track src=\"tekst.vtt\"></video>");
+            } else {
+                sb.append("<p>Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor incididunt ut labore et dolore magna aliqua. ")
+                  .append("<a href=\"/kategori/").append(item % 50).append("/\">Kategori</a></p>");
+            }
+            sb.append("</div>\n");
+            item++;
+        }
+        return sb.append("</body></html>\n").toString();
+    }
+}
@@ -0,0 +1,167 @@
+// HttpFixture.java
+package main.bench;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Lokal HTTP-server for målinger av nedlasting, uten å være avhengig av nettet.
+ * <p>
+ * Filene lages på sparket: {@code /files/<id>/<navn>?size=<byte>} gir {@code size} byte med
+ * innhold som er unikt per id, slik at nedlastingsindeksen ikke slår dem sammen. Serveren kan
+ * legge på ventetid før første byte og begrense båndbredden per svar, og støtter HEAD,
+ * ETag og enkle Range-forespørsler slik at også segmentert nedlasting kan måles.
+ */
+public class HttpFixture implements AutoCloseable {
+
+    /** Fordeling av filstørrelser for en batch. */
+    public enum SizeProfile {
+        /** Mange små filer, typisk for bildegallerier. */
+        SMALL,
+        /** Stort sett små filer med noen få store innimellom. */
+        MIXED,
+        /** Få store filer. */
+        LARGE
+    }
+
+    private static final int CHUNK_SIZE = 16 * 1024;
+    private static final Pattern FILE_PATH = Pattern.compile("/files/(\\d+)/[^/]*");
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final long latencyMillis;
+    private final long bytesPerSecond;
+    private final byte[] block = new byte[1 << 20];
+
+    /**
+     * Starter serveren på en ledig port.
+     *
+     * @param latencyMillis  ventetid før hvert svar
+     * @param bytesPerSecond båndbredde per svar, 0 for ubegrenset
+     */
+    public HttpFixture(long latencyMillis, long bytesPerSecond) throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.bytesPerSecond = bytesPerSecond;
+        new Random(1).nextBytes(block);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 256);
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "http-fixture");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        server.createContext("/files/", this::handle);
+        server.start();
+    }
+
+    public String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /** URL-er for {@code count} filer med størrelser fra profilen. Samme frø gir samme batch. */
+    public List<String> fileUrls(SizeProfile profile, int count, String extension, long seed) {
+        Random r = new Random(seed);
+        List<String> urls = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            urls.add(baseUrl() + "/files/" + i + "/fil" + i + extension + "?size=" + sizeFor(profile, r));
+        }
+        return urls;
+    }
+
+    static long sizeFor(SizeProfile profile, Random r) {
+        switch (profile) {
+            case SMALL: return 8 * 1024 + r.nextInt(56 * 1024);
+            case LARGE: return (8L << 20) + r.nextInt(24 << 20);
+            case MIXED:
+            default:
+                // Omtrent log-normal: de fleste filene er noen titalls kB, noen få er flere MB
+                return Math.min(64L << 20, Math.max(1024, (long) Math.exp(10.5 + 1.6 * r.nextGaussian())));
+        }
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        try {
+            Matcher m = FILE_PATH.matcher(ex.getRequestURI().getPath());
+            String query = ex.getRequestURI().getQuery();
+            if (!m.matches() || query == null || !query.startsWith("size=")) {
+                ex.sendResponseHeaders(404, -1);
+                return;
+            }
+            long id = Long.parseLong(m.group(1));
+            long size = Long.parseLong(query.substring(5));
+            if (latencyMillis > 0) TimeUnit.MILLISECONDS.sleep(latencyMillis);
+
+            long start = 0;
+            long end = size - 1;
+            int status = 200;
+            String range = ex.getRequestHeaders().getFirst("Range");
+            Matcher rm = range != null ? RANGE.matcher(range) : null;
+            if (rm != null && rm.matches()) {
+                start = Long.parseLong(rm.group(1));
+                if (!rm.group(2).isEmpty()) end = Math.min(end, Long.parseLong(rm.group(2)));
+                if (start > end) {
+                    ex.getResponseHeaders().add("Content-Range", "bytes */" + size);
+                    ex.sendResponseHeaders(416, -1);
+                    return;
+                }
+                status = 206;
+                ex.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + size);
+            }
+            ex.getResponseHeaders().add("Content-Type", "application/octet-stream");
+            ex.getResponseHeaders().add("Accept-Ranges", "bytes");
+            ex.getResponseHeaders().add("ETag", "\"" + id + "-" + size + "\"");
+            long length = end - start + 1;
+            if ("HEAD".equals(ex.getRequestMethod())) {
+                ex.getResponseHeaders().add("Content-Length", Long.toString(length));
+                ex.sendResponseHeaders(status, -1);
+                return;
+            }
+            ex.sendResponseHeaders(status, length);
+            write(ex.getResponseBody(), id, start, length);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // Klienten avbrøt, f.eks. ved avbrutt nedlasting
+        } finally {
+            ex.close();
+        }
+    }
+
+    /** Skriver innholdet i biter og holder igjen slik at båndbreddegrensen overholdes. */
+    private void write(OutputStream out, long id, long offset, long length) throws IOException, InterruptedException {
+        long begin = System.nanoTime();
+        long sent = 0;
+        int shift = (int) ((id * 7919) % block.length);
+        while (sent < length) {
+            int pos = (int) ((offset + sent + shift) % block.length);
+            int n = (int) Math.min(CHUNK_SIZE, Math.min(length - sent, block.length - pos));
+            out.write(block, pos, n);
+            sent += n;
+            if (bytesPerSecond > 0) {
+                long due = begin + sent * 1_000_000_000L / bytesPerSecond;
+                long wait = due - System.nanoTime();
+                if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,36 @@
+// UrlCorpus.java
+package main.bench;
+
+import java.util.Random;
+
+/**
+ * Et fast utvalg av lenker slik de ser ut etter at siden er analysert: absolutte URL-er med og
+ * uten filendelse, spørrestrenger, fragmenter og store bokstaver, pluss noen sjeldne former.
+ */
+public final class UrlCorpus {
+
+    private static final String[] HOSTS = {"https://example.com", "http://cdn.example.org", "https://www.eksempel.no", "HTTPS://Static.Example.NET:8443"};
+    private static final String[] DIRS = {"/", "/bilder/", "/filer/2024/", "/a/b/c/d/", "/last-ned/", "/wp-content/uploads/2023/11/"};
+    private static final String[] NAMES = {"bilde.jpg", "Foto_01.JPG", "rapport.pdf", "arkiv.tar.gz", "video.mp4", "index.html", "side", "", "data.json",
+            "ikon.svg", "lyd.mp3", "dokument.docx", "skript.min.js", "stil.css", "bilde.jpeg1", "fil.unknown"};
+    private static final String[] SUFFIXES = {"", "", "", "?v=2", "?id=17&type=zip", "?format=PNG", "#topp", "?w=640&h=480#x", "?ext=mp3&x=1", "?subtype=webp"};
+    private static final String[] RARE = {"mailto:post@example.com", " https://example.com/mellomrom.jpg ", "ftp://example.com/fil.zip",
+            "relativ/sti/bilde.png", "//example.com/protokoll-relativ.gif", "https://example.com/æøå/bilde.jpg", "https://example.com/FIL.IMG",
+            "?type=jpg", "#", "https://example.com"};
+
+    private UrlCorpus() {} // Privat konstruktør for hjelpeklasse
+
+    /** {@code count} URL-er. Omtrent 2 % er sjeldne former som tar den trege veien. */
+    public static String[] urls(int count, long seed) {
+        Random r = new Random(seed);
+        String[] urls = new String[count];
+        for (int i = 0; i < count; i++) {
+            if (r.nextInt(50) == 0) {
+                urls[i] = RARE[r.nextInt(RARE.length)];
+            } else {
+                urls[i] = HOSTS[r.nextInt(HOSTS.length)] + DIRS[r.nextInt(DIRS.length)] + NAMES[r.nextInt(NAMES.length)] + SUFFIXES[r.nextInt(SUFFIXES.length)];
+            }
+        }
+        return urls;
+    }
+}
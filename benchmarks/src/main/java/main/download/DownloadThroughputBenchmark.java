@@ -0,0 +1,109 @@
+// DownloadThroughputBenchmark.java
+package main.download;
+
+import main.bench.HttpFixture;
+import main.model.FileInfo;
+import main.net.HttpService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Hele nedlastingen fra HTTP-svar til ferdig fil på disk, mot en lokal server med valgbar
+ * ventetid, båndbredde og størrelsesfordeling. Hver måling laster ned en hel batch til en ny,
+ * tom mappe. Profilen LARGE bruker .zip slik at segmentert nedlasting blir med.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DownloadThroughputBenchmark {
+
+    @Param({"SMALL", "MIXED"})
+    public HttpFixture.SizeProfile profile;
+
+    @Param({"0", "40"})
+    public long latencyMs;
+
+    /** Båndbredde per svar i kB/s, 0 for ubegrenset. */
+    @Param({"0"})
+    public long bandwidthKbps;
+
+    @Param({"1", "8"})
+    public int threads;
+
+    @Param({"64"})
+    public int files;
+
+    /** Rekkefølge. SMALLEST_FIRST henter størrelsene med HEAD først, så den målingen tar med den kostnaden. */
+    @Param({"FIFO"})
+    public DownloadOrder order;
+
+    private HttpFixture server;
+    private HttpService http;
+    private List<FileInfo> batch;
+    private Path directory;
+
+    @Setup(Level.Trial)
+    public void startServer() throws IOException {
+        server = new HttpFixture(latencyMs, bandwidthKbps * 1024);
+        http = new HttpService();
+        String ext = profile == HttpFixture.SizeProfile.LARGE ? ".zip" : ".bin";
+        batch = new ArrayList<>();
+        for (String url : server.fileUrls(profile, files, ext, 11)) batch.add(new FileInfo(url, ext));
+    }
+
+    @Setup(Level.Invocation)
+    public void newDirectory() throws IOException {
+        directory = Files.createTempDirectory("nedlasting-bench");
+    }
+
+    @Benchmark
+    public DownloadSummary downloadBatch() throws InterruptedException {
+        DownloadScheduler.Options options = new DownloadScheduler.Options();
+        options.maxConcurrent = threads;
+        options.maxPerHost = threads;
+        options.order = order;
+        DownloadScheduler scheduler = new DownloadScheduler(new FileDownloader(http, directory.toFile()), options);
+        DownloadSummary summary = scheduler.run(batch, new DownloadScheduler.Listener() {
+            @Override public void fileStarted(FileInfo file, int completed, int total) { }
+            @Override public void fileFinished(DownloadResult result, int completed, int total) { }
+        });
+        if (summary.getFailed() > 0) throw new IllegalStateException("Nedlastingen feilet: " + summary);
+        return summary;
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteDirectory() throws IOException {
+        try (Stream<Path> walk = Files.walk(directory)) {
+            for (Path p : (Iterable<Path>) walk.sorted(Comparator.reverseOrder())::iterator) Files.deleteIfExists(p);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer() {
+        server.close();
+    }
+}
@@ -0,0 +1,62 @@
+// FileCategoryBenchmark.java
+package main.model;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Kategorioppslag for filendelser. {@code linearScan} er den gamle løkken over alle
+ * kategorilistene og er med som sammenligningsgrunnlag.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileCategoryBenchmark {
+
+    private static final String[] EXTENSIONS = {".jpg", ".png", ".pdf", ".md", ".sql", ".zip", ".JPG", ".unknown", ".mp4", ".html", ".flac", ".xz", "", ".webp", ".csv", ".7z"};
+
+    private int next;
+
+    private String nextExtension() {
+        return EXTENSIONS[next++ & (EXTENSIONS.length - 1)];
+    }
+
+    @Benchmark
+    public void hashLookup(Blackhole bh) {
+        bh.consume(FileCategory.categorizeExtension(nextExtension()));
+    }
+
+    @Benchmark
+    public void linearScan(Blackhole bh) {
+        bh.consume(categorizeLinear(nextExtension()));
+    }
+
+    @Benchmark
+    public void matchesCategory(Blackhole bh) {
+        bh.consume(FileCategory.matchesCategory("Kildekode/Tekst", nextExtension()));
+    }
+
+    private static String categorizeLinear(String ext) {
+        if (ext == null || ext.isEmpty()) return "Ukjent";
+        String lowerExt = ext.toLowerCase();
+        for (Map.Entry<String, List<String>> entry : FileCategory.CATEGORIZED_EXTENSIONS.entrySet()) {
+            if (entry.getValue().contains(lowerExt)) return entry.getKey();
+        }
+        return "Annet";
+    }
+}
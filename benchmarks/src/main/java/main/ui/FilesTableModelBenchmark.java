@@ -0,0 +1,82 @@
+// FilesTableModelBenchmark.java
+package main.ui;
+
+import main.model.FileCatalog;
+import main.model.FileCategory;
+import main.model.FileInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.swing.JComboBox;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filtrering og massevalg i fillisten med mange rader, slik det skjer etter en stor gjennomsøking.
+ * Teller også hvor mange tabellhendelser hver operasjon sender.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class FilesTableModelBenchmark {
+
+    private static final String[] EXTENSIONS = {".jpg", ".png", ".gif", ".pdf", ".docx", ".zip", ".mp4", ".mp3", ".html", ".css", ".js", ".xyz", ""};
+    private static final String[] CATEGORIES = {"Bilder", "Dokumenter", FileCategory.ALL_FILES_CATEGORY, "Videoer"};
+
+    @Param({"10000", "100000"})
+    public int rows;
+
+    private List<FileInfo> files;
+    private JComboBox<String> categories;
+    private FilesTableModel model;
+    private int events;
+    private int step;
+
+    @Setup
+    public void setUp() {
+        Random r = new Random(3);
+        files = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            String ext = EXTENSIONS[r.nextInt(EXTENSIONS.length)];
+            files.add(new FileInfo("https://example.com/filer/" + i + ext, ext));
+        }
+        categories = new JComboBox<>(CATEGORIES);
+        model = new FilesTableModel(new FileCatalog(), categories, () -> { });
+        model.addTableModelListener(e -> events++);
+        model.setData(files);
+    }
+
+    @Benchmark
+    public int switchCategory() {
+        categories.setSelectedItem(CATEGORIES[step++ & (CATEGORIES.length - 1)]);
+        model.filterAndSelectBasedOnCategory();
+        return events;
+    }
+
+    @Benchmark
+    public int toggleExtension() {
+        model.setExtensionsSelected(Collections.singletonList(".jpg"), (step++ & 1) == 0);
+        return events;
+    }
+
+    @Benchmark
+    public int reload() {
+        model.setData(files);
+        return events;
+    }
+}
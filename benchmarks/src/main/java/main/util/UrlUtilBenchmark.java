@@ -0,0 +1,60 @@
+// UrlUtilBenchmark.java
+package main.util;
+
+import main.bench.UrlCorpus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filendelse fra URL: den raske tolkningen mot den gamle med regulære uttrykk og {@link java.net.URL}.
+ * Før målingen sjekkes det at begge gir samme svar for hele korpuset.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UrlUtilBenchmark {
+
+    private static final int CORPUS_SIZE = 4096;
+
+    private String[] urls;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        urls = UrlCorpus.urls(CORPUS_SIZE, 7);
+        for (String url : urls) {
+            String fast = UrlUtil.getFileExtensionFromUrl(url);
+            String slow = UrlUtil.getFileExtensionFromUrlSlow(url);
+            if (!Objects.equals(fast, slow)) throw new IllegalStateException("Ulikt svar for " + url + ": " + fast + " / " + slow);
+        }
+    }
+
+    private String nextUrl() {
+        return urls[next++ & (CORPUS_SIZE - 1)];
+    }
+
+    @Benchmark
+    public void singlePass(Blackhole bh) {
+        bh.consume(UrlUtil.getFileExtensionFromUrl(nextUrl()));
+    }
+
+    @Benchmark
+    public void legacyRegex(Blackhole bh) {
+        bh.consume(UrlUtil.getFileExtensionFromUrlSlow(nextUrl()));
+    }
+}
@@ -2,60 +2,75 @@
 package main;
 
 
+import main.analysis.Crawler;
+import main.download.DownloadJournal;
+import main.download.DownloadOrder;
+import main.download.DownloadResult;
+import main.download.DownloadScheduler;
+import main.download.DownloadSummary;
+import main.download.TransferMetrics;
+import main.engine.DownloaderEngine;
+import main.log.LogBuffer;
+import main.model.FileCatalog;
 import main.model.FileCategory;
 import main.model.FileInfo;
 import main.ui.FilesTableModel;
-import main.util.UrlUtil; // Importer UrlUtil
+import main.ui.LogPanel;
+import main.ui.ThroughputPanel;
 
 // Standard Swing og Java imports
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import javax.swing.table.TableColumn;
-import javax.swing.text.DefaultCaret;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.FocusAdapter;
 import java.awt.event.FocusEvent;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-// Jsoup import
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
+import java.util.prefs.Preferences;
 
 /**
  * Hovedapplikasjonsklassen for filnedlasteren.
  */
 public class DownloaderApp extends JFrame {
 
+    /** Oppløsningen på progressbaren under nedlasting, som viser fremdriften i byte. */
+    private static final int BYTE_PROGRESS_SCALE = 1000;
+    /** Her skrives loggen når brukeren krysser av for det. */
+    private static final Path LOG_FILE = Paths.get(System.getProperty("user.home"), ".filedownload", "logg", "filedownload.log");
+    /** Mappen for siste nedlasting, så en uferdig kø kan tilbys ved neste oppstart. */
+    private static final String PREF_LAST_DIRECTORY = "sisteNedlastingsmappe";
+
     private JTextField urlField;
     private JComboBox<String> categoryComboBox;
     private JButton fetchButton, downloadButton, selectAllButton, selectNoneButton;
-    private JTextArea logArea;
+    private LogPanel logPanel;
     private JProgressBar progressBar;
+    private ThroughputPanel throughputPanel;
+    private JSpinner threadsSpinner, perHostSpinner, crawlDepthSpinner, rateLimitSpinner, hostRateLimitSpinner;
+    private JComboBox<DownloadOrder> orderComboBox;
+    private JCheckBox crawlCheckBox, probeTypesCheckBox, mirrorPathsCheckBox, probeSizesCheckBox;
     private JFileChooser directoryChooser;
-    private transient List<FileInfo> fetchedFilesList;
+    private transient FileCatalog fetchedFiles;
     private JTable filesTable;
     private FilesTableModel tableModel;
     private File saveDirectory;
     private JPanel extensionSelectionPanel;
     private transient List<JCheckBox> currentExtensionCheckBoxes = new ArrayList<>();
+    private final transient DownloaderEngine engine = new DownloaderEngine();
+    /** Alle tråder logger hit; {@link LogPanel} henter meldingene til EDT i bolker. */
+    private final transient LogBuffer appLog = new LogBuffer();
 
     public DownloaderApp() {
         setTitle("Avansert Filnedlaster Pro");
@@ -70,12 +85,12 @@ public class DownloaderApp extends JFrame {
             System.err.println("Kunne ikke sette system look and feel: " + e.getMessage());
         }
 
-        fetchedFilesList = new ArrayList<>();
+        fetchedFiles = new FileCatalog();
         categoryComboBox = new JComboBox<>(FileCategory.CATEGORIZED_EXTENSIONS.keySet().toArray(new String[0]));
         categoryComboBox.addItem(FileCategory.ALL_FILES_CATEGORY);
         categoryComboBox.setSelectedItem("Bilder");
 
-        tableModel = new FilesTableModel(fetchedFilesList, categoryComboBox, this::updateDownloadButtonStateAndExtensionCheckboxes);
+        tableModel = new FilesTableModel(fetchedFiles, categoryComboBox, this::updateDownloadButtonStateAndExtensionCheckboxes);
 
         initComponents();
     }
@@ -99,6 +114,18 @@ public class DownloaderApp extends JFrame {
             updateExtensionCheckboxes();
         });
         categoryAndFetchPanel.add(categoryComboBox);
+        crawlCheckBox = new JCheckBox("Søk flere sider");
+        crawlCheckBox.setToolTipText("Følg lenker til andre sider på samme nettsted");
+        crawlDepthSpinner = new JSpinner(new SpinnerNumberModel(new Crawler.Options().maxDepth, 1, 10, 1));
+        crawlDepthSpinner.setToolTipText("Hvor mange lenker dypt søket går fra startsiden");
+        crawlDepthSpinner.setEnabled(false);
+        crawlCheckBox.addActionListener(e -> crawlDepthSpinner.setEnabled(crawlCheckBox.isSelected()));
+        categoryAndFetchPanel.add(crawlCheckBox);
+        categoryAndFetchPanel.add(new JLabel("Dybde:"));
+        categoryAndFetchPanel.add(crawlDepthSpinner);
+        probeTypesCheckBox = new JCheckBox("Sjekk filtype");
+        probeTypesCheckBox.setToolTipText("Spør serveren om typen for lenker uten filendelse, f.eks. /download?id=123, så de kan filtreres på kategori");
+        categoryAndFetchPanel.add(probeTypesCheckBox);
         fetchButton = new JButton("Analyser URL");
         fetchButton.setToolTipText("Hent og vis fillenker fra URL");
         fetchButton.addActionListener(this::fetchFileLinksAction);
@@ -133,19 +160,40 @@ public class DownloaderApp extends JFrame {
 
         JPanel bottomOuterPanel = new JPanel(new BorderLayout(10,5));
         bottomOuterPanel.setBorder(new EmptyBorder(5,10,10,10));
-        logArea = new JTextArea(8, 0);
-        logArea.setEditable(false);
-        logArea.setFont(new Font("Monospaced", Font.PLAIN, 12));
-        ((DefaultCaret)logArea.getCaret()).setUpdatePolicy(DefaultCaret.ALWAYS_UPDATE);
-        JScrollPane logScrollPane = new JScrollPane(logArea);
-        JPanel logPanelWithTitle = new JPanel(new BorderLayout());
-        logPanelWithTitle.add(new JLabel("Logg:"), BorderLayout.NORTH);
-        logPanelWithTitle.add(logScrollPane, BorderLayout.CENTER);
-        bottomOuterPanel.add(logPanelWithTitle, BorderLayout.CENTER);
+        logPanel = new LogPanel(appLog, LOG_FILE);
+        Runtime.getRuntime().addShutdownHook(new Thread(logPanel::closeLogFile, "lukk-loggfil"));
+        bottomOuterPanel.add(logPanel, BorderLayout.CENTER);
+        throughputPanel = new ThroughputPanel();
+        throughputPanel.setSampleListener(this::showByteProgress);
+        bottomOuterPanel.add(throughputPanel, BorderLayout.EAST);
         JPanel downloadControlsPanel = new JPanel(new BorderLayout(10,5));
         downloadButton = new JButton("Last Ned Valgte Filer");
         downloadButton.addActionListener(this::downloadFilesAction);
         downloadControlsPanel.add(downloadButton, BorderLayout.EAST);
+        JPanel concurrencyPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+        threadsSpinner = new JSpinner(new SpinnerNumberModel(DownloadScheduler.DEFAULT_MAX_CONCURRENT, 1, 64, 1));
+        threadsSpinner.setToolTipText("Maks antall samtidige nedlastinger totalt");
+        perHostSpinner = new JSpinner(new SpinnerNumberModel(DownloadScheduler.DEFAULT_MAX_PER_HOST, 1, 16, 1));
+        perHostSpinner.setToolTipText("Maks antall samtidige nedlastinger mot samme vert");
+        concurrencyPanel.add(new JLabel("Samtidige:")); concurrencyPanel.add(threadsSpinner);
+        concurrencyPanel.add(new JLabel("Per vert:")); concurrencyPanel.add(perHostSpinner);
+        orderComboBox = new JComboBox<>(DownloadOrder.values());
+        orderComboBox.setSelectedItem(DownloadOrder.FIFO);
+        orderComboBox.setToolTipText("Rekkefølgen filene lastes ned i. \"Minste først\" henter størrelsene før start");
+        concurrencyPanel.add(orderComboBox);
+        probeSizesCheckBox = new JCheckBox("Hent størrelser");
+        probeSizesCheckBox.setToolTipText("Spør etter størrelsene med HEAD mens filene lastes ned, så fremdriften vises i byte");
+        concurrencyPanel.add(probeSizesCheckBox);
+        mirrorPathsCheckBox = new JCheckBox("Speil mapper");
+        mirrorPathsCheckBox.setToolTipText("Lagre filene i undermapper etter vert og sti, som på serveren");
+        concurrencyPanel.add(mirrorPathsCheckBox);
+        rateLimitSpinner = new JSpinner(new SpinnerNumberModel(0, 0, 1_000_000, 100));
+        rateLimitSpinner.setToolTipText("Maks båndbredde totalt i kB/s, 0 for ubegrenset");
+        hostRateLimitSpinner = new JSpinner(new SpinnerNumberModel(0, 0, 1_000_000, 100));
+        hostRateLimitSpinner.setToolTipText("Maks båndbredde per vert i kB/s, 0 for ubegrenset");
+        concurrencyPanel.add(new JLabel("kB/s:")); concurrencyPanel.add(rateLimitSpinner);
+        concurrencyPanel.add(new JLabel("per vert:")); concurrencyPanel.add(hostRateLimitSpinner);
+        downloadControlsPanel.add(concurrencyPanel, BorderLayout.WEST);
         progressBar = new JProgressBar(0, 100);
         progressBar.setStringPainted(true);
         downloadControlsPanel.add(progressBar, BorderLayout.CENTER);
@@ -171,49 +219,47 @@ public class DownloaderApp extends JFrame {
     }
 
     private void updateDownloadButtonState() {
-        boolean anySelected = fetchedFilesList.stream().anyMatch(FileInfo::isSelected);
-        downloadButton.setEnabled(anySelected && !fetchedFilesList.isEmpty());
+        downloadButton.setEnabled(fetchedFiles.getSelectedCount() > 0);
         boolean hasExtCb = !currentExtensionCheckBoxes.isEmpty();
         selectAllButton.setEnabled(hasExtCb);
         selectNoneButton.setEnabled(hasExtCb);
     }
 
-    private void log(String message) { SwingUtilities.invokeLater(() -> logArea.append(message + "\n")); }
-    private void setExtensionCheckBoxesState(boolean selected) { currentExtensionCheckBoxes.forEach(cb -> cb.setSelected(selected)); }
+    /** Viser fremdriften i byte når størrelsene er kjent eller anslått, ellers i antall filer. */
+    private void showByteProgress(TransferMetrics.Snapshot s) {
+        if (s.estimatedTotalBytes > 0) {
+            long total = Math.max(s.estimatedTotalBytes, s.bytesReceived);
+            progressBar.setValue((int) (s.bytesReceived * BYTE_PROGRESS_SCALE / total));
+            progressBar.setString(String.format("%.1f av %.1f MB", s.bytesReceived / 1e6, total / 1e6));
+        } else if (s.filesTotal > 0) {
+            progressBar.setValue(s.filesFinished * BYTE_PROGRESS_SCALE / s.filesTotal);
+            progressBar.setString(s.filesFinished + " av " + s.filesTotal + " filer");
+        }
+    }
+
+    private void log(String message) { appLog.info(message); }
+    private void setExtensionCheckBoxesState(boolean selected) {
+        List<String> exts = new ArrayList<>(); currentExtensionCheckBoxes.forEach(cb -> exts.add(cb.getText()));
+        tableModel.setExtensionsSelected(exts, selected);
+    }
 
     private void updateExtensionCheckboxes() {
         extensionSelectionPanel.removeAll(); currentExtensionCheckBoxes.clear();
         String selCat = (String) categoryComboBox.getSelectedItem();
-        if (selCat == null || fetchedFilesList.isEmpty()) {
+        if (selCat == null || fetchedFiles.isEmpty()) {
             extensionSelectionPanel.revalidate(); extensionSelectionPanel.repaint(); updateDownloadButtonState(); return;
         }
         Set<String> relExts = new HashSet<>();
-        for (FileInfo fi : fetchedFilesList) {
-            if (fi.getExtension() != null && !fi.getExtension().isEmpty()) {
-                if (FileCategory.ALL_FILES_CATEGORY.equals(selCat) ||
-                        (FileCategory.CATEGORIZED_EXTENSIONS.get(selCat) != null && FileCategory.CATEGORIZED_EXTENSIONS.get(selCat).contains(fi.getExtension()))) {
-                    relExts.add(fi.getExtension());
-                }
-            }
+        for (String ext : fetchedFiles.getExtensions()) {
+            if (!ext.isEmpty() && FileCategory.matchesCategory(selCat, ext)) relExts.add(ext);
         }
         List<String> sortedExts = new ArrayList<>(relExts); sortedExts.sort(String.CASE_INSENSITIVE_ORDER);
         if (sortedExts.isEmpty()) {
             extensionSelectionPanel.add(new JLabel("Ingen filtyper å filtrere på.") {{ setForeground(Color.GRAY); }});
         } else {
             for (String ext : sortedExts) {
-                boolean isAnySelForExt = false;
-                for (int i = 0; i < tableModel.getRowCount(); i++) {
-                    if (ext.equals(tableModel.getValueAt(i, 3)) && (Boolean)tableModel.getValueAt(i, 0)) { isAnySelForExt = true; break; }
-                }
-                JCheckBox extCb = new JCheckBox(ext, isAnySelForExt);
-                extCb.addActionListener(e -> {
-                    boolean makeSel = extCb.isSelected();
-                    for (int i = 0; i < tableModel.getRowCount(); i++) {
-                        if (ext.equals(tableModel.getValueAt(i, 3)) && (Boolean)tableModel.getValueAt(i, 0) != makeSel) {
-                            tableModel.setValueAt(makeSel, i, 0);
-                        }
-                    }
-                });
+                JCheckBox extCb = new JCheckBox(ext, fetchedFiles.getSelectedCount(ext) > 0);
+                extCb.addActionListener(e -> tableModel.setExtensionsSelected(Collections.singletonList(ext), extCb.isSelected()));
                 extensionSelectionPanel.add(extCb); currentExtensionCheckBoxes.add(extCb);
             }
         }
@@ -226,76 +272,125 @@ public class DownloaderApp extends JFrame {
         try { new URL(urlText); } catch (MalformedURLException ex) { JOptionPane.showMessageDialog(this, "Ugyldig URL: " + ex.getMessage(), "Feil", JOptionPane.ERROR_MESSAGE); return; }
         log("Starter analyse: " + urlText);
         fetchButton.setEnabled(false); downloadButton.setEnabled(false); selectAllButton.setEnabled(false); selectNoneButton.setEnabled(false); progressBar.setValue(0);
-        SwingWorker<List<FileInfo>, String> worker = new SwingWorker<>() {
-            @Override protected List<FileInfo> doInBackground() throws Exception {
-                List<FileInfo> found = new ArrayList<>(); Set<String> uniqueUrls = new HashSet<>();
-                publish("Kobler til: " + urlText);
-                Document doc = Jsoup.connect(urlText).userAgent("Mozilla/5.0 ... Chrome/98...").timeout(20000).ignoreHttpErrors(true).followRedirects(true).get();
-                if (doc.connection().response().statusCode() >= 400) publish("Advarsel: Status " + doc.connection().response().statusCode());
-                publish("HTML Analyse...");
-                Elements links = doc.select("a[href], img[src], source[srcset], video[src], audio[src], track[src], embed[src], object[data], link[href]");
-                for (Element link : links) {
-                    String url = "";
-                    if (link.hasAttr("href")) url = link.absUrl("href"); else if (link.hasAttr("src")) url = link.absUrl("src");
-                    else if (link.hasAttr("srcset")) url = link.absUrl("srcset").split(",")[0].trim().split("\\s+")[0]; else if (link.hasAttr("data")) url = link.absUrl("data");
-                    if (url.isEmpty() || url.startsWith("mailto:") || url.startsWith("tel:") || url.startsWith("javascript:") || url.startsWith("#")) continue;
-                    if (url.contains("#")) url = url.substring(0, url.indexOf('#'));
-                    String ext = UrlUtil.getFileExtensionFromUrl(url); boolean isPotFile = (ext != null && !ext.isEmpty());
-                    if ("link".equals(link.tagName().toLowerCase())) { String rel = link.attr("rel").toLowerCase();
-                        if (!("stylesheet".equals(rel)||"icon".equals(rel)||"shortcut icon".equals(rel)||"apple-touch-icon".equals(rel)||"preload".equals(rel)||"manifest".equals(rel)||("alternate".equals(rel)&&(url.endsWith(".xml")||url.endsWith(".rss")||url.endsWith(".atom"))))) { if(!isPotFile) continue; }
+        if (crawlCheckBox.isSelected()) { crawlAction(urlText, (Integer) crawlDepthSpinner.getValue()); return; }
+        tableModel.setData(new ArrayList<>());
+        boolean probeTypes = probeTypesCheckBox.isSelected();
+        SwingWorker<Integer, FileInfo> worker = new SwingWorker<>() {
+            @Override protected Integer doInBackground() throws Exception {
+                return engine.analyze(urlText, fi -> { appLog.debug("Fant: " + fi.getUrl()); publish(fi); }, DownloaderApp.this::log, probeTypes);
+            }
+            @Override protected void process(List<FileInfo> chunks) { tableModel.addFiles(chunks); }
+            @Override protected void done() {
+                try { int n = get(); log("Analyse ferdig. Fant " + n + " filer."); if (n == 0) appLog.warn("Ingen filer funnet.");
+                    if (engine.getPageCache() != null) appLog.debug("Sidebuffer: " + engine.getPageCache());
+                } catch (InterruptedException ex) { Thread.currentThread().interrupt(); appLog.warn("Analyse avbrutt.");
+                } catch (ExecutionException ex) { Throwable c = ex.getCause()!=null?ex.getCause():ex; appLog.error("Feil analyse: "+c.getMessage()); JOptionPane.showMessageDialog(DownloaderApp.this, "Feil: "+c.getMessage(),"Feil", JOptionPane.ERROR_MESSAGE);
+                } finally { fetchButton.setEnabled(true); updateDownloadButtonStateAndExtensionCheckboxes(); }
+            }
+        }; worker.execute();
+    }
+
+    /** Gjennomsøker nettstedet og fyller tabellen fortløpende etter hvert som filer blir funnet. */
+    private void crawlAction(String urlText, int depth) {
+        tableModel.setData(new ArrayList<>());
+        Crawler.Options opts = new Crawler.Options(); opts.maxDepth = depth; opts.probeTypes = probeTypesCheckBox.isSelected();
+        Crawler crawler = engine.newCrawler(opts);
+        log("Søker gjennom " + urlText + " (dybde " + depth + ", maks " + opts.maxPages + " sider)");
+        SwingWorker<Crawler.Stats, FileInfo> worker = new SwingWorker<>() {
+            @Override protected Crawler.Stats doInBackground() throws Exception {
+                return crawler.crawl(urlText, new Crawler.Listener() {
+                    @Override public void fileFound(FileInfo file) { appLog.debug("Fant: " + file.getUrl()); publish(file); }
+                    @Override public void pageFinished(String url, int d, int status, String error, Crawler.Stats stats) {
+                        if (error != null) appLog.warn("Feil side " + url + ": " + error); else appLog.debug("Side (dybde " + d + "): " + url);
+                        if (stats.pagesDone % 25 == 0) log("Fremdrift: " + stats);
                     }
-                    if (isPotFile && uniqueUrls.add(url)) { found.add(new FileInfo(url, ext)); publish("Fant: " + url); }
-                } return found;
+                });
             }
-            @Override protected void process(List<String> chunks) { chunks.forEach(DownloaderApp.this::log); }
+            @Override protected void process(List<FileInfo> chunks) { tableModel.addFiles(chunks); }
             @Override protected void done() {
-                try { List<FileInfo> res = get(); tableModel.setData(res); log("Analyse ferdig. Fant " + res.size() + " filer."); if (res.isEmpty()) log("Ingen filer funnet.");
-                } catch (InterruptedException ex) { Thread.currentThread().interrupt(); log("Analyse avbrutt.");
-                } catch (ExecutionException ex) { Throwable c = ex.getCause()!=null?ex.getCause():ex; log("Feil analyse: "+c.getMessage()); JOptionPane.showMessageDialog(DownloaderApp.this, "Feil: "+c.getMessage(),"Feil", JOptionPane.ERROR_MESSAGE);
+                try { Crawler.Stats st = get(); log("Søk ferdig: " + st); if (crawler.getTypeProbes() != null) log("Filtyper: " + crawler.getTypeProbes()); if (st.filesFound == 0) appLog.warn("Ingen filer funnet.");
+                } catch (InterruptedException ex) { Thread.currentThread().interrupt(); appLog.warn("Søk avbrutt.");
+                } catch (ExecutionException ex) { Throwable c = ex.getCause()!=null?ex.getCause():ex; appLog.error("Feil søk: "+c.getMessage()); JOptionPane.showMessageDialog(DownloaderApp.this, "Feil: "+c.getMessage(),"Feil", JOptionPane.ERROR_MESSAGE);
                 } finally { fetchButton.setEnabled(true); updateDownloadButtonStateAndExtensionCheckboxes(); }
             }
         }; worker.execute();
     }
 
     private void downloadFilesAction(ActionEvent e) {
-        List<FileInfo> toDl = new ArrayList<>(); fetchedFilesList.stream().filter(FileInfo::isSelected).forEach(toDl::add);
+        List<FileInfo> toDl = fetchedFiles.getSelectedFiles();
         if (toDl.isEmpty()) { JOptionPane.showMessageDialog(this, "Ingen filer valgt.", "Advarsel", JOptionPane.WARNING_MESSAGE); return; }
         if (directoryChooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
-            saveDirectory = directoryChooser.getSelectedFile(); if (!saveDirectory.exists()&&!saveDirectory.mkdirs()) { JOptionPane.showMessageDialog(this, "Kan ikke lage mappe.", "Feil", JOptionPane.ERROR_MESSAGE); return; }
-            log("Lagrer til: " + saveDirectory.getAbsolutePath() + ". Laster ned " + toDl.size() + " filer...");
-            downloadButton.setEnabled(false); fetchButton.setEnabled(false); selectAllButton.setEnabled(false); selectNoneButton.setEnabled(false); progressBar.setValue(0); progressBar.setMaximum(toDl.size());
-            SwingWorker<Integer,Object[]> dlWorker = new SwingWorker<>() {
-                int okDl = 0;
-                @Override protected Integer doInBackground() throws Exception {
-                    int prog = 0;
-                    for (FileInfo fi : toDl) { if(isCancelled())break; HttpURLConnection con=null;
-                        try { publish(new Object[]{"Laster ned: "+fi.getUrl(),prog}); URL u=new URL(fi.getUrl()); con=(HttpURLConnection)u.openConnection();
-                            con.setRequestProperty("User-Agent","Mozilla/5.0 ..."); con.setConnectTimeout(15000); con.setReadTimeout(60000); con.setInstanceFollowRedirects(true);
-                            int rc=con.getResponseCode(); if(rc>=400){publish(new Object[]{"Feil ("+rc+") "+fi.getUrl(),prog+1}); prog++; continue;}
-                            String fnHead=null; String cd=con.getHeaderField("Content-Disposition"); if(cd!=null){Matcher m=Pattern.compile("filename\\*?=['\"]?([^'\"]+)['\"]?",Pattern.CASE_INSENSITIVE).matcher(cd); if(m.find()){fnHead=m.group(1); if(fnHead.toLowerCase().startsWith("utf-8''"))fnHead=java.net.URLDecoder.decode(fnHead.substring(7),"UTF-8");}}
-                            String fn=(fnHead!=null&&!fnHead.trim().isEmpty())?fnHead:Paths.get(u.getPath()).getFileName().toString();
-                            if(fn.isEmpty()||(!fn.contains(".")&&fi.getExtension()!=null&&!fi.getExtension().isEmpty()))fn="f_"+System.currentTimeMillis()+(fi.getExtension()!=null?fi.getExtension():".dat");
-                            fn=fn.replaceAll("[^a-zA-Z0-9._\\- ()]","_").replaceAll("_+","_").trim(); if(fn.isEmpty())fn="f_"+System.currentTimeMillis()+(fi.getExtension()!=null?fi.getExtension():".dat");
-                            File oF=new File(saveDirectory,fn); int sfx=1; String bN=fn.contains(".")?fn.substring(0,fn.lastIndexOf('.')):fn; String eP=fn.contains(".")?fn.substring(fn.lastIndexOf('.')):""; while(oF.exists())oF=new File(saveDirectory,bN+"_"+sfx+++eP);
-                            try(InputStream iS=con.getInputStream();FileOutputStream fOS=new FileOutputStream(oF)){byte[]buf=new byte[8192];int br; while((br=iS.read(buf))!=-1){if(isCancelled()){fOS.close();if(oF.exists())Files.delete(oF.toPath());throw new InterruptedException();}fOS.write(buf,0,br);}}
-                            okDl++;publish(new Object[]{"OK: "+oF.getName(),prog+1});
-                        }catch(IOException ex){publish(new Object[]{"Feil DL "+fi.getUrl()+": "+ex.getMessage(),prog+1});
-                        }catch(InterruptedException ex){Thread.currentThread().interrupt();break;
-                        }finally{if(con!=null)con.disconnect();} prog++;
-                    } return okDl;
-                }
-                @Override protected void process(List<Object[]>cs){for(Object[]c:cs){log((String)c[0]);progressBar.setValue((Integer)c[1]);}}
-                @Override protected void done(){
-                    try{int n=get();JOptionPane.showMessageDialog(DownloaderApp.this,"DL ferdig. "+n+" filer.","Ferdig",JOptionPane.INFORMATION_MESSAGE);
-                    }catch(InterruptedException ex){Thread.currentThread().interrupt();JOptionPane.showMessageDialog(DownloaderApp.this,"DL avbrutt.","Avbrutt",JOptionPane.WARNING_MESSAGE);
-                    }catch(ExecutionException ex){JOptionPane.showMessageDialog(DownloaderApp.this,"Feil DL: "+ex.getCause().getMessage(),"Feil",JOptionPane.ERROR_MESSAGE);
-                    }finally{fetchButton.setEnabled(true);progressBar.setValue(progressBar.getMaximum());updateDownloadButtonStateAndExtensionCheckboxes();}
-                }
-            }; dlWorker.execute();
+            File dir = directoryChooser.getSelectedFile(); if (!dir.exists()&&!dir.mkdirs()) { JOptionPane.showMessageDialog(this, "Kan ikke lage mappe.", "Feil", JOptionPane.ERROR_MESSAGE); return; }
+            List<FileInfo> rest = DownloadJournal.unfinished(dir);
+            Set<String> chosen = new HashSet<>(); for (FileInfo fi : toDl) chosen.add(fi.getUrl());
+            rest.removeIf(fi -> chosen.contains(fi.getUrl()));
+            if (!rest.isEmpty() && JOptionPane.showConfirmDialog(this, "Mappen har " + rest.size() + " uferdige filer fra en tidligere nedlasting. Ta dem med nå?", "Uferdig kø", JOptionPane.YES_NO_OPTION) == JOptionPane.YES_OPTION) {
+                toDl = new ArrayList<>(toDl); toDl.addAll(rest);
+            }
+            startDownload(toDl, dir);
         } else { log("DL kansellert."); }
     }
 
+    /** Tilbyr å fortsette køen fra forrige nedlasting hvis den ikke ble ferdig. */
+    private void offerResume() {
+        String last = Preferences.userNodeForPackage(DownloaderApp.class).get(PREF_LAST_DIRECTORY, null);
+        if (last == null) return;
+        File dir = new File(last);
+        List<FileInfo> rest = DownloadJournal.unfinished(dir);
+        if (rest.isEmpty()) return;
+        Object[] choices = {"Fortsett", "Senere", "Forkast"};
+        int choice = JOptionPane.showOptionDialog(this, rest.size() + " filer ble ikke ferdige i " + dir.getAbsolutePath() + ". Fortsette nedlastingen?",
+                "Uferdig nedlasting", JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE, null, choices, choices[0]);
+        if (choice == 0) {
+            directoryChooser.setCurrentDirectory(dir);
+            startDownload(rest, dir);
+        } else if (choice == 2) {
+            try { DownloadJournal.discard(dir); log("Forkastet uferdig kø i " + dir.getAbsolutePath()); }
+            catch (IOException ex) { appLog.error("Kunne ikke forkaste køen: " + ex.getMessage()); }
+        }
+    }
+
+    private void startDownload(List<FileInfo> toDl, File dir) {
+        saveDirectory = dir;
+        Preferences.userNodeForPackage(DownloaderApp.class).put(PREF_LAST_DIRECTORY, dir.getAbsolutePath());
+        log("Lagrer til: " + saveDirectory.getAbsolutePath() + ". Laster ned " + toDl.size() + " filer...");
+        downloadButton.setEnabled(false); fetchButton.setEnabled(false); selectAllButton.setEnabled(false); selectNoneButton.setEnabled(false); progressBar.setValue(0); progressBar.setMaximum(BYTE_PROGRESS_SCALE);
+        DownloadScheduler.Options opts = new DownloadScheduler.Options();
+        opts.maxConcurrent = (Integer) threadsSpinner.getValue(); opts.maxPerHost = (Integer) perHostSpinner.getValue();
+        opts.order = (DownloadOrder) orderComboBox.getSelectedItem(); opts.probeSizes = probeSizesCheckBox.isSelected(); opts.mirrorPaths = mirrorPathsCheckBox.isSelected();
+        opts.maxBytesPerSecond = (Integer) rateLimitSpinner.getValue() * 1024L; opts.maxBytesPerSecondPerHost = (Integer) hostRateLimitSpinner.getValue() * 1024L;
+        DownloadScheduler scheduler = engine.newDownload(saveDirectory, opts);
+        SwingWorker<Integer,Void> dlWorker = new SwingWorker<>() {
+            @Override protected Integer doInBackground() throws Exception {
+                DownloadSummary summary = scheduler.run(toDl, new DownloadScheduler.Listener() {
+                    @Override public void sizesProbed(int known, int total, long bytes) { log(String.format("Størrelse kjent for %d av %d filer, %.1f MB.", known, total, bytes / 1e6)); }
+                    @Override public void fileStarted(FileInfo fi, int completed, int total) { appLog.debug("Laster ned: "+fi.getUrl()); }
+                    @Override public void fileRetrying(DownloadResult r, int attempt, long delayMillis) { appLog.warn(String.format("%s - prøver igjen om %.1f s (forsøk %d)", r.getMessage(), delayMillis / 1e3, attempt + 1)); }
+                    @Override public void fileFinished(DownloadResult r, int completed, int total) {
+                        String msg = "["+completed+"/"+total+"] "+r.getMessage();
+                        if (r.getStatus() == DownloadResult.Status.FAILED) appLog.error(msg); else log(msg);
+                    }
+                });
+                log("Ferdig: "+summary);
+                log("Tilkoblinger: "+engine.getHttp().getStats());
+                if (scheduler.getReportFile() != null) log("Målerapport: "+scheduler.getReportFile());
+                if (scheduler.getUnfinishedCount() > 0) log(scheduler.getUnfinishedCount()+" filer står igjen i køen og kan fortsettes senere.");
+                return summary.getSucceeded();
+            }
+            @Override protected void done(){
+                try{int n=get();JOptionPane.showMessageDialog(DownloaderApp.this,"DL ferdig. "+n+" filer.","Ferdig",JOptionPane.INFORMATION_MESSAGE);
+                }catch(InterruptedException ex){Thread.currentThread().interrupt();JOptionPane.showMessageDialog(DownloaderApp.this,"DL avbrutt.","Avbrutt",JOptionPane.WARNING_MESSAGE);
+                }catch(ExecutionException ex){appLog.error("Feil DL: "+ex.getCause().getMessage());JOptionPane.showMessageDialog(DownloaderApp.this,"Feil DL: "+ex.getCause().getMessage(),"Feil",JOptionPane.ERROR_MESSAGE);
+                }finally{throughputPanel.stop();fetchButton.setEnabled(true);progressBar.setString(null);progressBar.setValue(progressBar.getMaximum());updateDownloadButtonStateAndExtensionCheckboxes();}
+            }
+        }; throughputPanel.start(scheduler.getMetrics()); dlWorker.execute();
+    }
+
     public static void main(String[] args) {
-        SwingUtilities.invokeLater(() -> new DownloaderApp().setVisible(true));
+        SwingUtilities.invokeLater(() -> {
+            DownloaderApp app = new DownloaderApp();
+            app.setVisible(true);
+            app.offerResume();
+        });
     }
 }
\ No newline at end of file
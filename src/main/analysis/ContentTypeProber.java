@@ -0,0 +1,375 @@
+// ContentTypeProber.java
+package main.analysis;
+
+import main.model.FileInfo;
+import main.net.HttpService;
+import main.util.UrlUtil;
+import main.util.WorkerThreads;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finner den virkelige filtypen for lenker der URL-en ikke sier den, som {@code /download?id=123}
+ * eller {@code /media/abcdef}, og for skript som {@code fil.php?id=7} som egentlig leverer en PDF.
+ * <p>
+ * Sender først HEAD og bruker Content-Disposition eller Content-Type. Svarer ikke verten på HEAD,
+ * eller er typen bare {@code application/octet-stream}, hentes de første {@value #SNIFF_BYTES}
+ * bytene med {@code Range} og typen gjenkjennes fra signaturen i starten av filen.
+ * Svarene huskes per vert, og det samme gjør om verten avviser HEAD, slik at neste analyse av
+ * samme nettsted ikke spør på nytt.
+ */
+public class ContentTypeProber {
+
+    /** Innstillinger for undersøkelsen. */
+    public static class Options {
+        public int concurrency = 8;
+        public int maxPerHost = 4;
+        /** Maks antall lenker som undersøkes per analyse, så en side med tusenvis av lenker ikke blir til tusenvis av forespørsler. */
+        public int maxProbes = 500;
+    }
+
+    /** Svaret for én URL. {@code extension} er null for nettsider og lenker som ikke svarte. */
+    static final class Result {
+        static final Result PAGE = new Result("text/html", null);
+        static final Result UNAVAILABLE = new Result(null, null);
+
+        final String contentType;
+        /** Endelsen som passer til innholdet, tom streng for binærfiler av ukjent type. */
+        final String extension;
+
+        Result(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+
+        boolean isFile() { return extension != null; }
+    }
+
+    static final int SNIFF_BYTES = 512;
+    private static final Duration PROBE_TIMEOUT = Duration.ofSeconds(10);
+    private static final int MAX_CACHED_PER_HOST = 4096;
+    private static final Pattern CONTENT_DISPOSITION_FILENAME = Pattern.compile("filename\\*?=['\"]?([^'\";]+)['\"]?", Pattern.CASE_INSENSITIVE);
+    private static final Map<String, String> EXTENSION_BY_MIME = new HashMap<>();
+
+    static {
+        String[][] types = {
+                {"image/png", ".png"}, {"image/jpeg", ".jpg"}, {"image/pjpeg", ".jpg"}, {"image/gif", ".gif"},
+                {"image/svg+xml", ".svg"}, {"image/webp", ".webp"}, {"image/bmp", ".bmp"}, {"image/x-ms-bmp", ".bmp"},
+                {"image/tiff", ".tiff"}, {"image/x-icon", ".ico"}, {"image/vnd.microsoft.icon", ".ico"},
+                {"application/pdf", ".pdf"}, {"application/msword", ".doc"},
+                {"application/vnd.openxmlformats-officedocument.wordprocessingml.document", ".docx"},
+                {"application/vnd.ms-excel", ".xls"},
+                {"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet", ".xlsx"},
+                {"application/vnd.ms-powerpoint", ".ppt"},
+                {"application/vnd.openxmlformats-officedocument.presentationml.presentation", ".pptx"},
+                {"text/plain", ".txt"}, {"application/rtf", ".rtf"}, {"text/rtf", ".rtf"},
+                {"application/vnd.oasis.opendocument.text", ".odt"}, {"text/csv", ".csv"},
+                {"video/mp4", ".mp4"}, {"video/quicktime", ".mov"}, {"video/x-msvideo", ".avi"},
+                {"video/x-matroska", ".mkv"}, {"video/webm", ".webm"}, {"video/x-flv", ".flv"},
+                {"video/x-ms-wmv", ".wmv"}, {"video/x-ms-asf", ".wmv"}, {"video/mpeg", ".mpeg"},
+                {"audio/mpeg", ".mp3"}, {"audio/mp3", ".mp3"}, {"audio/wav", ".wav"}, {"audio/x-wav", ".wav"},
+                {"audio/wave", ".wav"}, {"audio/ogg", ".ogg"}, {"application/ogg", ".ogg"}, {"audio/aac", ".aac"},
+                {"audio/flac", ".flac"}, {"audio/x-flac", ".flac"}, {"audio/mp4", ".m4a"}, {"audio/x-m4a", ".m4a"},
+                {"audio/x-ms-wma", ".wma"},
+                {"application/zip", ".zip"}, {"application/x-zip-compressed", ".zip"},
+                {"application/vnd.rar", ".rar"}, {"application/x-rar-compressed", ".rar"}, {"application/x-tar", ".tar"},
+                {"application/gzip", ".gz"}, {"application/x-gzip", ".gz"}, {"application/x-7z-compressed", ".7z"},
+                {"application/x-bzip2", ".bz2"}, {"application/x-xz", ".xz"},
+                {"text/css", ".css"}, {"text/javascript", ".js"}, {"application/javascript", ".js"},
+                {"application/json", ".json"}, {"application/xml", ".xml"}, {"text/xml", ".xml"}, {"text/markdown", ".md"},
+        };
+        for (String[] t : types) EXTENSION_BY_MIME.put(t[0], t[1]);
+    }
+
+    /** Det vi husker om én vert. */
+    private static final class HostState {
+        final Semaphore slots;
+        volatile boolean headUnsupported;
+        private final Map<String, Result> results = new LinkedHashMap<>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Result> eldest) {
+                return size() > MAX_CACHED_PER_HOST;
+            }
+        };
+
+        HostState(int maxPerHost) { this.slots = new Semaphore(maxPerHost); }
+
+        synchronized Result get(String url) { return results.get(url); }
+        synchronized void put(String url, Result r) { results.put(url, r); }
+    }
+
+    private final HttpService http;
+    private final Options options;
+    private final Map<String, HostState> hosts = new ConcurrentHashMap<>();
+
+    public ContentTypeProber(HttpService http) {
+        this(http, new Options());
+    }
+
+    public ContentTypeProber(HttpService http, Options options) {
+        this.http = http;
+        this.options = options;
+    }
+
+    /** Starter en ny runde der funnene sendes til {@code sink}, som kalles fra arbeidertrådene. */
+    public Batch newBatch(Consumer<FileInfo> sink) {
+        return new Batch(sink);
+    }
+
+    /**
+     * Én analyse eller gjennomsøking. Lenkene undersøkes i bakgrunnen så snart de er sendt inn,
+     * mens resten av siden fortsatt leses, og {@link #await()} venter til alle er ferdige.
+     */
+    public final class Batch {
+        private final Consumer<FileInfo> sink;
+        private final ExecutorService pool = WorkerThreads.newExecutor(options.concurrency, "filtype");
+        private final Semaphore slots = new Semaphore(options.concurrency);
+        private final Set<String> submitted = ConcurrentHashMap.newKeySet();
+        private final AtomicInteger identified = new AtomicInteger();
+        private final AtomicInteger cached = new AtomicInteger();
+        private final AtomicInteger skipped = new AtomicInteger();
+        private int pending;
+        private volatile boolean cancelled;
+
+        private Batch(Consumer<FileInfo> sink) {
+            this.sink = sink;
+        }
+
+        /**
+         * Undersøker lenken. Har {@code candidate} en endelse (f.eks. {@code .php}), sendes den videre
+         * uendret hvis serveren ikke oppgir noen bedre type; uten endelse sendes den bare videre
+         * når svaret viser seg å være en fil.
+         */
+        public void submit(FileInfo candidate) {
+            if (cancelled || !submitted.add(candidate.getUrl())) return;
+            if (submitted.size() > options.maxProbes) {
+                skipped.incrementAndGet();
+                if (!candidate.getExtension().isEmpty()) sink.accept(candidate);
+                return;
+            }
+            synchronized (this) { pending++; }
+            pool.execute(() -> {
+                try {
+                    deliver(candidate, probe(candidate.getUrl()));
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    synchronized (this) {
+                        pending--;
+                        notifyAll();
+                    }
+                }
+            });
+        }
+
+        private Result probe(String url) throws InterruptedException {
+            HostState host = hosts.computeIfAbsent(UrlUtil.hostOf(url), h -> new HostState(options.maxPerHost));
+            Result r = host.get(url);
+            if (r != null) {
+                cached.incrementAndGet();
+                return r;
+            }
+            host.slots.acquire();
+            try {
+                slots.acquire();
+                try {
+                    if (cancelled) return Result.UNAVAILABLE;
+                    r = fetch(host, url);
+                } finally {
+                    slots.release();
+                }
+            } catch (IOException | IllegalArgumentException ex) {
+                // Nettverksfeil huskes ikke, så neste analyse får prøve igjen
+                return Result.UNAVAILABLE;
+            } finally {
+                host.slots.release();
+            }
+            host.put(url, r);
+            return r;
+        }
+
+        private void deliver(FileInfo candidate, Result r) {
+            if (cancelled) return;
+            if (r.isFile() && (!r.extension.isEmpty() || candidate.getExtension().isEmpty())) {
+                identified.incrementAndGet();
+                sink.accept(new FileInfo(candidate.getUrl(), r.extension, r.contentType));
+            } else if (!candidate.getExtension().isEmpty()) {
+                sink.accept(candidate);
+            }
+        }
+
+        /** Venter til alle innsendte lenker er undersøkt og levert. */
+        public void await() throws InterruptedException {
+            try {
+                synchronized (this) {
+                    while (pending > 0 && !cancelled) wait();
+                }
+            } catch (InterruptedException ex) {
+                cancel();
+                throw ex;
+            } finally {
+                pool.shutdown();
+            }
+        }
+
+        /** Avbryter undersøkelser som ikke er ferdige. Ingenting sendes til {@code sink} etterpå. */
+        public void cancel() {
+            cancelled = true;
+            pool.shutdownNow();
+            synchronized (this) { notifyAll(); }
+        }
+
+        /** Antall lenker som er sendt inn, inkludert dem som ikke ble undersøkt. */
+        public int getSubmitted() { return submitted.size(); }
+        /** Antall lenker der serveren ga oss en filtype. */
+        public int getIdentified() { return identified.get(); }
+        /** Antall svar hentet fra hurtigbufferen i stedet for fra serveren. */
+        public int getCached() { return cached.get(); }
+        /** Antall lenker over {@link Options#maxProbes} som ikke ble undersøkt. */
+        public int getSkipped() { return skipped.get(); }
+
+        @Override
+        public String toString() {
+            return String.format("%d lenker undersøkt, %d filer funnet, %d fra hurtigbuffer%s",
+                    getSubmitted() - getSkipped(), getIdentified(), getCached(),
+                    getSkipped() > 0 ? ", " + getSkipped() + " hoppet over" : "");
+        }
+    }
+
+    /** HEAD først, så de første bytene med Range hvis HEAD ikke gir svaret. */
+    private Result fetch(HostState host, String url) throws IOException, InterruptedException {
+        Result fromHead = null;
+        if (!host.headUnsupported) {
+            HttpRequest head = http.request(url).method("HEAD", HttpRequest.BodyPublishers.noBody()).timeout(PROBE_TIMEOUT).build();
+            HttpResponse<Void> resp = http.send(head, HttpResponse.BodyHandlers.discarding());
+            int status = resp.statusCode();
+            if (status == 405 || status == 501) {
+                host.headUnsupported = true;
+            } else if (status >= 400) {
+                return Result.UNAVAILABLE;
+            } else {
+                fromHead = fromHeaders(resp.headers());
+                if (fromHead != null && (!fromHead.isFile() || !fromHead.extension.isEmpty())) return fromHead;
+            }
+        }
+        HttpRequest get = http.request(url).header("Range", "bytes=0-" + (SNIFF_BYTES - 1)).timeout(PROBE_TIMEOUT).build();
+        HttpResponse<InputStream> resp = http.send(get, HttpResponse.BodyHandlers.ofInputStream());
+        // Ignorerer serveren Range, leser vi likevel bare starten og lukker strømmen
+        try (InputStream body = resp.body()) {
+            if (resp.statusCode() >= 400) return Result.UNAVAILABLE;
+            Result fromGet = fromHeaders(resp.headers());
+            if (fromGet != null && (!fromGet.isFile() || !fromGet.extension.isEmpty())) return fromGet;
+            byte[] start = body.readNBytes(SNIFF_BYTES);
+            String contentType = fromGet != null ? fromGet.contentType : null;
+            String ext = sniff(start, start.length);
+            if (ext == null) return new Result(contentType, "");
+            return ext.isEmpty() ? Result.PAGE : new Result(contentType, ext);
+        }
+    }
+
+    /**
+     * Typen ut fra svarhodene: filnavnet i Content-Disposition først, så Content-Type.
+     * Gir en fil med tom endelse for generiske binærtyper, og null når hodene ikke sier noe.
+     */
+    static Result fromHeaders(HttpHeaders headers) {
+        String contentType = headers.firstValue("Content-Type").orElse(null);
+        String disposition = headers.firstValue("Content-Disposition").orElse(null);
+        if (disposition != null) {
+            Matcher m = CONTENT_DISPOSITION_FILENAME.matcher(disposition);
+            if (m.find()) {
+                String ext = UrlUtil.getFileExtensionFromUrl(m.group(1).trim());
+                if (ext != null && !LinkExtractor.PAGE_EXTENSIONS.contains(ext)) return new Result(contentType, ext);
+            }
+        }
+        if (contentType == null) return null;
+        String mime = contentType.split(";", 2)[0].trim().toLowerCase(Locale.ROOT);
+        if (mime.equals("text/html") || mime.equals("application/xhtml+xml")) return Result.PAGE;
+        // Generiske typer som application/octet-stream, og typer vi ikke har endelse for, er filer av ukjent type
+        String ext = EXTENSION_BY_MIME.get(mime);
+        return new Result(contentType, ext != null ? ext : "");
+    }
+
+    /**
+     * Gjenkjenner filtypen fra de første bytene. Gir endelsen, tom streng for HTML, eller null
+     * når signaturen er ukjent.
+     */
+    static String sniff(byte[] b, int n) {
+        if (startsWith(b, n, 0, 0x89, 'P', 'N', 'G')) return ".png";
+        if (startsWith(b, n, 0, 0xFF, 0xD8, 0xFF)) return ".jpg";
+        if (startsWith(b, n, 0, 'G', 'I', 'F', '8')) return ".gif";
+        if (startsWith(b, n, 0, 'R', 'I', 'F', 'F')) {
+            if (startsWith(b, n, 8, 'W', 'E', 'B', 'P')) return ".webp";
+            if (startsWith(b, n, 8, 'A', 'V', 'I', ' ')) return ".avi";
+            if (startsWith(b, n, 8, 'W', 'A', 'V', 'E')) return ".wav";
+        }
+        if (startsWith(b, n, 0, '%', 'P', 'D', 'F')) return ".pdf";
+        if (startsWith(b, n, 0, 'P', 'K', 3, 4)) {
+            if (startsWith(b, n, 30, 'm', 'i', 'm', 'e', 't', 'y', 'p', 'e')) {
+                String mime = ascii(b, 38, Math.min(n, 38 + 60));
+                if (mime.startsWith("application/vnd.oasis.opendocument.text")) return ".odt";
+            }
+            return ".zip";
+        }
+        if (startsWith(b, n, 0, 'R', 'a', 'r', '!')) return ".rar";
+        if (startsWith(b, n, 0, '7', 'z', 0xBC, 0xAF, 0x27, 0x1C)) return ".7z";
+        if (startsWith(b, n, 0, 0x1F, 0x8B)) return ".gz";
+        if (startsWith(b, n, 0, 'B', 'Z', 'h')) return ".bz2";
+        if (startsWith(b, n, 0, 0xFD, '7', 'z', 'X', 'Z', 0)) return ".xz";
+        if (startsWith(b, n, 257, 'u', 's', 't', 'a', 'r')) return ".tar";
+        if (startsWith(b, n, 4, 'f', 't', 'y', 'p')) {
+            if (startsWith(b, n, 8, 'q', 't', ' ', ' ')) return ".mov";
+            if (startsWith(b, n, 8, 'M', '4', 'A', ' ')) return ".m4a";
+            return ".mp4";
+        }
+        if (startsWith(b, n, 0, 0x1A, 0x45, 0xDF, 0xA3)) return ascii(b, 0, n).contains("webm") ? ".webm" : ".mkv";
+        if (startsWith(b, n, 0, 'F', 'L', 'V')) return ".flv";
+        if (startsWith(b, n, 0, 'O', 'g', 'g', 'S')) return ".ogg";
+        if (startsWith(b, n, 0, 'f', 'L', 'a', 'C')) return ".flac";
+        if (startsWith(b, n, 0, 0x30, 0x26, 0xB2, 0x75, 0x8E, 0x66, 0xCF, 0x11)) return ".wmv";
+        if (startsWith(b, n, 0, 0xD0, 0xCF, 0x11, 0xE0, 0xA1, 0xB1, 0x1A, 0xE1)) return ".doc";
+        if (startsWith(b, n, 0, '{', '\\', 'r', 't', 'f')) return ".rtf";
+        if (startsWith(b, n, 0, 0, 0, 1, 0xBA) || startsWith(b, n, 0, 0, 0, 1, 0xB3)) return ".mpg";
+        if (startsWith(b, n, 0, 'I', 'D', '3')) return ".mp3";
+        if (n >= 2 && (b[0] & 0xFF) == 0xFF && (b[1] & 0xF6) == 0xF0) return ".aac";
+        if (n >= 2 && (b[0] & 0xFF) == 0xFF && (b[1] & 0xE0) == 0xE0) return ".mp3";
+        if (startsWith(b, n, 0, 'I', 'I', '*', 0) || startsWith(b, n, 0, 'M', 'M', 0, '*')) return ".tiff";
+        if (startsWith(b, n, 0, 0, 0, 1, 0)) return ".ico";
+        if (n >= 14 && startsWith(b, n, 0, 'B', 'M')) return ".bmp";
+        // Tekst, eventuelt etter en UTF-8 BOM
+        String text = ascii(b, startsWith(b, n, 0, 0xEF, 0xBB, 0xBF) ? 3 : 0, n).trim().toLowerCase(Locale.ROOT);
+        if (text.startsWith("<svg") || (text.startsWith("<?xml") && text.contains("<svg"))) return ".svg";
+        if (text.startsWith("<!doctype html") || text.startsWith("<html") || text.startsWith("<head") || text.startsWith("<!--")) return "";
+        if (text.startsWith("<?xml")) return ".xml";
+        return null;
+    }
+
+    private static boolean startsWith(byte[] b, int n, int offset, int... sig) {
+        if (offset + sig.length > n) return false;
+        for (int i = 0; i < sig.length; i++) {
+            if ((b[offset + i] & 0xFF) != sig[i]) return false;
+        }
+        return true;
+    }
+
+    private static String ascii(byte[] b, int from, int to) {
+        return from >= to ? "" : new String(b, from, to - from, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,257 @@
+// Crawler.java
+package main.analysis;
+
+import main.model.FileInfo;
+import main.util.UrlUtil;
+import main.util.WorkerThreads;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Søker gjennom flere sider på samme nettsted og samler fillenkene fra alle.
+ * <p>
+ * Sidene hentes bredde-først fra en felles kø. Hver URL besøkes bare én gang, og bare
+ * lenker på samme nettsted som startsiden følges, ned til en gitt dybde. Sidene hentes
+ * parallelt, men med et tak på samtidige forespørsler og en minste pause mellom
+ * forespørsler mot hver vert, slik at vi ikke overbelaster nettstedet.
+ */
+public class Crawler {
+
+    /** Innstillinger for én gjennomsøking. */
+    public static class Options {
+        public int maxDepth = 2;
+        public int maxPages = 500;
+        public int concurrency = 8;
+        public int maxPerHost = 2;
+        public long hostDelayMillis = 250;
+        public boolean includeSubdomains = true;
+        /** Sjekk filtypen for lenker uten filendelse mot serveren, se {@link ContentTypeProber}. */
+        public boolean probeTypes;
+    }
+
+    /** Tilbakemeldinger fra gjennomsøkingen. Kalles fra arbeidertrådene. */
+    public interface Listener {
+        void fileFound(FileInfo file);
+        void pageFinished(String url, int depth, int status, String error, Stats stats);
+    }
+
+    /** Øyeblikksbilde av fremdriften. */
+    public static final class Stats {
+        public final int pagesDone;
+        public final int pagesFailed;
+        public final int filesFound;
+        public final int frontierSize;
+        public final long elapsedNanos;
+
+        Stats(int pagesDone, int pagesFailed, int filesFound, int frontierSize, long elapsedNanos) {
+            this.pagesDone = pagesDone;
+            this.pagesFailed = pagesFailed;
+            this.filesFound = filesFound;
+            this.frontierSize = frontierSize;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public double getPagesPerSecond() {
+            return elapsedNanos > 0 ? pagesDone / (elapsedNanos / 1e9) : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d sider (%d feilet), %d filer, %d i køen, %.1f sider/s",
+                    pagesDone, pagesFailed, filesFound, frontierSize, getPagesPerSecond());
+        }
+    }
+
+    private static final class PageTask {
+        final String url;
+        final int depth;
+        PageTask(String url, int depth) { this.url = url; this.depth = depth; }
+    }
+
+    /** Pause og samtidighetstak per vert. */
+    private static final class HostGate {
+        final Semaphore slots;
+        long nextAllowedNanos;
+        HostGate(int maxPerHost) { this.slots = new Semaphore(maxPerHost); }
+    }
+
+    private final PageAnalyzer analyzer;
+    private final Options options;
+
+    private final Queue<PageTask> frontier = new ArrayDeque<>();
+    private final Set<String> visited = new HashSet<>();
+    private final Set<String> seenFiles = ConcurrentHashMap.newKeySet();
+    private final Map<String, HostGate> hostGates = new ConcurrentHashMap<>();
+    private final AtomicInteger pagesDone = new AtomicInteger();
+    private final AtomicInteger pagesFailed = new AtomicInteger();
+    private final AtomicInteger filesFound = new AtomicInteger();
+    private volatile ContentTypeProber.Batch probes;
+    private int active;
+    private volatile boolean cancelled;
+    private String seedHost;
+    private long startNanos;
+
+    public Crawler(PageAnalyzer analyzer, Options options) {
+        this.analyzer = analyzer;
+        this.options = options;
+    }
+
+    /** Søker fra startsiden og blokkerer til hele nettstedet (innenfor grensene) er besøkt, eller avbrutt. */
+    public Stats crawl(String seedUrl, Listener listener) throws InterruptedException {
+        startNanos = System.nanoTime();
+        seedHost = UrlUtil.hostOf(seedUrl);
+        if (seedHost.startsWith("www.")) seedHost = seedHost.substring(4);
+        Listener counting = new Listener() {
+            @Override public void fileFound(FileInfo file) {
+                filesFound.incrementAndGet();
+                listener.fileFound(file);
+            }
+            @Override public void pageFinished(String url, int depth, int status, String error, Stats stats) {
+                listener.pageFinished(url, depth, status, error, stats);
+            }
+        };
+        if (options.probeTypes) probes = analyzer.getProber().newBatch(counting::fileFound);
+        offer(seedUrl, 0);
+        ExecutorService pool = WorkerThreads.newExecutor(options.concurrency, "crawler");
+        try {
+            for (int i = 0; i < options.concurrency; i++) pool.execute(() -> workLoop(counting));
+            synchronized (frontier) {
+                while (!cancelled && (active > 0 || !frontier.isEmpty())) frontier.wait();
+            }
+            // Lenker som fortsatt typesjekkes blir med i resultatet
+            if (probes != null && !cancelled) probes.await();
+        } catch (InterruptedException ex) {
+            cancel();
+            throw ex;
+        } finally {
+            pool.shutdownNow();
+            if (probes != null) probes.cancel();
+        }
+        return stats();
+    }
+
+    public void cancel() {
+        cancelled = true;
+        if (probes != null) probes.cancel();
+        synchronized (frontier) {
+            frontier.clear();
+            frontier.notifyAll();
+        }
+    }
+
+    public boolean isCancelled() { return cancelled; }
+
+    /** Typesjekkingen for denne gjennomsøkingen, eller null når {@link Options#probeTypes} ikke er satt. */
+    public ContentTypeProber.Batch getTypeProbes() { return probes; }
+
+    public Stats stats() {
+        int queued;
+        synchronized (frontier) { queued = frontier.size(); }
+        return new Stats(pagesDone.get(), pagesFailed.get(), filesFound.get(), queued, System.nanoTime() - startNanos);
+    }
+
+    private void workLoop(Listener listener) {
+        try {
+            PageTask task;
+            while ((task = take()) != null) {
+                try {
+                    visit(task, listener);
+                } finally {
+                    synchronized (frontier) {
+                        active--;
+                        frontier.notifyAll();
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private PageTask take() throws InterruptedException {
+        synchronized (frontier) {
+            while (frontier.isEmpty()) {
+                if (cancelled || active == 0) return null;
+                frontier.wait();
+            }
+            if (cancelled) return null;
+            active++;
+            return frontier.poll();
+        }
+    }
+
+    private void visit(PageTask task, Listener listener) throws InterruptedException {
+        HostGate gate = hostGates.computeIfAbsent(UrlUtil.hostOf(task.url), h -> new HostGate(options.maxPerHost));
+        gate.slots.acquire();
+        try {
+            long wait;
+            synchronized (gate) {
+                long now = System.nanoTime();
+                long start = Math.max(now, gate.nextAllowedNanos);
+                gate.nextAllowedNanos = start + TimeUnit.MILLISECONDS.toNanos(options.hostDelayMillis);
+                wait = start - now;
+            }
+            if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+            if (cancelled) return;
+
+            int status;
+            String error = null;
+            try {
+                boolean follow = task.depth < options.maxDepth;
+                status = analyzer.scan(task.url, seenFiles, listener::fileFound, follow ? link -> offer(link, task.depth + 1) : null,
+                        probes != null ? probes::submit : null);
+                if (status >= 400) error = "Status " + status;
+            } catch (IOException | IllegalArgumentException ex) {
+                status = -1;
+                error = ex.getMessage() != null ? ex.getMessage() : ex.toString();
+            }
+            if (error != null) pagesFailed.incrementAndGet();
+            pagesDone.incrementAndGet();
+            listener.pageFinished(task.url, task.depth, status, error, stats());
+        } finally {
+            gate.slots.release();
+        }
+    }
+
+    private void offer(String url, int depth) {
+        String key = normalize(url);
+        if (key == null || !isAllowed(key)) return;
+        synchronized (frontier) {
+            if (cancelled || visited.size() >= options.maxPages || !visited.add(key)) return;
+            frontier.add(new PageTask(key, depth));
+            frontier.notifyAll();
+        }
+    }
+
+    private boolean isAllowed(String url) {
+        String host = UrlUtil.hostOf(url);
+        if (host.startsWith("www.")) host = host.substring(4);
+        return host.equals(seedHost) || (options.includeSubdomains && host.endsWith("." + seedHost));
+    }
+
+    /** Fjerner fragment og normaliserer skjema og vert, slik at samme side bare besøkes én gang. */
+    static String normalize(String url) {
+        try {
+            URI u = URI.create(LinkExtractor.stripFragment(url)).normalize();
+            String scheme = u.getScheme();
+            if (scheme == null || !(scheme.equalsIgnoreCase("http") || scheme.equalsIgnoreCase("https")) || u.getHost() == null) return null;
+            String path = (u.getRawPath() == null || u.getRawPath().isEmpty()) ? "/" : u.getRawPath();
+            int port = u.getPort();
+            return scheme.toLowerCase() + "://" + u.getHost().toLowerCase() + (port >= 0 ? ":" + port : "") + path
+                    + (u.getRawQuery() != null ? "?" + u.getRawQuery() : "");
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+// LinkExtractor.java
+package main.analysis;
+
+import main.model.FileInfo;
+import main.util.UrlUtil;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Finner lenker til filer i et HTML-dokument.
+ */
+public class LinkExtractor {
+
+    static final String LINK_SELECTOR = "a[href], img[src], source[srcset], video[src], audio[src], track[src], embed[src], object[data], link[href]";
+
+    static final Set<String> PAGE_EXTENSIONS = Set.of(".html", ".htm", ".shtml", ".php", ".asp", ".aspx", ".jsp");
+
+    private LinkExtractor() {} // Privat konstruktør for hjelpeklasse
+
+    /**
+     * Sender hver fillenke i dokumentet til {@code sink}. Lenker som allerede finnes i
+     * {@code seen}, og lenker uten gjenkjennbar filendelse, hoppes over.
+     */
+    public static void extract(Document doc, Set<String> seen, Consumer<FileInfo> sink) {
+        extract(doc, seen, sink, null);
+    }
+
+    /**
+     * Som {@link #extract(Document, Set, Consumer)}, men sender i tillegg {@code a[href]}-lenker
+     * som ser ut som nettsider til {@code pageSink}, for gjennomsøking av flere sider.
+     */
+    public static void extract(Document doc, Set<String> seen, Consumer<FileInfo> sink, Consumer<String> pageSink) {
+        for (Element link : doc.select(LINK_SELECTOR)) {
+            String url = "";
+            if (link.hasAttr("href")) url = link.absUrl("href");
+            else if (link.hasAttr("src")) url = link.absUrl("src");
+            else if (link.hasAttr("srcset")) url = link.absUrl("srcset").split(",")[0].trim().split("\\s+")[0];
+            else if (link.hasAttr("data")) url = link.absUrl("data");
+            FileInfo fi = toFileInfo(url, link.tagName(), link.attr("rel"));
+            if (fi != null && seen.add(fi.getUrl())) sink.accept(fi);
+            if (pageSink != null && "a".equalsIgnoreCase(link.tagName()) && isPageLink(url, fi)) pageSink.accept(stripFragment(url));
+        }
+    }
+
+    /** Lenker uten filendelse, eller med en typisk sideendelse, regnes som sider. */
+    static boolean isPageLink(String url, FileInfo fi) {
+        if (!(url.startsWith("http://") || url.startsWith("https://"))) return false;
+        return fi == null || PAGE_EXTENSIONS.contains(fi.getExtension());
+    }
+
+    static String stripFragment(String url) {
+        int i = url.indexOf('#');
+        return i >= 0 ? url.substring(0, i) : url;
+    }
+
+    /** Gjør en absolutt lenke om til en FileInfo, eller null hvis den ikke peker på en fil. */
+    static FileInfo toFileInfo(String url, String tagName, String rel) {
+        if (url.isEmpty() || url.startsWith("mailto:") || url.startsWith("tel:") || url.startsWith("javascript:") || url.startsWith("#")) return null;
+        url = stripFragment(url);
+        String ext = UrlUtil.getFileExtensionFromUrl(url);
+        boolean isPotFile = (ext != null && !ext.isEmpty());
+        if ("link".equalsIgnoreCase(tagName) && !isResourceRel(rel.toLowerCase(), url) && !isPotFile) return null;
+        return isPotFile ? new FileInfo(url, ext) : null;
+    }
+
+    /**
+     * Lenker der URL-en ikke sier hva de peker på, og som må sjekkes mot serveren: lenker uten
+     * filendelse, som {@code /download?id=123}, og skript med spørrestreng, som {@code fil.php?id=7}.
+     * Returnerer en FileInfo med tom endelse for de første og {@code fi} for de andre, ellers null.
+     * Lenker som ender på {@code /} regnes som sider og sjekkes ikke.
+     */
+    static FileInfo toProbeCandidate(String url, String tagName, String rel, FileInfo fi) {
+        if (fi != null) return PAGE_EXTENSIONS.contains(fi.getExtension()) && fi.getUrl().indexOf('?') >= 0 ? fi : null;
+        if (!(url.startsWith("http://") || url.startsWith("https://"))) return null;
+        if ("link".equalsIgnoreCase(tagName) && !isResourceRel(rel.toLowerCase(), url)) return null;
+        url = stripFragment(url);
+        int query = url.indexOf('?');
+        int pathStart = url.indexOf('/', url.indexOf("//") + 2);
+        if (pathStart < 0 || (query >= 0 && query < pathStart)) return null;
+        if (url.charAt((query >= 0 ? query : url.length()) - 1) == '/') return null;
+        return new FileInfo(url, "");
+    }
+
+    private static boolean isResourceRel(String rel, String url) {
+        return "stylesheet".equals(rel) || "icon".equals(rel) || "shortcut icon".equals(rel) || "apple-touch-icon".equals(rel)
+                || "preload".equals(rel) || "manifest".equals(rel)
+                || ("alternate".equals(rel) && (url.endsWith(".xml") || url.endsWith(".rss") || url.endsWith(".atom")));
+    }
+}
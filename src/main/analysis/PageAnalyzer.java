@@ -0,0 +1,159 @@
+// PageAnalyzer.java
+package main.analysis;
+
+import main.model.FileInfo;
+import main.net.HttpService;
+import main.net.RetryPolicy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.Charset;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Henter en nettside og finner fillenkene på den. Uavhengig av brukergrensesnittet.
+ * Med en {@link PageCache} brukes lenkene fra forrige gang så lenge siden ikke er endret.
+ * Forbigående feil prøves igjen etter {@link RetryPolicy#DEFAULT}.
+ */
+public class PageAnalyzer {
+
+    static final Duration PAGE_TIMEOUT = Duration.ofSeconds(20);
+
+    private final HttpService http;
+    private final ContentTypeProber prober;
+    private final PageCache cache;
+
+    public PageAnalyzer(HttpService http) {
+        this(http, null);
+    }
+
+    /** {@code cache} kan være null. */
+    public PageAnalyzer(HttpService http, PageCache cache) {
+        this.http = http;
+        this.prober = new ContentTypeProber(http);
+        this.cache = cache;
+    }
+
+    /** Bufferen for analyserte sider, eller null. */
+    public PageCache getCache() { return cache; }
+
+    /** Sjekker filtypen for lenker uten filendelse. Husker svarene så lenge analysatoren lever. */
+    public ContentTypeProber getProber() { return prober; }
+
+    /**
+     * Analyserer siden og returnerer de unike fillenkene i den rekkefølgen de ble funnet.
+     * Fremdriftsmeldinger sendes til {@code log}.
+     */
+    public List<FileInfo> analyze(String pageUrl, Consumer<String> log) throws IOException, InterruptedException {
+        return analyze(pageUrl, log, false);
+    }
+
+    /** Som {@link #analyze(String, Consumer)}, og sjekker typen for lenker uten filendelse når {@code probeTypes} er satt. */
+    public List<FileInfo> analyze(String pageUrl, Consumer<String> log, boolean probeTypes) throws IOException, InterruptedException {
+        List<FileInfo> found = new ArrayList<>();
+        analyze(pageUrl, fi -> {
+            log.accept("Fant: " + fi.getUrl());
+            synchronized (found) { found.add(fi); }
+        }, log, probeTypes);
+        return found;
+    }
+
+    /**
+     * Analyserer siden og sender hver fillenke til {@code fileSink} så snart den er lest,
+     * mens resten av siden fortsatt lastes ned. Returnerer antall filer som ble funnet.
+     * Filene logges ikke her; den som mottar dem bestemmer selv om og hvordan de skal vises.
+     */
+    public int analyze(String pageUrl, Consumer<FileInfo> fileSink, Consumer<String> log) throws IOException, InterruptedException {
+        return analyze(pageUrl, fileSink, log, false);
+    }
+
+    /**
+     * Som {@link #analyze(String, Consumer, Consumer)}. Med {@code probeTypes} sjekkes lenker uten
+     * filendelse mot serveren mens siden leses, og de som viser seg å være filer sendes til
+     * {@code fileSink} med riktig type før metoden returnerer. {@code fileSink} kalles da fra flere tråder.
+     */
+    public int analyze(String pageUrl, Consumer<FileInfo> fileSink, Consumer<String> log, boolean probeTypes) throws IOException, InterruptedException {
+        AtomicInteger count = new AtomicInteger();
+        Consumer<FileInfo> counted = fi -> {
+            count.incrementAndGet();
+            fileSink.accept(fi);
+        };
+        log.accept("Kobler til: " + pageUrl);
+        ContentTypeProber.Batch probes = probeTypes ? prober.newBatch(counted) : null;
+        int status;
+        try {
+            status = scan(pageUrl, new HashSet<>(), counted, null, probes != null ? probes::submit : null);
+            if (probes != null) {
+                if (probes.getSubmitted() > 0) log.accept("Sjekker filtypen for " + probes.getSubmitted() + " lenker...");
+                probes.await();
+                if (probes.getSubmitted() > 0) log.accept("Filtyper: " + probes);
+            }
+        } finally {
+            if (probes != null) probes.cancel();
+        }
+        if (status >= 400) log.accept("Advarsel: Status " + status);
+        return count.get();
+    }
+
+    /**
+     * Henter siden og sender nye fillenker til {@code fileSink} og sidelenker til {@code pageSink}
+     * (kan være null) mens svaret leses. Svar som ikke er HTML analyseres ikke. Returnerer HTTP-statusen.
+     */
+    public int scan(String pageUrl, Set<String> seenFiles, Consumer<FileInfo> fileSink, Consumer<String> pageSink) throws IOException, InterruptedException {
+        return scan(pageUrl, seenFiles, fileSink, pageSink, null);
+    }
+
+    /** Som {@link #scan(String, Set, Consumer, Consumer)}, og sender lenker som må typesjekkes til {@code probeSink} (kan være null). */
+    public int scan(String pageUrl, Set<String> seenFiles, Consumer<FileInfo> fileSink, Consumer<String> pageSink, Consumer<FileInfo> probeSink) throws IOException, InterruptedException {
+        PageCache.Page cached = cache != null ? cache.get(pageUrl) : null;
+        if (cached != null && cached.isFresh()) {
+            cache.freshHit();
+            cached.replay(seenFiles, fileSink, pageSink, probeSink);
+            return cached.status;
+        }
+        HttpRequest.Builder request = http.request(pageUrl);
+        if (cached != null) cached.addValidators(request);
+        HttpResponse<InputStream> resp = http.sendRetrying(() -> request.timeout(http.timeoutFor(pageUrl, PAGE_TIMEOUT)).build(),
+                HttpResponse.BodyHandlers.ofInputStream(), RetryPolicy.DEFAULT);
+        // Tidsavbruddet over gjelder bare hodene; vakthunden stopper en side som henger midt i kroppen
+        try (InputStream body = http.idleTimeout(resp.uri().toString(), PAGE_TIMEOUT).watch(resp.body(), null)) {
+            if (cached != null && resp.statusCode() == 304) {
+                cache.revalidated(cached, resp);
+                cached.replay(seenFiles, fileSink, pageSink, probeSink);
+                return cached.status;
+            }
+            if (!isHtml(resp)) return resp.statusCode();
+            if (cache == null || resp.statusCode() != 200) {
+                StreamingLinkExtractor.extract(body, charsetOf(resp), resp.uri().toString(), seenFiles, fileSink, pageSink, probeSink);
+            } else {
+                PageCache.Recorder rec = cache.newRecorder(seenFiles, fileSink, pageSink, probeSink);
+                StreamingLinkExtractor.extract(body, charsetOf(resp), resp.uri().toString(), rec.seen, rec::file, rec::page, rec::probe);
+                rec.store(pageUrl, resp);
+            }
+        }
+        return resp.statusCode();
+    }
+
+    /** Mangler Content-Type antar vi HTML, slik som før. */
+    static boolean isHtml(HttpResponse<?> resp) {
+        String ct = resp.headers().firstValue("Content-Type").orElse("").toLowerCase();
+        return ct.isEmpty() || ct.contains("html") || ct.startsWith("text/");
+    }
+
+    /** Tegnsett fra Content-Type, eller null slik at det finnes fra BOM eller meta-taggene. */
+    static String charsetOf(HttpResponse<?> resp) {
+        String ct = resp.headers().firstValue("Content-Type").orElse("");
+        int i = ct.toLowerCase().indexOf("charset=");
+        if (i < 0) return null;
+        String cs = ct.substring(i + 8).split(";")[0].trim().replace("\"", "");
+        try { return Charset.isSupported(cs) ? cs : null; } catch (IllegalArgumentException ex) { return null; }
+    }
+}
@@ -0,0 +1,446 @@
+// PageCache.java
+package main.analysis;
+
+import main.model.FileInfo;
+import main.util.FileUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Hurtigbuffer på disk for analyserte sider, så en side som ikke er endret ikke hentes og leses på nytt.
+ * <p>
+ * For hver side lagres ETag, Last-Modified og hvor lenge svaret er ferskt etter Cache-Control/Expires,
+ * sammen med lenkene som ble funnet i den versjonen av siden. Selve HTML-en lagres ikke; lenkene er
+ * alt analysen trenger, og et nytt lagringsformat eller en ny lenkeleser gjør bare at sidene hentes
+ * på nytt. En fersk side brukes uten å spørre serveren, ellers sendes en betinget forespørsel, og ved
+ * 304 brukes lenkene fra bufferen uten å lese noe.
+ * <p>
+ * Hver side er én fil i mappen. Når bufferen blir større enn grensen, slettes de sidene som er
+ * brukt minst nylig. Rekkefølgen følger endringstiden på filene, som oppdateres ved hvert treff,
+ * slik at den overlever omstart. De sist brukte sidene holdes også i minnet. Alle metoder er trådsikre.
+ */
+public class PageCache {
+
+    public static final Path DEFAULT_DIRECTORY = Paths.get(System.getProperty("user.home"), ".filedownload", "cache", "sider");
+    public static final long DEFAULT_MAX_BYTES = 64L << 20;
+
+    /** Økes når lenkeleseren eller formatet endres, så gamle oppføringer ikke brukes. */
+    private static final int FORMAT = 1;
+    private static final int MAGIC = 0x46444c43;
+    private static final String SUFFIX = ".lenker";
+    private static final char FILE = 'F';
+    private static final char PAGE = 'P';
+    private static final char PROBE = 'S';
+    /** Så mange lenker holdes i minnet fra de sist brukte sidene, så gjentatte analyser ikke leser disken. */
+    private static final int MEMORY_LINKS = 200_000;
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME.withLocale(Locale.US);
+
+    /** Én lenke slik lenkeleseren leverte den. */
+    static final class Link {
+        final char kind;
+        final String url;
+        final String extension;
+        final String contentType;
+
+        Link(char kind, String url, String extension, String contentType) {
+            this.kind = kind;
+            this.url = url;
+            this.extension = extension;
+            this.contentType = contentType;
+        }
+    }
+
+    /** En lagret versjon av en side. */
+    static final class Page {
+        final String url;
+        final int status;
+        final String etag;
+        final String lastModified;
+        final long freshUntil;
+        final List<Link> links;
+
+        Page(String url, int status, String etag, String lastModified, long freshUntil, List<Link> links) {
+            this.url = url;
+            this.status = status;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.freshUntil = freshUntil;
+            this.links = links;
+        }
+
+        boolean isFresh() { return System.currentTimeMillis() < freshUntil; }
+
+        void addValidators(HttpRequest.Builder request) {
+            if (etag != null) request.header("If-None-Match", etag);
+            if (lastModified != null) request.header("If-Modified-Since", lastModified);
+        }
+
+        /** Sender lenkene videre akkurat slik {@link StreamingLinkExtractor} ville gjort med samme {@code seen}. */
+        void replay(Set<String> seen, Consumer<FileInfo> fileSink, Consumer<String> pageSink, Consumer<FileInfo> probeSink) {
+            for (Link l : links) deliver(l, seen, fileSink, pageSink, probeSink);
+        }
+
+    }
+
+    /**
+     * Tar opp lenkene fra lenkeleseren og sender dem samtidig videre. Lenkeleseren får sitt eget
+     * {@link #seen}, så det som lagres er hele siden uavhengig av hva mottakeren har sett før.
+     */
+    final class Recorder {
+        final Set<String> seen = new HashSet<>();
+        private final List<Link> links = new ArrayList<>();
+        private final Set<String> callerSeen;
+        private final Consumer<FileInfo> fileSink;
+        private final Consumer<String> pageSink;
+        private final Consumer<FileInfo> probeSink;
+
+        Recorder(Set<String> callerSeen, Consumer<FileInfo> fileSink, Consumer<String> pageSink, Consumer<FileInfo> probeSink) {
+            this.callerSeen = callerSeen;
+            this.fileSink = fileSink;
+            this.pageSink = pageSink;
+            this.probeSink = probeSink;
+        }
+
+        void file(FileInfo fi) { record(new Link(FILE, fi.getUrl(), fi.getExtension(), fi.getContentType())); }
+        void page(String url) { record(new Link(PAGE, url, "", null)); }
+        void probe(FileInfo fi) { record(new Link(PROBE, fi.getUrl(), fi.getExtension(), fi.getContentType())); }
+
+        private void record(Link l) {
+            links.add(l);
+            deliver(l, callerSeen, fileSink, pageSink, probeSink);
+        }
+
+        /** Lagrer lenkene for svaret hvis det kan lagres. */
+        void store(String url, HttpResponse<?> resp) {
+            long freshUntil = freshUntil(resp.headers());
+            if (freshUntil < 0) return;
+            String etag = resp.headers().firstValue("ETag").orElse(null);
+            String lastModified = resp.headers().firstValue("Last-Modified").orElse(null);
+            if (etag == null && lastModified == null && freshUntil <= System.currentTimeMillis()) return;
+            put(new Page(url, resp.statusCode(), etag, lastModified, freshUntil, links));
+        }
+    }
+
+    private final Path directory;
+    private final long maxBytes;
+    /** Filnavn til størrelse, minst nylig brukt først. */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    /** Filnavn til side for de sist brukte sidene, til sammen høyst {@link #MEMORY_LINKS} lenker. */
+    private final LinkedHashMap<String, Page> recent = new LinkedHashMap<>(16, 0.75f, true);
+    private int recentLinks;
+    private final AtomicLong fresh = new AtomicLong();
+    private final AtomicLong revalidated = new AtomicLong();
+    private final AtomicLong stored = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /** Åpner bufferen i mappen og lager den om nødvendig. */
+    public PageCache(Path directory, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory);
+        List<Path> files = new ArrayList<>();
+        Map<Path, FileTime> times = new HashMap<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path p : ds) {
+                files.add(p);
+                times.put(p, Files.getLastModifiedTime(p));
+            }
+        }
+        files.sort(Comparator.comparing(times::get));
+        synchronized (this) {
+            for (Path p : files) {
+                long size = Files.size(p);
+                entries.put(p.getFileName().toString(), size);
+                totalBytes += size;
+            }
+            evictLocked();
+        }
+    }
+
+    /** Bufferen i {@link #DEFAULT_DIRECTORY}, eller null hvis den ikke kan åpnes. */
+    public static PageCache openDefault() {
+        try {
+            return new PageCache(DEFAULT_DIRECTORY, DEFAULT_MAX_BYTES);
+        } catch (IOException e) {
+            System.err.println("Kunne ikke åpne sidebufferen: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /** Den lagrede versjonen av siden, eller null. */
+    Page get(String url) {
+        String name = fileName(url);
+        Page page;
+        synchronized (this) {
+            if (entries.get(name) == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            page = recent.get(name);
+        }
+        Path file = directory.resolve(name);
+        try {
+            if (page == null) {
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                    page = read(in);
+                }
+                if (page == null || !page.url.equals(url)) {
+                    remove(name);
+                    misses.incrementAndGet();
+                    return null;
+                }
+                remember(name, page);
+            }
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return page;
+        } catch (IOException e) {
+            remove(name);
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    /** Siden var fersk og ble brukt uten å spørre serveren. */
+    void freshHit() { fresh.incrementAndGet(); }
+
+    /** Serveren svarte 304. Oppdaterer validatorene og hvor lenge siden er fersk. */
+    void revalidated(Page page, HttpResponse<?> resp) {
+        revalidated.incrementAndGet();
+        HttpHeaders h = resp.headers();
+        long freshUntil = freshUntil(h);
+        if (freshUntil < 0) return;
+        String etag = h.firstValue("ETag").orElse(page.etag);
+        String lastModified = h.firstValue("Last-Modified").orElse(page.lastModified);
+        if (freshUntil == page.freshUntil && Objects.equals(etag, page.etag) && Objects.equals(lastModified, page.lastModified)) return;
+        put(new Page(page.url, page.status, etag, lastModified, freshUntil, page.links));
+    }
+
+    Recorder newRecorder(Set<String> seen, Consumer<FileInfo> fileSink, Consumer<String> pageSink, Consumer<FileInfo> probeSink) {
+        return new Recorder(seen, fileSink, pageSink, probeSink);
+    }
+
+    private void put(Page page) {
+        String name = fileName(page.url);
+        Path file = directory.resolve(name);
+        Path tmp = directory.resolve(name + "." + Thread.currentThread().getId() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                write(out, page);
+            }
+            FileUtil.moveReplacing(tmp, file);
+            long size = Files.size(file);
+            synchronized (this) {
+                Long old = entries.put(name, size);
+                totalBytes += size - (old != null ? old : 0);
+                evictLocked();
+            }
+            remember(name, page);
+            stored.incrementAndGet();
+        } catch (IOException e) {
+            try { Files.deleteIfExists(tmp); } catch (IOException ignored) { /* ryddes ved neste skriving */ }
+            System.err.println("Kunne ikke lagre " + page.url + " i sidebufferen: " + e.getMessage());
+        }
+    }
+
+    private synchronized void remember(String name, Page page) {
+        if (!entries.containsKey(name) || page.links.size() > MEMORY_LINKS) return;
+        Page old = recent.put(name, page);
+        recentLinks += page.links.size() - (old != null ? old.links.size() : 0);
+        Iterator<Page> it = recent.values().iterator();
+        while (recentLinks > MEMORY_LINKS && it.hasNext()) {
+            recentLinks -= it.next().links.size();
+            it.remove();
+        }
+    }
+
+    private void forgetLocked(String name) {
+        Page old = recent.remove(name);
+        if (old != null) recentLinks -= old.links.size();
+    }
+
+    private void remove(String name) {
+        synchronized (this) {
+            Long size = entries.remove(name);
+            if (size != null) totalBytes -= size;
+            forgetLocked(name);
+        }
+        try { Files.deleteIfExists(directory.resolve(name)); } catch (IOException ignored) { /* prøves igjen ved neste treff */ }
+    }
+
+    private void evictLocked() {
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> e = it.next();
+            totalBytes -= e.getValue();
+            it.remove();
+            forgetLocked(e.getKey());
+            try { Files.deleteIfExists(directory.resolve(e.getKey())); } catch (IOException ignored) { /* blir liggende til neste opprydding */ }
+        }
+    }
+
+    /** Tømmer bufferen. */
+    public void clear() {
+        List<String> names;
+        synchronized (this) {
+            names = new ArrayList<>(entries.keySet());
+        }
+        for (String name : names) remove(name);
+    }
+
+    public synchronized int size() { return entries.size(); }
+    public synchronized long getTotalBytes() { return totalBytes; }
+
+    @Override
+    public String toString() {
+        return String.format("%d ferske, %d uendret (304), %d lagret, %d ikke i bufferen; %d sider, %.1f MB",
+                fresh.get(), revalidated.get(), stored.get(), misses.get(), size(), getTotalBytes() / 1e6);
+    }
+
+    /**
+     * Hvor lenge svaret er ferskt i millisekunder siden epoken, 0 hvis det alltid må sjekkes mot serveren,
+     * eller -1 hvis det ikke skal lagres.
+     */
+    static long freshUntil(HttpHeaders h) {
+        String cc = String.join(",", h.allValues("Cache-Control")).toLowerCase(Locale.ROOT);
+        if (cc.contains("no-store")) return -1;
+        if (cc.contains("no-cache")) return 0;
+        long now = System.currentTimeMillis();
+        for (String d : cc.split(",")) {
+            d = d.trim();
+            if (d.startsWith("max-age=")) {
+                try {
+                    return now + Long.parseLong(d.substring(8).replace("\"", "").trim()) * 1000;
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        String expires = h.firstValue("Expires").orElse(null);
+        if (expires == null) return 0;
+        try {
+            return Math.max(0, ZonedDateTime.parse(expires, HTTP_DATE).toInstant().toEpochMilli());
+        } catch (DateTimeParseException e) {
+            return 0;
+        }
+    }
+
+    private static void deliver(Link l, Set<String> seen, Consumer<FileInfo> fileSink, Consumer<String> pageSink, Consumer<FileInfo> probeSink) {
+        switch (l.kind) {
+            case FILE:
+                if (seen.add(l.url)) fileSink.accept(new FileInfo(l.url, l.extension, l.contentType));
+                break;
+            case PAGE:
+                if (pageSink != null) pageSink.accept(l.url);
+                break;
+            case PROBE:
+                // Kandidater med filendelse er skript som ellers hadde vært vanlige fillenker
+                boolean known = !l.extension.isEmpty();
+                if (probeSink != null) {
+                    if (!known || seen.add(l.url)) probeSink.accept(new FileInfo(l.url, l.extension, l.contentType));
+                } else if (known && seen.add(l.url)) {
+                    fileSink.accept(new FileInfo(l.url, l.extension, l.contentType));
+                }
+                break;
+            default:
+        }
+    }
+
+    private static String fileName(String url) {
+        try {
+            byte[] d = MessageDigest.getInstance("SHA-256").digest(url.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(40 + SUFFIX.length());
+            for (int i = 0; i < 20; i++) sb.append(String.format("%02x", d[i]));
+            return sb.append(SUFFIX).toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 mangler", e);
+        }
+    }
+
+    private static void write(DataOutputStream out, Page page) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT);
+        writeString(out, page.url);
+        out.writeInt(page.status);
+        writeString(out, page.etag);
+        writeString(out, page.lastModified);
+        out.writeLong(page.freshUntil);
+        out.writeInt(page.links.size());
+        for (Link l : page.links) {
+            out.writeChar(l.kind);
+            writeString(out, l.url);
+            writeString(out, l.extension);
+            writeString(out, l.contentType);
+        }
+    }
+
+    /** Null hvis filen har et annet format. */
+    private static Page read(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != FORMAT) return null;
+        String url = readString(in);
+        int status = in.readInt();
+        String etag = readString(in);
+        String lastModified = readString(in);
+        long freshUntil = in.readLong();
+        int n = in.readInt();
+        if (n < 0) return null;
+        List<Link> links = new ArrayList<>(Math.min(n, 1 << 16));
+        for (int i = 0; i < n; i++) {
+            char kind = in.readChar();
+            String linkUrl = readString(in);
+            String ext = readString(in);
+            links.add(new Link(kind, linkUrl, ext != null ? ext : "", readString(in)));
+        }
+        return new Page(url, status, etag, lastModified, freshUntil, links);
+    }
+
+    /** Som {@link DataOutputStream#writeUTF}, men uten grensen på 64 kB og med null. */
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int len = in.readInt();
+        if (len < 0) return null;
+        byte[] b = new byte[len];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,350 @@
+// StreamingLinkExtractor.java
+package main.analysis;
+
+import main.model.FileInfo;
+import org.jsoup.parser.Parser;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finner fillenker i HTML mens dokumentet leses, uten å bygge et DOM-tre.
+ * <p>
+ * Leser tegn for tegn og ser bare på start-taggene og attributtene som
+ * {@link LinkExtractor#LINK_SELECTOR} bryr seg om. Lenkene sendes videre så snart taggen
+ * er lest, og minnebruken er den samme uansett hvor stor siden er. Reglene for hvilke
+ * lenker som regnes som filer er de samme som i {@link LinkExtractor}.
+ */
+public class StreamingLinkExtractor {
+
+    /** Attributtverdier lengre enn dette kuttes, slik at én enorm verdi ikke kan fylle minnet. */
+    static final int MAX_ATTRIBUTE_LENGTH = 16 * 1024;
+    private static final int CHARSET_SNIFF_BYTES = 4096;
+    private static final Pattern META_CHARSET = Pattern.compile("<meta[^>]+charset\\s*=\\s*[\"']?([A-Za-z0-9_\\-:.]+)", Pattern.CASE_INSENSITIVE);
+    private static final Set<String> RAW_TEXT_TAGS = Set.of("script", "style", "textarea", "title", "xmp", "noembed", "noframes");
+
+    private final Reader in;
+    private final char[] buf = new char[8192];
+    private int pos;
+    private int limit;
+
+    private final Set<String> seen;
+    private final Consumer<FileInfo> sink;
+    private final Consumer<String> pageSink;
+    private final Consumer<FileInfo> probeSink;
+    private URL base;
+    private boolean baseSet;
+
+    // Attributtene vi bryr oss om for gjeldende tag
+    private String href, src, srcset, data, rel;
+    private final StringBuilder name = new StringBuilder();
+    private final StringBuilder value = new StringBuilder();
+
+    private StreamingLinkExtractor(Reader in, String baseUri, Set<String> seen, Consumer<FileInfo> sink, Consumer<String> pageSink, Consumer<FileInfo> probeSink) {
+        this.in = in;
+        this.seen = seen;
+        this.sink = sink;
+        this.pageSink = pageSink;
+        this.probeSink = probeSink;
+        try {
+            this.base = new URL(baseUri);
+        } catch (MalformedURLException e) {
+            this.base = null;
+        }
+    }
+
+    /**
+     * Leser HTML fra strømmen og sender hver ny fillenke til {@code sink} og sidelenker til
+     * {@code pageSink} (kan være null). Er {@code charset} null, brukes BOM eller meta-tagg, ellers UTF-8.
+     */
+    public static void extract(InputStream body, String charset, String baseUri, Set<String> seen,
+                               Consumer<FileInfo> sink, Consumer<String> pageSink) throws IOException {
+        extract(body, charset, baseUri, seen, sink, pageSink, null);
+    }
+
+    /**
+     * Som {@link #extract(InputStream, String, String, Set, Consumer, Consumer)}, men lenker der
+     * URL-en ikke sier filtypen sendes til {@code probeSink} (kan være null) i stedet for å
+     * forkastes, slik at typen kan sjekkes mot serveren. Se {@link LinkExtractor#toProbeCandidate}.
+     */
+    public static void extract(InputStream body, String charset, String baseUri, Set<String> seen,
+                               Consumer<FileInfo> sink, Consumer<String> pageSink, Consumer<FileInfo> probeSink) throws IOException {
+        BufferedInputStream bin = new BufferedInputStream(body, CHARSET_SNIFF_BYTES * 2);
+        Charset cs = null;
+        if (charset != null) {
+            try {
+                cs = Charset.forName(charset);
+            } catch (IllegalArgumentException ignored) { /* Ukjent tegnsett i Content-Type, finn det fra innholdet */ }
+        }
+        if (cs == null) cs = sniffCharset(bin);
+        new StreamingLinkExtractor(new InputStreamReader(bin, cs), baseUri, seen, sink, pageSink, probeSink).run();
+    }
+
+    /** Som {@link #extract(InputStream, String, String, Set, Consumer, Consumer)} for HTML som allerede er tekst. */
+    public static void extract(Reader html, String baseUri, Set<String> seen, Consumer<FileInfo> sink, Consumer<String> pageSink) throws IOException {
+        new StreamingLinkExtractor(html, baseUri, seen, sink, pageSink, null).run();
+    }
+
+    static Charset sniffCharset(BufferedInputStream bin) throws IOException {
+        bin.mark(CHARSET_SNIFF_BYTES);
+        byte[] head = new byte[CHARSET_SNIFF_BYTES];
+        int n = 0, r;
+        while (n < head.length && (r = bin.read(head, n, head.length - n)) != -1) n += r;
+        bin.reset();
+        if (n >= 3 && (head[0] & 0xff) == 0xEF && (head[1] & 0xff) == 0xBB && (head[2] & 0xff) == 0xBF) {
+            bin.skip(3);
+            return StandardCharsets.UTF_8;
+        }
+        if (n >= 2 && (head[0] & 0xff) == 0xFE && (head[1] & 0xff) == 0xFF) return StandardCharsets.UTF_16BE;
+        if (n >= 2 && (head[0] & 0xff) == 0xFF && (head[1] & 0xff) == 0xFE) return StandardCharsets.UTF_16LE;
+        Matcher m = META_CHARSET.matcher(new String(head, 0, n, StandardCharsets.ISO_8859_1));
+        if (m.find()) {
+            try {
+                if (Charset.isSupported(m.group(1))) return Charset.forName(m.group(1));
+            } catch (IllegalArgumentException ignored) { /* Ugyldig navn, bruk standard */ }
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    private int read() throws IOException {
+        if (pos == limit) {
+            limit = in.read(buf, 0, buf.length);
+            pos = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buf[pos++];
+    }
+
+    private int peek() throws IOException {
+        int c = read();
+        if (c != -1) pos--;
+        return c;
+    }
+
+    private void run() throws IOException {
+        int c;
+        while ((c = read()) != -1) {
+            if (c != '<') continue;
+            int next = peek();
+            if (next == '!') {
+                read();
+                if (peek() == '-') {
+                    read();
+                    if (peek() == '-') {
+                        read();
+                        skipComment();
+                        continue;
+                    }
+                }
+                skipPast('>');
+            } else if (next == '/' || next == '?') {
+                skipPast('>');
+            } else if (isLetter(next)) {
+                String tag = readStartTag();
+                if (tag == null) return;
+                if (RAW_TEXT_TAGS.contains(tag)) skipRawText(tag);
+            }
+        }
+    }
+
+    /** Leser et tagnavn og attributtene, og behandler taggen. Returnerer tagnavnet, eller null ved slutt på strømmen. */
+    private String readStartTag() throws IOException {
+        name.setLength(0);
+        int c;
+        while ((c = read()) != -1 && !isWhitespace(c) && c != '>' && c != '/') name.append(Character.toLowerCase((char) c));
+        if (c == -1) return null;
+        String tag = name.toString();
+        href = src = srcset = data = rel = null;
+        boolean interesting = isInterestingTag(tag);
+        while (c != '>' && c != -1) {
+            if (isWhitespace(c) || c == '/') {
+                c = read();
+                continue;
+            }
+            // Attributtnavn
+            name.setLength(0);
+            while (c != -1 && !isWhitespace(c) && c != '=' && c != '>' && c != '/') {
+                if (name.length() < 32) name.append(Character.toLowerCase((char) c));
+                c = read();
+            }
+            while (isWhitespace(c)) c = read();
+            if (c != '=') {
+                if (interesting) setAttribute(name.toString(), "");
+                continue;
+            }
+            c = read();
+            while (isWhitespace(c)) c = read();
+            value.setLength(0);
+            if (c == '"' || c == '\'') {
+                int quote = c;
+                while ((c = read()) != -1 && c != quote) if (interesting && value.length() < MAX_ATTRIBUTE_LENGTH) value.append((char) c);
+                c = read();
+            } else {
+                while (c != -1 && !isWhitespace(c) && c != '>') {
+                    if (interesting && value.length() < MAX_ATTRIBUTE_LENGTH) value.append((char) c);
+                    c = read();
+                }
+            }
+            if (interesting) setAttribute(name.toString(), value.toString());
+        }
+        if (interesting) handleTag(tag);
+        return c == -1 ? null : tag;
+    }
+
+    private static boolean isInterestingTag(String tag) {
+        switch (tag) {
+            case "a": case "img": case "source": case "video": case "audio": case "track":
+            case "embed": case "object": case "link": case "base":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void setAttribute(String attr, String val) {
+        // Første forekomst vinner, som i HTML-parseren
+        switch (attr) {
+            case "href": if (href == null) href = unescape(val); break;
+            case "src": if (src == null) src = unescape(val); break;
+            case "srcset": if (srcset == null) srcset = unescape(val); break;
+            case "data": if (data == null) data = unescape(val); break;
+            case "rel": if (rel == null) rel = unescape(val); break;
+            default: break;
+        }
+    }
+
+    private static String unescape(String v) {
+        return v.indexOf('&') >= 0 ? Parser.unescapeEntities(v, true) : v;
+    }
+
+    /** Samme utvalg og prioritering av attributter som {@link LinkExtractor#LINK_SELECTOR}. */
+    private void handleTag(String tag) {
+        if ("base".equals(tag)) {
+            if (!baseSet && href != null) {
+                String resolved = resolve(href);
+                if (!resolved.isEmpty()) {
+                    try { base = new URL(resolved); } catch (MalformedURLException ignored) { /* Behold gammel base */ }
+                }
+                baseSet = true;
+            }
+            return;
+        }
+        boolean matches;
+        switch (tag) {
+            case "a": case "link": matches = href != null; break;
+            case "source": matches = srcset != null; break;
+            case "object": matches = data != null; break;
+            default: matches = src != null; break;
+        }
+        if (!matches) return;
+        String url;
+        if (href != null) url = resolve(href);
+        else if (src != null) url = resolve(src);
+        else if (srcset != null) url = resolve(srcset.split(",")[0].trim().split("\\s+")[0]);
+        else url = resolve(data);
+        FileInfo fi = LinkExtractor.toFileInfo(url, tag, rel != null ? rel : "");
+        FileInfo probe = probeSink != null ? LinkExtractor.toProbeCandidate(url, tag, rel != null ? rel : "", fi) : null;
+        if (probe != null) {
+            if (fi == null || seen.add(fi.getUrl())) probeSink.accept(probe);
+        } else if (fi != null && seen.add(fi.getUrl())) {
+            sink.accept(fi);
+        }
+        if (pageSink != null && "a".equals(tag) && LinkExtractor.isPageLink(url, fi)) pageSink.accept(LinkExtractor.stripFragment(url));
+    }
+
+    /** Gjør en relativ lenke absolutt, eller gir tom streng hvis det ikke går. */
+    private String resolve(String rel) {
+        String r = rel.replaceAll("[\\t\\n\\r]", "").trim();
+        try {
+            if (base == null) return new URL(r).toExternalForm();
+            if (r.startsWith("?")) r = base.getPath() + r;
+            return new URL(base, r).toExternalForm();
+        } catch (MalformedURLException e) {
+            return "";
+        }
+    }
+
+    /** Hopper over innholdet i f.eks. script og style frem til sluttaggen. */
+    private void skipRawText(String tag) throws IOException {
+        int c;
+        while ((c = read()) != -1) {
+            if (c != '<' || peek() != '/') continue;
+            read();
+            int i = 0;
+            while (i < tag.length()) {
+                c = read();
+                if (c == -1) return;
+                if (Character.toLowerCase((char) c) != tag.charAt(i)) {
+                    if (c == '<') pos--;
+                    break;
+                }
+                i++;
+            }
+            if (i == tag.length()) {
+                c = peek();
+                if (c == -1 || c == '>' || isWhitespace(c) || c == '/') {
+                    skipPast('>');
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Hopper over en kommentar etter {@code <!--}. Som i HTML5 lukker {@code <!-->} og {@code <!--->}
+     * kommentaren med en gang, og den slutter også ved {@code --!>} og ved flere streker før {@code >}.
+     */
+    private void skipComment() throws IOException {
+        int c = peek();
+        if (c == '>') {
+            read();
+            return;
+        }
+        if (c == '-') {
+            read();
+            if (peek() == '>') {
+                read();
+                return;
+            }
+        }
+        // Antall streker rett før nåværende tegn; to eller flere og så > avslutter
+        int dashes = c == '-' ? 1 : 0;
+        while ((c = read()) != -1) {
+            if (c == '>' && dashes >= 2) return;
+            if (c == '!' && dashes >= 2 && peek() == '>') {
+                read();
+                return;
+            }
+            dashes = c == '-' ? dashes + 1 : 0;
+        }
+    }
+
+    private void skipPast(char end) throws IOException {
+        int c;
+        while ((c = read()) != -1) {
+            if (c == end) return;
+        }
+    }
+
+    private static boolean isLetter(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+}
@@ -0,0 +1,356 @@
+// DownloaderCli.java
+package main.cli;
+
+import main.analysis.Crawler;
+import main.download.DownloadJournal;
+import main.download.DownloadOrder;
+import main.download.DownloadResult;
+import main.download.DownloadScheduler;
+import main.download.DownloadSummary;
+import main.engine.DownloaderEngine;
+import main.log.LogBuffer;
+import main.log.RollingLogFile;
+import main.model.FileCategory;
+import main.model.FileInfo;
+import main.net.HttpService;
+import main.net.RetryPolicy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Kommandolinjeversjon av filnedlasteren for servere uten skjerm og for skript.
+ * <p>
+ * Leser en liste med side-URL-er, analyserer hver side, filtrerer på kategori og filendelse
+ * og laster ned resten til en mappe. Avslutningskoden er {@link #EXIT_OK} når alt gikk bra,
+ * {@link #EXIT_PARTIAL} når noen sider eller filer feilet, {@link #EXIT_USAGE} ved ugyldige argumenter
+ * og {@link #EXIT_INTERRUPTED} når nedlastingen ble avbrutt.
+ */
+public class DownloaderCli {
+
+    public static final int EXIT_OK = 0;
+    public static final int EXIT_PARTIAL = 1;
+    public static final int EXIT_USAGE = 2;
+    public static final int EXIT_INTERRUPTED = 130;
+
+    /** Hvor lenge Ctrl+C venter på at nedlastingen rydder opp før JVM-en avsluttes. */
+    private static final long SHUTDOWN_WAIT_SECONDS = 15;
+
+    private static final String USAGE = String.join("\n",
+            "Bruk: java -cp <klassesti> main.cli.DownloaderCli --urls <fil> --out <mappe> [valg]",
+            "      java -cp <klassesti> main.cli.DownloaderCli --resume --out <mappe> [valg]",
+            "",
+            "  --urls <fil>         Fil med én side-URL per linje (# for kommentarer)",
+            "  --out <mappe>        Mappen filene lagres i",
+            "  --resume             Fortsett filene som ikke ble ferdige sist i --out-mappen (--urls kan da utelates)",
+            "  --category <navn>    Filkategori: " + String.join(", ", FileCategory.CATEGORIZED_EXTENSIONS.keySet()) + " eller \"" + FileCategory.ALL_FILES_CATEGORY + "\" (standard)",
+            "  --ext <liste>        Kommaseparerte filendelser, f.eks. .jpg,.png",
+            "  --depth <n>          Følg lenker til andre sider på samme nettsted, n nivåer dypt (standard 0)",
+            "  --no-cache           Hent og les alle sider på nytt i stedet for å bruke sidebufferen",
+            "  --probe-types        Spør serveren om filtypen for lenker uten filendelse, f.eks. /download?id=123",
+            "  --max-pages <n>      Maks antall sider per startside ved --depth (standard " + new Crawler.Options().maxPages + ")",
+            "  --threads <n>        Maks samtidige nedlastinger (standard " + DownloadScheduler.DEFAULT_MAX_CONCURRENT + ")",
+            "  --per-host <n>       Maks samtidige nedlastinger per vert (standard " + DownloadScheduler.DEFAULT_MAX_PER_HOST + ")",
+            "  --mirror             Lagre filene under vert/sti/ i --out-mappen, som på serveren",
+            "  --order <navn>       Rekkefølge: fifo (standard), smallest (minste først) eller category (etter kategori)",
+            "  --probe              Hent størrelsene med HEAD mens filene lastes ned (før start med --order smallest)",
+            "  --retries <n>        Nye forsøk ved tidsavbrudd, 429, 503 o.l. (standard " + (RetryPolicy.DEFAULT.getMaxAttempts() - 1) + ")",
+            "  --limit-rate <kB/s>  Maks båndbredde for hele batchen, 0 for ubegrenset",
+            "  --limit-rate-per-host <kB/s>  Maks båndbredde per vert, 0 for ubegrenset",
+            "  --dry-run            Vis hvilke filer som ville blitt lastet ned, uten å laste ned",
+            "  --quiet              Skriv bare feil og oppsummering",
+            "  --log-file <fil>     Skriv alle meldinger, også de --quiet skjuler, til en fil som roteres ved " + (RollingLogFile.DEFAULT_MAX_BYTES >> 20) + " MB",
+            "  --help               Vis denne hjelpen");
+
+    static final class Options {
+        Path urlFile;
+        File outDir;
+        String category = FileCategory.ALL_FILES_CATEGORY;
+        Set<String> extensions = new HashSet<>();
+        int threads = DownloadScheduler.DEFAULT_MAX_CONCURRENT;
+        int perHost = DownloadScheduler.DEFAULT_MAX_PER_HOST;
+        DownloadOrder order = DownloadOrder.FIFO;
+        boolean probe;
+        int retries = RetryPolicy.DEFAULT.getMaxAttempts() - 1;
+        long limitRate;
+        long limitRatePerHost;
+        int depth;
+        boolean probeTypes;
+        boolean noCache;
+        int maxPages = new Crawler.Options().maxPages;
+        boolean resume;
+        boolean mirror;
+        boolean dryRun;
+        boolean quiet;
+        Path logFile;
+    }
+
+    private final PrintStream out;
+    private final PrintStream err;
+    /** Alt som skrives ut havner også her, sammen med detaljene {@code --quiet} skjuler, for {@code --log-file}. */
+    private final LogBuffer log = new LogBuffer();
+    /** Løses ut når {@link #run} er helt ferdig, så avbrudd med Ctrl+C kan vente på oppryddingen. */
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile Thread shutdownHook;
+
+    DownloaderCli(PrintStream out, PrintStream err) {
+        this.out = out;
+        this.err = err;
+    }
+
+    private void info(String message) {
+        out.println(message);
+        log.info(message);
+    }
+
+    /** Detaljer som skrives ut bare uten {@code --quiet}, men alltid logges. */
+    private void detail(String message, Options opts) {
+        if (!opts.quiet) out.println(message);
+        log.debug(message);
+    }
+
+    private void error(String message) {
+        err.println(message);
+        log.error(message);
+    }
+
+    public static void main(String[] args) {
+        System.exit(new DownloaderCli(System.out, System.err).run(args));
+    }
+
+    int run(String[] args) {
+        Options opts;
+        try {
+            opts = parse(args);
+        } catch (IllegalArgumentException e) {
+            err.println("Feil: " + e.getMessage());
+            err.println(USAGE);
+            return EXIT_USAGE;
+        }
+        if (opts == null) {
+            out.println(USAGE);
+            return EXIT_OK;
+        }
+
+        List<String> pages;
+        try {
+            pages = opts.urlFile != null ? readUrls(opts.urlFile) : new ArrayList<>();
+        } catch (IOException e) {
+            err.println("Kan ikke lese URL-listen: " + e.getMessage());
+            return EXIT_USAGE;
+        }
+        if (!opts.dryRun && !opts.outDir.isDirectory() && !opts.outDir.mkdirs()) {
+            err.println("Kan ikke lage mappe: " + opts.outDir);
+            return EXIT_USAGE;
+        }
+
+        RollingLogFile logFile = null;
+        if (opts.logFile != null) {
+            try {
+                logFile = new RollingLogFile(log, opts.logFile);
+            } catch (IOException e) {
+                err.println("Kan ikke skrive loggfil " + opts.logFile + ": " + e.getMessage());
+                return EXIT_USAGE;
+            }
+        }
+        DownloaderEngine engine = opts.noCache ? new DownloaderEngine(HttpService.getDefault(), null) : new DownloaderEngine();
+        try {
+            return execute(engine, opts, pages);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            error("Avbrutt.");
+            return EXIT_INTERRUPTED;
+        } finally {
+            if (logFile != null) logFile.close();
+            done.countDown();
+            if (shutdownHook != null) {
+                try { Runtime.getRuntime().removeShutdownHook(shutdownHook); } catch (IllegalStateException ignored) { /* JVM avsluttes */ }
+            }
+        }
+    }
+
+    private int execute(DownloaderEngine engine, Options opts, List<String> pages) throws InterruptedException {
+        boolean anyFailed = false;
+        Set<String> seen = new HashSet<>();
+        List<FileInfo> toDl = new ArrayList<>();
+        long analysisStart = System.nanoTime();
+        for (String page : pages) {
+            try {
+                List<FileInfo> found = opts.depth > 0 ? crawl(engine, opts, page) : engine.analyze(page, msg -> detail(msg, opts), opts.probeTypes);
+                List<FileInfo> selected = DownloaderEngine.filter(found, opts.category, opts.extensions);
+                for (FileInfo fi : selected) if (seen.add(fi.getUrl())) toDl.add(fi);
+                info("Analyse ferdig: " + page + " (" + found.size() + " filer, " + selected.size() + " valgt)");
+            } catch (IOException | IllegalArgumentException e) {
+                anyFailed = true;
+                error("Feil analyse " + page + ": " + e.getMessage());
+            }
+        }
+        if (!pages.isEmpty()) info(String.format("Analyserte %d sider på %.1f s, %d filer å laste ned.", pages.size(), (System.nanoTime() - analysisStart) / 1e9, toDl.size()));
+        if (!pages.isEmpty() && engine.getPageCache() != null) detail("Sidebuffer: " + engine.getPageCache(), opts);
+        if (opts.resume) {
+            int resumed = 0;
+            for (FileInfo fi : DownloadJournal.unfinished(opts.outDir)) {
+                if (seen.add(fi.getUrl())) { toDl.add(fi); resumed++; }
+            }
+            info("Fortsetter " + resumed + " uferdige filer fra forrige kjøring.");
+        }
+
+        if (opts.dryRun) {
+            toDl.forEach(fi -> out.println(fi.getUrl()));
+            return anyFailed ? EXIT_PARTIAL : EXIT_OK;
+        }
+        if (toDl.isEmpty()) return anyFailed ? EXIT_PARTIAL : EXIT_OK;
+
+        info("Lagrer til: " + opts.outDir.getAbsolutePath());
+        DownloadScheduler.Options so = new DownloadScheduler.Options();
+        so.maxConcurrent = opts.threads;
+        so.maxPerHost = opts.perHost;
+        so.order = opts.order;
+        so.probeSizes = opts.probe;
+        so.mirrorPaths = opts.mirror;
+        so.retry = RetryPolicy.DEFAULT.withMaxAttempts(opts.retries + 1);
+        so.maxBytesPerSecond = opts.limitRate;
+        so.maxBytesPerSecondPerHost = opts.limitRatePerHost;
+        DownloadScheduler scheduler = engine.newDownload(opts.outDir, so);
+        // Ctrl+C: avbryt, og hold JVM-en i live til indeks, kø, rapport og logg er skrevet
+        shutdownHook = new Thread(() -> {
+            scheduler.cancel();
+            try {
+                if (!done.await(SHUTDOWN_WAIT_SECONDS, TimeUnit.SECONDS)) err.println("Ga opp å vente på at nedlastingen skulle avslutte.");
+            } catch (InterruptedException ignored) {
+                // JVM-en avsluttes uansett
+            }
+        }, "avbryt-nedlasting");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+        DownloadSummary summary = scheduler.run(toDl, new DownloadScheduler.Listener() {
+            @Override public void fileStarted(FileInfo file, int completed, int total) { log.debug("Laster ned: " + file.getUrl()); }
+            @Override public void fileRetrying(DownloadResult r, int attempt, long delayMillis) {
+                detail(String.format("%s - prøver igjen om %.1f s (forsøk %d)", r.getMessage(), delayMillis / 1e3, attempt + 1), opts);
+            }
+            @Override public void sizesProbed(int known, int total, long bytes) {
+                info(String.format("Størrelse kjent for %d av %d filer, %.1f MB.", known, total, bytes / 1e6));
+            }
+            @Override public void fileFinished(DownloadResult r, int completed, int total) {
+                if (!r.isOk()) error("[" + completed + "/" + total + "] " + r.getMessage());
+                else detail("[" + completed + "/" + total + "] " + r.getMessage(), opts);
+            }
+        });
+        info("Ferdig: " + summary);
+        info("Tilkoblinger: " + engine.getHttp().getStats());
+        if (scheduler.getReportFile() != null) info("Målerapport: " + scheduler.getReportFile());
+        if (scheduler.getUnfinishedCount() > 0) info(scheduler.getUnfinishedCount() + " filer står igjen i køen; fortsett med --resume.");
+        if (scheduler.isCancelled()) return EXIT_INTERRUPTED;
+        return (anyFailed || summary.getFailed() > 0) ? EXIT_PARTIAL : EXIT_OK;
+    }
+
+    private List<FileInfo> crawl(DownloaderEngine engine, Options opts, String page) throws InterruptedException {
+        Crawler.Options co = new Crawler.Options();
+        co.maxDepth = opts.depth;
+        co.maxPages = opts.maxPages;
+        co.probeTypes = opts.probeTypes;
+        List<FileInfo> found = new ArrayList<>();
+        Crawler crawler = engine.newCrawler(co);
+        Crawler.Stats stats = crawler.crawl(page, new Crawler.Listener() {
+            @Override public void fileFound(FileInfo file) { synchronized (found) { found.add(file); } }
+            @Override public void pageFinished(String url, int depth, int status, String error, Crawler.Stats s) {
+                if (error != null) error("Feil side " + url + ": " + error);
+                else detail("Side (dybde " + depth + "): " + url + " | " + s, opts);
+            }
+        });
+        info("Søk ferdig: " + stats);
+        if (crawler.getTypeProbes() != null) info("Filtyper: " + crawler.getTypeProbes());
+        return found;
+    }
+
+    /** Tolker argumentene. Returnerer null når brukeren ba om hjelp. */
+    static Options parse(String[] args) {
+        Options o = new Options();
+        for (int i = 0; i < args.length; i++) {
+            String a = args[i];
+            switch (a) {
+                case "--help": case "-h": return null;
+                case "--urls": o.urlFile = Paths.get(value(args, ++i, a)); break;
+                case "--out": o.outDir = new File(value(args, ++i, a)); break;
+                case "--category": o.category = resolveCategory(value(args, ++i, a)); break;
+                case "--ext":
+                    for (String ext : value(args, ++i, a).split(",")) {
+                        String e = ext.trim().toLowerCase();
+                        if (e.isEmpty()) continue;
+                        o.extensions.add(e.startsWith(".") ? e : "." + e);
+                    }
+                    break;
+                case "--depth": o.depth = Integer.parseInt(value(args, ++i, a)); if (o.depth < 0) throw new IllegalArgumentException("--depth kan ikke være negativ"); break;
+                case "--max-pages": o.maxPages = positiveInt(value(args, ++i, a), a); break;
+                case "--threads": o.threads = positiveInt(value(args, ++i, a), a); break;
+                case "--per-host": o.perHost = positiveInt(value(args, ++i, a), a); break;
+                case "--order": o.order = DownloadOrder.fromCliName(value(args, ++i, a)); break;
+                case "--probe": o.probe = true; break;
+                case "--probe-types": o.probeTypes = true; break;
+                case "--no-cache": o.noCache = true; break;
+                case "--retries": o.retries = Integer.parseInt(value(args, ++i, a)); if (o.retries < 0) throw new IllegalArgumentException("--retries kan ikke være negativ"); break;
+                case "--limit-rate": o.limitRate = kiloBytes(value(args, ++i, a), a); break;
+                case "--limit-rate-per-host": o.limitRatePerHost = kiloBytes(value(args, ++i, a), a); break;
+                case "--resume": o.resume = true; break;
+                case "--mirror": o.mirror = true; break;
+                case "--dry-run": o.dryRun = true; break;
+                case "--quiet": case "-q": o.quiet = true; break;
+                case "--log-file": o.logFile = Paths.get(value(args, ++i, a)); break;
+                default: throw new IllegalArgumentException("Ukjent argument: " + a);
+            }
+        }
+        if (o.urlFile == null && !o.resume) throw new IllegalArgumentException("--urls mangler");
+        if (o.outDir == null && (!o.dryRun || o.resume)) throw new IllegalArgumentException("--out mangler");
+        return o;
+    }
+
+    private static String value(String[] args, int i, String flag) {
+        if (i >= args.length) throw new IllegalArgumentException(flag + " mangler verdi");
+        return args[i];
+    }
+
+    private static int positiveInt(String v, String flag) {
+        try {
+            int n = Integer.parseInt(v);
+            if (n >= 1) return n;
+        } catch (NumberFormatException ignored) { /* Faller gjennom til feilmeldingen */ }
+        throw new IllegalArgumentException(flag + " må være et positivt heltall: " + v);
+    }
+
+    /** kB/s som byte per sekund. 0 betyr ubegrenset. */
+    private static long kiloBytes(String v, String flag) {
+        try {
+            long n = Long.parseLong(v);
+            if (n >= 0) return n * 1024;
+        } catch (NumberFormatException ignored) { /* Faller gjennom til feilmeldingen */ }
+        throw new IllegalArgumentException(flag + " må være et heltall (kB/s), 0 for ubegrenset: " + v);
+    }
+
+    private static String resolveCategory(String name) {
+        if (FileCategory.ALL_FILES_CATEGORY.equalsIgnoreCase(name) || "alle".equalsIgnoreCase(name)) return FileCategory.ALL_FILES_CATEGORY;
+        for (String c : FileCategory.CATEGORIZED_EXTENSIONS.keySet()) {
+            if (c.equalsIgnoreCase(name)) return c;
+        }
+        throw new IllegalArgumentException("Ukjent kategori: " + name);
+    }
+
+    static List<String> readUrls(Path file) throws IOException {
+        Set<String> urls = new LinkedHashSet<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            String t = line.trim();
+            if (!t.isEmpty() && !t.startsWith("#")) urls.add(t);
+        }
+        return new ArrayList<>(urls);
+    }
+}
@@ -0,0 +1,80 @@
+// BandwidthLimiter.java
+package main.download;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Begrenser hvor mange byte per sekund en batch henter, totalt og per vert, med token-bøtter.
+ * <p>
+ * Hver bøtte fylles med {@code rate} byte per sekund og rommer et kvarter sekund med data, slik
+ * at korte pauser ikke gir store utbrudd etterpå. Den som mottar data trekker fra bøttene etter
+ * at bytene er lest, og får tilbake hvor lenge den må vente før den leser mer. Bøttene kan gå
+ * i minus, så ingen må vente på at det blir nok plass til en hel buffer.
+ */
+public class BandwidthLimiter {
+
+    /** Ingen grense. */
+    public static final BandwidthLimiter UNLIMITED = new BandwidthLimiter(0, 0);
+
+    private static final double BURST_SECONDS = 0.25;
+    private static final long MIN_BURST_BYTES = 16 * 1024;
+
+    private static final class TokenBucket {
+        private final double bytesPerNano;
+        private final double capacity;
+        private double tokens;
+        private long lastRefill = System.nanoTime();
+
+        TokenBucket(long bytesPerSecond) {
+            this.bytesPerNano = bytesPerSecond / 1e9;
+            this.capacity = Math.max(MIN_BURST_BYTES, bytesPerSecond * BURST_SECONDS);
+            this.tokens = capacity;
+        }
+
+        /** Trekker {@code bytes} og returnerer ventetiden i nanosekunder før bøtta er i pluss igjen. */
+        synchronized long take(long bytes) {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * bytesPerNano);
+            lastRefill = now;
+            tokens -= bytes;
+            return tokens >= 0 ? 0 : (long) (-tokens / bytesPerNano);
+        }
+    }
+
+    private final long maxBytesPerSecond;
+    private final long maxBytesPerSecondPerHost;
+    private final TokenBucket global;
+    private final Map<String, TokenBucket> hosts = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxBytesPerSecond        grense for hele batchen, 0 for ubegrenset
+     * @param maxBytesPerSecondPerHost grense per vert, 0 for ubegrenset
+     */
+    public BandwidthLimiter(long maxBytesPerSecond, long maxBytesPerSecondPerHost) {
+        if (maxBytesPerSecond < 0 || maxBytesPerSecondPerHost < 0) throw new IllegalArgumentException("Båndbreddegrensen kan ikke være negativ");
+        this.maxBytesPerSecond = maxBytesPerSecond;
+        this.maxBytesPerSecondPerHost = maxBytesPerSecondPerHost;
+        this.global = maxBytesPerSecond > 0 ? new TokenBucket(maxBytesPerSecond) : null;
+    }
+
+    public boolean isLimited() {
+        return maxBytesPerSecond > 0 || maxBytesPerSecondPerHost > 0;
+    }
+
+    public long getMaxBytesPerSecond() { return maxBytesPerSecond; }
+    public long getMaxBytesPerSecondPerHost() { return maxBytesPerSecondPerHost; }
+
+    /**
+     * Registrerer at {@code bytes} er mottatt fra verten. Returnerer hvor mange nanosekunder
+     * mottakeren bør vente før den henter mer, 0 når den kan fortsette med en gang.
+     */
+    long acquire(String host, long bytes) {
+        if (!isLimited() || bytes <= 0) return 0;
+        long wait = global != null ? global.take(bytes) : 0;
+        if (maxBytesPerSecondPerHost > 0) {
+            wait = Math.max(wait, hosts.computeIfAbsent(host, h -> new TokenBucket(maxBytesPerSecondPerHost)).take(bytes));
+        }
+        return wait;
+    }
+}
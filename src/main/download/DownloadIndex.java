@@ -0,0 +1,226 @@
+// DownloadIndex.java
+package main.download;
+
+import main.util.FileUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Husker hva som er lastet ned til en mappe, slik at en ny kjøring mot de samme sidene
+ * bare henter filer som faktisk er endret.
+ * <p>
+ * For hver URL lagres filnavn, størrelse, SHA-256 av innholdet og ETag/Last-Modified fra
+ * serveren. Indeksen ligger som en skjult fil i nedlastingsmappen og skrives atomisk.
+ * Endringer skrives til disk fra en egen tråd noen sekunder etter hverandre, så {@link #put}
+ * aldri venter på disken. Alle metoder er trådsikre.
+ */
+class DownloadIndex {
+
+    static final String INDEX_FILE_NAME = ".filedownload-index.properties";
+    private static final long SAVE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final int HASH_BUFFER_SIZE = 1 << 20;
+    /** Lagrer indekser i bakgrunnen, én om gangen. */
+    private static final ExecutorService SAVER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "indekslagring");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** Det vi vet om én nedlastet URL. */
+    static final class Entry {
+        final String fileName;
+        final long size;
+        final String sha256;
+        final String etag;
+        final String lastModified;
+
+        Entry(String fileName, long size, String sha256, String etag, String lastModified) {
+            this.fileName = fileName;
+            this.size = size;
+            this.sha256 = sha256;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private final File directory;
+    private final Path indexFile;
+    private final Map<String, Entry> byUrl = new HashMap<>();
+    private final Map<String, String> byContent = new HashMap<>();
+    /** Hvor mange URL-er som peker på hvert filnavn. */
+    private final Map<String, Integer> references = new HashMap<>();
+    /** Holdes mens indeksen skrives, så to lagringer ikke skriver til samme midlertidige fil. */
+    private final Object saveLock = new Object();
+    private boolean dirty;
+    private boolean saveScheduled;
+    private long lastSaveNanos = System.nanoTime();
+
+    private DownloadIndex(File directory) {
+        this.directory = directory;
+        this.indexFile = directory.toPath().resolve(INDEX_FILE_NAME);
+    }
+
+    /** Leser indeksen for mappen. En manglende eller ødelagt indeks gir en tom indeks. */
+    static DownloadIndex load(File directory) {
+        DownloadIndex index = new DownloadIndex(directory);
+        if (!Files.isRegularFile(index.indexFile)) return index;
+        Properties p = new Properties();
+        try (InputStream in = Files.newInputStream(index.indexFile)) {
+            p.load(in);
+        } catch (IOException | IllegalArgumentException e) {
+            return index;
+        }
+        for (String url : p.stringPropertyNames()) {
+            String[] f = p.getProperty(url).split("\t", -1);
+            if (f.length < 5) continue;
+            try {
+                Entry e = new Entry(f[2], Long.parseLong(f[0]), f[1], emptyToNull(f[3]), emptyToNull(f[4]));
+                index.byUrl.put(url, e);
+                index.byContent.put(contentKey(e.sha256, e.size), e.fileName);
+                index.references.merge(e.fileName, 1, Integer::sum);
+            } catch (NumberFormatException ignored) { /* Hopp over ugyldig linje */ }
+        }
+        return index;
+    }
+
+    /** Oppføringen for URL-en, men bare hvis filen fortsatt ligger på disk med samme størrelse. */
+    synchronized Entry get(String url) {
+        Entry e = byUrl.get(url);
+        if (e == null) return null;
+        File f = new File(directory, e.fileName);
+        return f.isFile() && f.length() == e.size ? e : null;
+    }
+
+    /** En fil i mappen med nøyaktig dette innholdet, eller null. */
+    synchronized File findByContent(String sha256, long size) {
+        String name = byContent.get(contentKey(sha256, size));
+        if (name == null) return null;
+        File f = new File(directory, name);
+        return f.isFile() && f.length() == size ? f : null;
+    }
+
+    /** Sant hvis en annen URL også peker på denne filen, slik at den ikke kan overskrives. */
+    synchronized boolean isSharedWithOtherUrl(String url, String fileName) {
+        Entry own = byUrl.get(url);
+        int self = own != null && own.fileName.equals(fileName) ? 1 : 0;
+        return references.getOrDefault(fileName, 0) > self;
+    }
+
+    synchronized void put(String url, Entry entry) {
+        Entry old = byUrl.put(url, entry);
+        if (old != null) references.computeIfPresent(old.fileName, (k, n) -> n > 1 ? n - 1 : null);
+        references.merge(entry.fileName, 1, Integer::sum);
+        if (old != null && old.fileName.equals(entry.fileName) && !old.sha256.equals(entry.sha256)) {
+            // Filen er overskrevet med nytt innhold, så det gamle innholdet finnes ikke lenger her
+            byContent.remove(contentKey(old.sha256, old.size), old.fileName);
+        }
+        byContent.put(contentKey(entry.sha256, entry.size), entry.fileName);
+        dirty = true;
+        if (!saveScheduled && System.nanoTime() - lastSaveNanos >= SAVE_INTERVAL_NANOS) {
+            saveScheduled = true;
+            SAVER.execute(this::saveInBackground);
+        }
+    }
+
+    private void saveInBackground() {
+        try {
+            save();
+        } catch (IOException ignored) {
+            // Prøves igjen ved neste lagring
+        } finally {
+            synchronized (this) {
+                saveScheduled = false;
+            }
+        }
+    }
+
+    /**
+     * Skriver indeksen til disk hvis den er endret siden forrige lagring. Oppføringene kopieres
+     * under låsen, men skrivingen skjer utenfor, så {@link #get} og {@link #put} ikke venter på disken.
+     */
+    void save() throws IOException {
+        synchronized (saveLock) {
+            Properties p = new Properties();
+            synchronized (this) {
+                if (!dirty) return;
+                for (Map.Entry<String, Entry> me : byUrl.entrySet()) {
+                    Entry e = me.getValue();
+                    p.setProperty(me.getKey(), e.size + "\t" + e.sha256 + "\t" + e.fileName + "\t" + nullToEmpty(e.etag) + "\t" + nullToEmpty(e.lastModified));
+                }
+                dirty = false;
+            }
+            try {
+                Path tmp = indexFile.resolveSibling(INDEX_FILE_NAME + ".tmp");
+                try (OutputStream out = Files.newOutputStream(tmp)) {
+                    p.store(out, "Nedlastingsindeks: URL = størrelse, sha256, filnavn, ETag, Last-Modified");
+                }
+                FileUtil.moveReplacing(tmp, indexFile);
+            } catch (IOException e) {
+                synchronized (this) {
+                    dirty = true;
+                }
+                throw e;
+            }
+            synchronized (this) {
+                lastSaveNanos = System.nanoTime();
+            }
+        }
+    }
+
+    /** Nytt objekt for å regne ut SHA-256 mens en fil skrives. */
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 mangler i JVM-en", e);
+        }
+    }
+
+    /** SHA-256 av en fil på disk, som heksstreng. */
+    static String hashFile(Path file) throws IOException {
+        MessageDigest md = newDigest();
+        ByteBuffer buf = ByteBuffer.allocate(HASH_BUFFER_SIZE);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (ch.read(buf) != -1) {
+                buf.flip();
+                md.update(buf);
+                buf.clear();
+            }
+        }
+        return toHex(md.digest());
+    }
+
+    static String toHex(byte[] digest) {
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (byte b : digest) sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        return sb.toString();
+    }
+
+    private static String contentKey(String sha256, long size) {
+        return sha256 + ":" + size;
+    }
+
+    private static String emptyToNull(String s) {
+        return s.isEmpty() ? null : s;
+    }
+
+    private static String nullToEmpty(String s) {
+        return s == null ? "" : s;
+    }
+}
@@ -0,0 +1,261 @@
+// DownloadJournal.java
+package main.download;
+
+import main.model.FileInfo;
+import main.util.FileUtil;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Nedlastingskøen på disk, slik at en batch kan fortsette etter at programmet er lukket eller har krasjet.
+ * <p>
+ * Journalen er en fil i nedlastingsmappen der det bare legges til linjer: én når en fil settes
+ * i kø, og én når den er ferdig eller har feilet. Linjene samles i minnet og skrives med én
+ * {@code fsync} noen ganger i sekundet fra en egen tråd, så selv køer med hundretusener av filer
+ * ikke venter på disken. Etter et krasj mangler i verste fall de siste linjene, og de filene lastes
+ * ned på nytt; store filer fortsetter da fra delfilen, og filer som allerede ligger i mappen
+ * gjenkjennes av {@link DownloadIndex}.
+ * <p>
+ * Ved åpning leses journalen, og er noe ferdig skrives den om med bare de uferdige filene.
+ * Når alle filene i køen er ferdige, slettes journalen.
+ */
+public class DownloadJournal implements AutoCloseable {
+
+    public static final String JOURNAL_FILE_NAME = ".filedownload-queue.journal";
+
+    private static final String HEADER = "# filedownload-kø 1";
+    private static final char QUEUED = '+';
+    private static final char DONE = '=';
+    private static final char FAILED = '!';
+    private static final long SYNC_INTERVAL_MILLIS = 100;
+
+    private final Path file;
+    private final Map<String, FileInfo> unfinished;
+    private final FileChannel channel;
+    private final Thread syncer;
+    private final StringBuilder pending = new StringBuilder();
+    private boolean closed;
+
+    private DownloadJournal(Path file, Map<String, FileInfo> unfinished, FileChannel channel) {
+        this.file = file;
+        this.unfinished = unfinished;
+        this.channel = channel;
+        this.syncer = new Thread(this::syncLoop, "koejournal");
+        syncer.setDaemon(true);
+        syncer.start();
+    }
+
+    /** Åpner journalen i mappen for skriving, og lager den hvis den ikke finnes. */
+    public static DownloadJournal open(File directory) throws IOException {
+        Path file = directory.toPath().resolve(JOURNAL_FILE_NAME);
+        Map<String, FileInfo> unfinished = new LinkedHashMap<>();
+        boolean compact = !replay(file, unfinished);
+        if (compact) {
+            Path tmp = file.resolveSibling(JOURNAL_FILE_NAME + ".tmp");
+            try (Writer w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                StringBuilder sb = new StringBuilder(HEADER).append('\n');
+                for (FileInfo fi : unfinished.values()) appendQueued(sb, fi);
+                w.write(sb.toString());
+            }
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                ch.force(true);
+            }
+            FileUtil.moveReplacing(tmp, file);
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        return new DownloadJournal(file, unfinished, channel);
+    }
+
+    /** Filene som ikke ble ferdige sist, i køens rekkefølge. Tom liste når mappen ikke har noen uferdig kø. */
+    public static List<FileInfo> unfinished(File directory) {
+        Map<String, FileInfo> unfinished = new LinkedHashMap<>();
+        try {
+            replay(directory.toPath().resolve(JOURNAL_FILE_NAME), unfinished);
+        } catch (IOException e) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(unfinished.values());
+    }
+
+    /** Forkaster den uferdige køen i mappen. */
+    public static void discard(File directory) throws IOException {
+        Files.deleteIfExists(directory.toPath().resolve(JOURNAL_FILE_NAME));
+    }
+
+    /**
+     * Leser journalen inn i {@code unfinished}. Returnerer true hvis filen kan brukes videre som den
+     * er, og false hvis den mangler, er ødelagt eller har ferdige filer og bør skrives om.
+     */
+    private static boolean replay(Path file, Map<String, FileInfo> unfinished) throws IOException {
+        if (!Files.isRegularFile(file)) return false;
+        // Uten linjeskift til slutt ble siste linje bare halvveis skrevet før et krasj. Den kan se hel ut,
+        // men med en avkortet URL, så den hoppes over, og journalen skrives om før noe legges til bak den
+        boolean torn = !endsWithNewline(file);
+        boolean clean = !torn;
+        try (BufferedReader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line = r.readLine();
+            if (!HEADER.equals(line)) return false;
+            String next = r.readLine();
+            while ((line = next) != null) {
+                next = r.readLine();
+                if (next == null && torn) break;
+                String[] f = line.split("\t", -1);
+                if (f.length < 2 || f[0].length() != 1 || f[1].isEmpty()) {
+                    clean = false;
+                    continue;
+                }
+                switch (f[0].charAt(0)) {
+                    case QUEUED:
+                        if (f.length < 4) { clean = false; break; }
+                        unfinished.put(f[1], new FileInfo(f[1], f[2], f[3].isEmpty() ? null : f[3]));
+                        break;
+                    case DONE:
+                    case FAILED:
+                        unfinished.remove(f[1]);
+                        clean = false;
+                        break;
+                    default:
+                        clean = false;
+                }
+            }
+        }
+        return clean;
+    }
+
+    private static boolean endsWithNewline(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size == 0) return false;
+            ByteBuffer last = ByteBuffer.allocate(1);
+            ch.read(last, size - 1);
+            return last.get(0) == '\n';
+        }
+    }
+
+    private static void appendQueued(StringBuilder sb, FileInfo fi) {
+        sb.append(QUEUED).append('\t').append(escapeUrl(fi.getUrl())).append('\t').append(clean(fi.getExtension())).append('\t')
+          .append(fi.getContentType() != null ? clean(fi.getContentType()) : "").append('\n');
+    }
+
+    private static String clean(String s) {
+        return s.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+
+    /**
+     * Prosentkoder tegnene som skiller felt og linjer i journalen. URL-en er nøkkelen i køen, så den kan ikke
+     * vaskes som de andre feltene; kodet peker den fortsatt på samme fil.
+     */
+    private static String escapeUrl(String url) {
+        return url.replace("\t", "%09").replace("\n", "%0A").replace("\r", "%0D");
+    }
+
+    /** Filene som ikke er ferdige ennå. */
+    public synchronized List<FileInfo> getUnfinished() {
+        return new ArrayList<>(unfinished.values());
+    }
+
+    public synchronized int getUnfinishedCount() {
+        return unfinished.size();
+    }
+
+    /** Setter filene i kø. Filer som allerede står i køen legges ikke til en gang til. */
+    public synchronized void enqueue(Collection<FileInfo> files) {
+        for (FileInfo fi : files) {
+            if (unfinished.putIfAbsent(fi.getUrl(), fi) == null) appendQueued(pending, fi);
+        }
+    }
+
+    /** Registrerer utfallet for en fil. Avbrutte filer blir stående i køen. */
+    synchronized void finished(DownloadResult result) {
+        if (result.getStatus() == DownloadResult.Status.CANCELLED) return;
+        String url = result.getFile().getUrl();
+        if (unfinished.remove(url) == null) return;
+        pending.append(result.isOk() ? DONE : FAILED).append('\t').append(escapeUrl(url)).append('\n');
+    }
+
+    private void syncLoop() {
+        while (true) {
+            // Venter med wait i stedet for å bli avbrutt, siden et avbrudd midt i en skriving lukker kanalen
+            synchronized (this) {
+                if (closed) return;
+                try {
+                    wait(SYNC_INTERVAL_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (closed) return;
+            }
+            try {
+                sync();
+            } catch (IOException e) {
+                System.err.println("Kunne ikke skrive nedlastingskøen " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Skriver det som er lagt til siden sist og venter til det ligger på disk.
+     * Feiler skrivingen, kuttes det som kom ut av bolken bort igjen, og den samme bolken skrives neste gang.
+     * Returnerer false når journalen er lukket.
+     */
+    public boolean sync() throws IOException {
+        // Én skriving om gangen, så linjene havner på disk i samme rekkefølge som de ble lagt til
+        synchronized (channel) {
+            String batch;
+            synchronized (this) {
+                if (closed) return false;
+                if (pending.length() == 0) return true;
+                batch = pending.toString();
+            }
+            long start = channel.size();
+            try {
+                ByteBuffer buf = ByteBuffer.wrap(batch.getBytes(StandardCharsets.UTF_8));
+                while (buf.hasRemaining()) channel.write(buf);
+                channel.force(false);
+            } catch (IOException e) {
+                try {
+                    channel.truncate(start);
+                } catch (IOException ignored) { /* En halv linje til slutt hoppes over ved innlesing */ }
+                throw e;
+            }
+            synchronized (this) {
+                // Bare det vi skrev; det som er lagt til i mellomtiden venter til neste gang
+                pending.delete(0, batch.length());
+            }
+        }
+        return true;
+    }
+
+    /** Skriver det som gjenstår og lukker filen. Er hele køen ferdig, slettes journalen. */
+    @Override
+    public void close() throws IOException {
+        try {
+            sync();
+        } finally {
+            boolean empty;
+            synchronized (this) {
+                closed = true;
+                empty = unfinished.isEmpty();
+                notifyAll();
+            }
+            synchronized (channel) {
+                channel.close();
+            }
+            if (empty) Files.deleteIfExists(file);
+        }
+    }
+}
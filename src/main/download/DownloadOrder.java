@@ -0,0 +1,36 @@
+// DownloadOrder.java
+package main.download;
+
+/**
+ * Rekkefølgen filene i en batch startes i. Grensene for samtidige nedlastinger per vert gjelder
+ * uansett, så en vert med mange filer kan ikke stenge ute de andre.
+ */
+public enum DownloadOrder {
+    /** Samme rekkefølge som i listen. */
+    FIFO("fifo", "Som i listen"),
+    /** Minste filer først, slik at én stor video ikke holder igjen hundrevis av miniatyrbilder. Krever størrelsene på forhånd. */
+    SMALLEST_FIRST("smallest", "Minste først"),
+    /** Etter kategori i prioritert rekkefølge (bilder før videoer osv.), minste først innen hver kategori når størrelsen er kjent. */
+    CATEGORY("category", "Etter kategori");
+
+    private final String cliName;
+    private final String label;
+
+    DownloadOrder(String cliName, String label) {
+        this.cliName = cliName;
+        this.label = label;
+    }
+
+    public String getCliName() { return cliName; }
+
+    @Override
+    public String toString() { return label; }
+
+    /** Finner rekkefølgen ut fra navnet på kommandolinjen, f.eks. {@code smallest}. */
+    public static DownloadOrder fromCliName(String name) {
+        for (DownloadOrder o : values()) {
+            if (o.cliName.equalsIgnoreCase(name) || o.name().equalsIgnoreCase(name)) return o;
+        }
+        throw new IllegalArgumentException("Ukjent rekkefølge: " + name);
+    }
+}
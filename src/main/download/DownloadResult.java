@@ -0,0 +1,73 @@
+// DownloadResult.java
+package main.download;
+
+import main.model.FileInfo;
+
+import java.io.File;
+
+/**
+ * Resultatet av et nedlastingsforsøk for én fil.
+ */
+public class DownloadResult {
+
+    /** SKIPPED betyr at filen allerede fantes lokalt med samme innhold og ikke ble skrevet på nytt. */
+    public enum Status { OK, SKIPPED, FAILED, CANCELLED }
+
+    private final FileInfo file;
+    private final Status status;
+    private final File target;
+    private final long bytes;
+    private final String message;
+    /** -1 når feilen ikke går over av seg selv, ellers serverens Retry-After i millisekunder, eller 0. */
+    private final long retryAfterMillis;
+
+    private DownloadResult(FileInfo file, Status status, File target, long bytes, String message) {
+        this(file, status, target, bytes, message, -1);
+    }
+
+    private DownloadResult(FileInfo file, Status status, File target, long bytes, String message, long retryAfterMillis) {
+        this.file = file;
+        this.status = status;
+        this.target = target;
+        this.bytes = bytes;
+        this.message = message;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public static DownloadResult ok(FileInfo file, File target, long bytes) {
+        return new DownloadResult(file, Status.OK, target, bytes, "OK: " + target.getName());
+    }
+
+    public static DownloadResult skipped(FileInfo file, File existing, String message) {
+        return new DownloadResult(file, Status.SKIPPED, existing, 0, message);
+    }
+
+    public static DownloadResult failed(FileInfo file, String message) {
+        return new DownloadResult(file, Status.FAILED, null, 0, message);
+    }
+
+    /** En forbigående feil, som et tidsavbrudd eller 503. {@code retryAfterMillis} er -1 hvis serveren ikke sa noe. */
+    public static DownloadResult retryable(FileInfo file, String message, long retryAfterMillis) {
+        return new DownloadResult(file, Status.FAILED, null, 0, message, Math.max(0, retryAfterMillis));
+    }
+
+    public static DownloadResult cancelled(FileInfo file) {
+        return new DownloadResult(file, Status.CANCELLED, null, 0, "Avbrutt: " + file.getUrl());
+    }
+
+    public DownloadResult withMessage(String newMessage) {
+        return new DownloadResult(file, status, target, bytes, newMessage, retryAfterMillis);
+    }
+
+    public FileInfo getFile() { return file; }
+    public Status getStatus() { return status; }
+    public File getTarget() { return target; }
+    public long getBytes() { return bytes; }
+    public String getMessage() { return message; }
+    public boolean isOk() { return status == Status.OK || status == Status.SKIPPED; }
+    public boolean isSkipped() { return status == Status.SKIPPED; }
+    /** Sant hvis feilen kan gå over, så filen kan prøves igjen. */
+    public boolean isRetryable() { return retryAfterMillis >= 0; }
+    /** Hvor lenge serveren ba oss vente, 0 hvis den ikke sa noe. */
+    public long getRetryAfterMillis() { return Math.max(0, retryAfterMillis); }
+}
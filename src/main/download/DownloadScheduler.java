@@ -0,0 +1,500 @@
+// DownloadScheduler.java
+package main.download;
+
+import main.model.FileCategory;
+import main.model.FileInfo;
+import main.net.HostHealth;
+import main.net.RetryPolicy;
+import main.util.UrlUtil;
+import main.util.WorkerThreads;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fordeler en batch med nedlastinger over en felles arbeiderpool, med en øvre grense
+ * for samtidige nedlastinger totalt og per vert.
+ * <p>
+ * Oppgaver som venter på en opptatt vert blokkerer ingen tråder: en fil sendes først
+ * til poolen når både den globale grensen og vertens grense har ledig kapasitet.
+ * Rekkefølgen styres av {@link DownloadOrder}. Trengs størrelsene, hentes de først med
+ * HEAD-forespørsler i parallell, innenfor de samme grensene.
+ * Bruker virtuelle tråder når JVM-en støtter det, ellers en fast trådpool.
+ * Når batchen er ferdig skrives målingene fra {@link TransferMetrics} til en JSON-rapport
+ * i nedlastingsmappen.
+ * <p>
+ * Køen og hvilke filer som er ferdige føres i en {@link DownloadJournal} i nedlastingsmappen,
+ * så en batch som avbrytes eller krasjer kan fortsettes med {@link DownloadJournal#unfinished}.
+ * <p>
+ * Filer som feiler med en forbigående feil settes til side og prøves igjen etter {@link Options#retry},
+ * uten å holde på en plass mens de venter. Har en vert pause etter {@code Retry-After} eller fordi
+ * kretsbryteren i {@link HostHealth} har åpnet, startes ingen filer mot den før pausen er over, mens
+ * de andre vertene går for full fart. Har verten feilet for lenge, gis resten av filene mot den opp.
+ */
+public class DownloadScheduler {
+
+    public static final int DEFAULT_MAX_CONCURRENT = 8;
+    public static final int DEFAULT_MAX_PER_HOST = 4;
+
+    /** Innstillinger for én batch. */
+    public static class Options {
+        public int maxConcurrent = DEFAULT_MAX_CONCURRENT;
+        public int maxPerHost = DEFAULT_MAX_PER_HOST;
+        public DownloadOrder order = DownloadOrder.FIFO;
+        /**
+         * Hent størrelsene med HEAD, så fremdriften kan vises i byte. Det skjer i bakgrunnen mens filene
+         * lastes ned, bakerst i køen først; bare {@link DownloadOrder#SMALLEST_FIRST} venter på størrelsene
+         * før start, og der hentes de alltid.
+         */
+        public boolean probeSizes;
+        /** Kategoriene i prioritert rekkefølge for {@link DownloadOrder#CATEGORY}. Andre kategorier kommer sist. */
+        public List<String> categoryPriority = new ArrayList<>(FileCategory.CATEGORIZED_EXTENSIONS.keySet());
+        /** Grense for hele batchen i byte per sekund, 0 for ubegrenset. */
+        public long maxBytesPerSecond;
+        /** Grense per vert i byte per sekund, 0 for ubegrenset. */
+        public long maxBytesPerSecondPerHost;
+        /** Før køen i en {@link DownloadJournal}, så uferdige filer kan lastes ned senere. */
+        public boolean journal = true;
+        /** Lagre filene under {@code vert/sti/} i nedlastingsmappen, som på serveren. */
+        public boolean mirrorPaths;
+        /** Nye forsøk ved forbigående feil som tidsavbrudd, 429 og 503. */
+        public RetryPolicy retry = RetryPolicy.DEFAULT;
+        /** Filer mot en vert som har feilet sammenhengende så lenge, gis opp i stedet for å vente på verten. */
+        public long hostGiveUpMillis = 120_000;
+    }
+
+    /** Tilbakemeldinger fra scheduleren. Kalles fra arbeidertrådene. */
+    public interface Listener {
+        void fileStarted(FileInfo file, int completed, int total);
+        void fileFinished(DownloadResult result, int completed, int total);
+        /**
+         * Kalles når størrelsene er hentet: før første fil startes ved {@link DownloadOrder#SMALLEST_FIRST}, ellers
+         * underveis. {@code bytes} er summen for de {@code known} filene med kjent størrelse.
+         */
+        default void sizesProbed(int known, int total, long bytes) { }
+        /** Kalles når forsøk nummer {@code attempt} feilet og filen prøves igjen om {@code delayMillis}. */
+        default void fileRetrying(DownloadResult result, int attempt, long delayMillis) { }
+    }
+
+    private static final class Task {
+        final FileInfo file;
+        final long sequence;
+        final long size;
+        final int rank;
+        final int attempt;
+        /** Tidligste {@link System#nanoTime()} for et nytt forsøk. */
+        final long notBefore;
+        Task(FileInfo file, long sequence, long size, int rank) { this(file, sequence, size, rank, 1, 0); }
+        Task(FileInfo file, long sequence, long size, int rank, int attempt, long notBefore) {
+            this.file = file; this.sequence = sequence; this.size = size; this.rank = rank; this.attempt = attempt; this.notBefore = notBefore;
+        }
+        Task retry(long delayMillis) { return new Task(file, sequence, size, rank, attempt + 1, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis)); }
+    }
+
+    private static final class HostQueue {
+        final Queue<Task> pending;
+        /** Filer som venter på et nytt forsøk. */
+        final List<Task> waiting = new ArrayList<>();
+        final HostHealth health;
+        int active;
+        HostQueue(Comparator<Task> order, HostHealth health) { this.pending = new PriorityQueue<>(order); this.health = health; }
+    }
+
+    /** Filene som venter på HEAD mot én vert, som indekser i listen til {@link #probeSizes}. */
+    private static final class ProbeHost {
+        final Queue<Integer> files = new ArrayDeque<>();
+        int active;
+    }
+
+    private static final Comparator<Task> FIFO = Comparator.comparingLong(t -> t.sequence);
+    /** Ukjent størrelse sorteres etter alle kjente. */
+    private static final Comparator<Task> SMALLEST_FIRST = Comparator.<Task>comparingLong(t -> t.size < 0 ? Long.MAX_VALUE : t.size).thenComparing(FIFO);
+    private static final Comparator<Task> CATEGORY = Comparator.<Task>comparingInt(t -> t.rank).thenComparing(SMALLEST_FIRST);
+
+    private final FileDownloader downloader;
+    private final int maxConcurrent;
+    private final int maxPerHost;
+    private final Options options;
+    private final Comparator<Task> order;
+
+    private final Object lock = new Object();
+    private final Map<String, HostQueue> hostQueues = new LinkedHashMap<>();
+    private final Set<Thread> runningThreads = ConcurrentHashMap.newKeySet();
+    private ExecutorService executor;
+    private int active;
+    private int finished;
+    private int total;
+    private volatile boolean cancelled;
+    private volatile Path reportFile;
+    private volatile DownloadJournal journal;
+    private volatile int unfinished;
+    private Thread sizeProber;
+
+    private final AtomicInteger completed = new AtomicInteger();
+    private final AtomicInteger succeeded = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+
+    public DownloadScheduler(FileDownloader downloader, int maxConcurrent, int maxPerHost) {
+        this(downloader, options(maxConcurrent, maxPerHost));
+    }
+
+    public DownloadScheduler(FileDownloader downloader, Options options) {
+        if (options.maxConcurrent < 1 || options.maxPerHost < 1) throw new IllegalArgumentException("Grensene må være minst 1");
+        this.downloader = downloader;
+        this.options = options;
+        this.maxConcurrent = options.maxConcurrent;
+        this.maxPerHost = options.maxPerHost;
+        switch (options.order) {
+            case SMALLEST_FIRST: order = SMALLEST_FIRST; break;
+            case CATEGORY: order = CATEGORY; break;
+            case FIFO:
+            default: order = FIFO;
+        }
+    }
+
+    private static Options options(int maxConcurrent, int maxPerHost) {
+        Options o = new Options();
+        o.maxConcurrent = maxConcurrent;
+        o.maxPerHost = maxPerHost;
+        return o;
+    }
+
+    /**
+     * Laster ned alle filene og blokkerer til batchen er ferdig eller avbrutt.
+     * Filer kan bli ferdige i en annen rekkefølge enn listen.
+     */
+    public DownloadSummary run(List<FileInfo> files, Listener listener) throws InterruptedException {
+        long start = System.nanoTime();
+        synchronized (lock) {
+            if (executor != null) throw new IllegalStateException("Scheduleren kan bare kjøres én gang");
+            executor = WorkerThreads.newExecutor(maxConcurrent, "nedlaster");
+            total = files.size();
+        }
+        downloader.getMetrics().batchStarted(total, maxConcurrent, maxPerHost);
+        if (options.journal) openJournal(files);
+        long[] sizes = null;
+        try {
+            if (options.order == DownloadOrder.SMALLEST_FIRST) sizes = probeSizes(files, listener, maxPerHost, false);
+        } catch (InterruptedException ex) {
+            cancel();
+            executor.shutdownNow();
+            closeJournal();
+            throw ex;
+        }
+        synchronized (lock) {
+            if (cancelled) {
+                finished = total;
+            } else {
+                for (int i = 0; i < files.size(); i++) {
+                    FileInfo fi = files.get(i);
+                    Task task = new Task(fi, i, sizes != null ? sizes[i] : -1, rank(fi));
+                    hostQueues.computeIfAbsent(UrlUtil.hostOf(fi.getUrl()), h -> new HostQueue(order, downloader.hostHealth(h))).pending.add(task);
+                }
+                dispatchLocked(listener);
+                if (options.probeSizes && sizes == null) startSizeProber(files, listener);
+            }
+        }
+        try {
+            synchronized (lock) {
+                while (finished < total) {
+                    lock.wait(nextWakeMillisLocked());
+                    dispatchLocked(listener);
+                }
+            }
+        } catch (InterruptedException ex) {
+            cancel();
+            throw ex;
+        } finally {
+            if (sizeProber != null) sizeProber.interrupt();
+            executor.shutdownNow();
+            downloader.saveIndex();
+            downloader.getMetrics().batchFinished();
+            closeJournal();
+        }
+        int done = completed.get();
+        DownloadSummary summary = new DownloadSummary(total, succeeded.get(), skipped.get(), done - succeeded.get(), bytes.get(), System.nanoTime() - start);
+        try {
+            reportFile = TransferReport.write(downloader.getSaveDirectory().toPath(), downloader.getMetrics(), summary);
+        } catch (IOException ex) {
+            System.err.println("Kunne ikke skrive målerapporten: " + ex.getMessage());
+        }
+        return summary;
+    }
+
+    private void openJournal(List<FileInfo> files) {
+        try {
+            journal = DownloadJournal.open(downloader.getSaveDirectory());
+            journal.enqueue(files);
+        } catch (IOException ex) {
+            System.err.println("Kunne ikke åpne nedlastingskøen: " + ex.getMessage());
+        }
+    }
+
+    private void closeJournal() {
+        DownloadJournal j = journal;
+        if (j == null) return;
+        unfinished = j.getUnfinishedCount();
+        try {
+            j.close();
+        } catch (IOException ex) {
+            System.err.println("Kunne ikke lagre nedlastingskøen: " + ex.getMessage());
+        }
+    }
+
+    /** Filer som står igjen i køen på disk etter kjøringen, f.eks. fordi batchen ble avbrutt. */
+    public int getUnfinishedCount() { return unfinished; }
+
+    /** Målingene for batchen. Kan leses mens den pågår. */
+    public TransferMetrics getMetrics() { return downloader.getMetrics(); }
+
+    /** JSON-rapporten fra siste kjøring, eller null hvis den ikke ble skrevet. */
+    public Path getReportFile() { return reportFile; }
+
+    /** Avbryter batchen. Ventende filer startes ikke, og pågående nedlastinger avbrytes. */
+    public void cancel() {
+        cancelled = true;
+        synchronized (lock) {
+            for (HostQueue hq : hostQueues.values()) {
+                finished += hq.pending.size() + hq.waiting.size();
+                hq.pending.clear();
+                for (Task t : hq.waiting) downloader.abandon(DownloadResult.cancelled(t.file));
+                hq.waiting.clear();
+            }
+            runningThreads.forEach(Thread::interrupt);
+            lock.notifyAll();
+        }
+    }
+
+    public boolean isCancelled() { return cancelled; }
+
+    private int rank(FileInfo fi) {
+        int i = options.categoryPriority.indexOf(fi.getDetectedType());
+        return i >= 0 ? i : options.categoryPriority.size();
+    }
+
+    /**
+     * Henter størrelsene mens filene lastes ned. Bakerst i køen først, og filer som allerede er startet
+     * hoppes over, så HEAD bare sendes for filer som venter. Én HEAD per vert om gangen, så nedlastingene
+     * får nesten alle tilkoblingene.
+     */
+    private void startSizeProber(List<FileInfo> files, Listener listener) {
+        List<FileInfo> reversed = new ArrayList<>(files);
+        Collections.reverse(reversed);
+        sizeProber = new Thread(() -> {
+            try {
+                probeSizes(reversed, listener, 1, true);
+            } catch (InterruptedException ignored) {
+                // Batchen er ferdig eller avbrutt
+            }
+        }, "storrelser");
+        sizeProber.setDaemon(true);
+        sizeProber.start();
+    }
+
+    /**
+     * Henter størrelsene med HEAD i parallell, med høyst like mange totalt som nedlastingene og
+     * {@code perHostLimit} per vert. Ukjente størrelser blir -1.
+     * <p>
+     * Som {@link #dispatchLocked} startes en HEAD bare når verten har plass, og vertene tas etter tur.
+     * Ingen tråd står og venter på en vert, så filer mot én vert kan ikke ta alle trådene i poolen.
+     */
+    private long[] probeSizes(List<FileInfo> files, Listener listener, int perHostLimit, boolean skipStarted) throws InterruptedException {
+        long[] sizes = new long[files.size()];
+        Arrays.fill(sizes, -1);
+        Map<String, ProbeHost> hosts = new LinkedHashMap<>();
+        for (int i = 0; i < files.size(); i++) {
+            hosts.computeIfAbsent(UrlUtil.hostOf(files.get(i).getUrl()), h -> new ProbeHost()).files.add(i);
+        }
+        Object probeLock = new Object();
+        int[] running = new int[1];
+        ExecutorService pool = WorkerThreads.newExecutor(maxConcurrent, "storrelse");
+        try {
+            synchronized (probeLock) {
+                while (!cancelled) {
+                    boolean started;
+                    do {
+                        started = false;
+                        for (Iterator<ProbeHost> it = hosts.values().iterator(); it.hasNext() && running[0] < maxConcurrent; ) {
+                            ProbeHost ph = it.next();
+                            if (ph.files.isEmpty()) {
+                                if (ph.active == 0) it.remove();
+                                continue;
+                            }
+                            if (ph.active >= perHostLimit) continue;
+                            int idx = ph.files.poll();
+                            FileInfo fi = files.get(idx);
+                            ph.active++;
+                            running[0]++;
+                            started = true;
+                            pool.execute(() -> {
+                                try {
+                                    if (!cancelled && !(skipStarted && downloader.getMetrics().isStarted(fi.getUrl()))) sizes[idx] = downloader.probeSize(fi);
+                                } catch (InterruptedException | RuntimeException ignored) {
+                                    // Størrelsen forblir ukjent
+                                } finally {
+                                    synchronized (probeLock) {
+                                        ph.active--;
+                                        running[0]--;
+                                        probeLock.notifyAll();
+                                    }
+                                }
+                            });
+                        }
+                    } while (started && running[0] < maxConcurrent);
+                    if (hosts.isEmpty()) break;
+                    probeLock.wait();
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        int known = 0;
+        long bytes = 0;
+        for (long size : sizes) {
+            if (size < 0) continue;
+            known++;
+            bytes += size;
+        }
+        listener.sizesProbed(known, files.size(), bytes);
+        return sizes;
+    }
+
+    private void dispatchLocked(Listener listener) {
+        long now = System.nanoTime();
+        for (HostQueue hq : hostQueues.values()) {
+            for (Iterator<Task> it = hq.waiting.iterator(); it.hasNext(); ) {
+                Task t = it.next();
+                if (t.notBefore - now <= 0) {
+                    it.remove();
+                    hq.pending.add(t);
+                }
+            }
+        }
+        while (!cancelled && active < maxConcurrent) {
+            HostQueue next = null;
+            Iterator<HostQueue> it = hostQueues.values().iterator();
+            while (it.hasNext()) {
+                HostQueue hq = it.next();
+                if (hq.pending.isEmpty()) {
+                    if (hq.active == 0 && hq.waiting.isEmpty()) it.remove();
+                    continue;
+                }
+                if (!isGivingUp(hq)) {
+                    if (hq.health.blockedMillis() > 0) continue;
+                    // Halvåpen kretsbryter: én fil om gangen til verten har svart
+                    if (hq.health.getState() == HostHealth.State.HALF_OPEN && hq.active > 0) continue;
+                }
+                if (hq.active < maxPerHost && (next == null || order.compare(hq.pending.peek(), next.pending.peek()) < 0)) next = hq;
+            }
+            if (next == null) return;
+            HostQueue hq = next;
+            Task task = hq.pending.poll();
+            hq.active++;
+            active++;
+            executor.execute(() -> runTask(hq, task, listener));
+        }
+    }
+
+    /** Hvor lenge {@link #run} kan vente før noe kan startes uten at en fil er ferdig, 0 for ubegrenset. */
+    private long nextWakeMillisLocked() {
+        long now = System.nanoTime();
+        long wake = Long.MAX_VALUE;
+        for (HostQueue hq : hostQueues.values()) {
+            for (Task t : hq.waiting) wake = Math.min(wake, TimeUnit.NANOSECONDS.toMillis(Math.max(0, t.notBefore - now)));
+            if (!hq.pending.isEmpty()) {
+                long blocked = hq.health.blockedMillis();
+                if (blocked > 0 && !isGivingUp(hq)) wake = Math.min(wake, blocked);
+            }
+        }
+        return wake == Long.MAX_VALUE ? 0 : Math.max(1, wake);
+    }
+
+    private boolean isGivingUp(HostQueue hq) {
+        return hq.health.getState() != HostHealth.State.CLOSED && hq.health.failingForMillis() > options.hostGiveUpMillis;
+    }
+
+    private void runTask(HostQueue hq, Task task, Listener listener) {
+        DownloadResult result;
+        boolean lastAttempt = task.attempt >= options.retry.getMaxAttempts();
+        runningThreads.add(Thread.currentThread());
+        try {
+            if (task.attempt == 1) listener.fileStarted(task.file, completed.get(), total);
+            if (cancelled) {
+                result = downloader.abandon(DownloadResult.cancelled(task.file));
+            } else if (isGivingUp(hq)) {
+                result = downloader.abandon(DownloadResult.failed(task.file, "Feil DL " + task.file.getUrl() + ": verten svarer ikke (" + hq.health + ")"));
+            } else {
+                result = downloader.download(task.file, this::isCancelled, lastAttempt);
+            }
+        } catch (InterruptedException ex) {
+            result = downloader.abandon(DownloadResult.cancelled(task.file));
+        } catch (RuntimeException ex) {
+            result = DownloadResult.failed(task.file, "Feil DL " + task.file.getUrl() + ": " + ex);
+        } finally {
+            runningThreads.remove(Thread.currentThread());
+        }
+        if (result.isRetryable() && !lastAttempt) {
+            if (cancelled) {
+                result = downloader.abandon(DownloadResult.cancelled(task.file));
+            } else if (options.retry.canRetry(task.attempt, result.getRetryAfterMillis())) {
+                long delay = options.retry.delayMillis(task.attempt, result.getRetryAfterMillis());
+                try {
+                    listener.fileRetrying(result, task.attempt, delay);
+                } finally {
+                    synchronized (lock) {
+                        hq.active--;
+                        active--;
+                        if (cancelled) {
+                            // Avbrutt mens filen var ute; cancel() har allerede talt opp køene
+                            finished++;
+                            downloader.abandon(DownloadResult.cancelled(task.file));
+                        } else {
+                            hq.waiting.add(task.retry(delay));
+                        }
+                        dispatchLocked(listener);
+                        lock.notifyAll();
+                    }
+                }
+                return;
+            } else {
+                result = downloader.abandon(result);
+            }
+        }
+        if (journal != null) journal.finished(result);
+        if (result.isOk()) {
+            succeeded.incrementAndGet();
+            if (result.isSkipped()) skipped.incrementAndGet();
+            bytes.addAndGet(result.getBytes());
+        }
+        int done = result.getStatus() == DownloadResult.Status.CANCELLED ? completed.get() : completed.incrementAndGet();
+        try {
+            if (result.getStatus() != DownloadResult.Status.CANCELLED) listener.fileFinished(result, done, total);
+        } finally {
+            synchronized (lock) {
+                hq.active--;
+                active--;
+                finished++;
+                dispatchLocked(listener);
+                lock.notifyAll();
+            }
+        }
+    }
+}
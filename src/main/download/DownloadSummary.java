@@ -0,0 +1,45 @@
+// DownloadSummary.java
+package main.download;
+
+/**
+ * Oppsummering av en nedlastingsbatch.
+ */
+public class DownloadSummary {
+    private final int total;
+    private final int succeeded;
+    private final int skipped;
+    private final int failed;
+    private final long bytes;
+    private final long elapsedNanos;
+
+    public DownloadSummary(int total, int succeeded, int skipped, int failed, long bytes, long elapsedNanos) {
+        this.total = total;
+        this.succeeded = succeeded;
+        this.skipped = skipped;
+        this.failed = failed;
+        this.bytes = bytes;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public int getTotal() { return total; }
+    public int getSucceeded() { return succeeded; }
+    /** Filer som ikke ble lastet ned på nytt fordi de var uendret eller fantes fra før. Telles også med i {@link #getSucceeded()}. */
+    public int getSkipped() { return skipped; }
+    public int getFailed() { return failed; }
+    public long getBytes() { return bytes; }
+    public long getElapsedNanos() { return elapsedNanos; }
+
+    public double getFilesPerSecond() {
+        return elapsedNanos > 0 ? (succeeded + failed) / (elapsedNanos / 1e9) : 0;
+    }
+
+    public double getBytesPerSecond() {
+        return elapsedNanos > 0 ? bytes / (elapsedNanos / 1e9) : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d/%d OK (%d uendret), %d feilet, %.1f MB på %.1f s (%.1f filer/s, %.2f MB/s)",
+                succeeded, total, skipped, failed, bytes / 1e6, elapsedNanos / 1e9, getFilesPerSecond(), getBytesPerSecond() / 1e6);
+    }
+}
@@ -0,0 +1,172 @@
+// FileBodySubscriber.java
+package main.download;
+
+import main.net.IdleTimeout;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Skriver svarkroppen til en {@link FileChannel} etter hvert som bufferne kommer fra
+ * HTTP-klienten.
+ * <p>
+ * Bufferne samles i én stor direkte buffer som skrives i ett kall når den er full, i stedet
+ * for mange små skrivinger via en byte-array. Når størrelsen er kjent settes fillengden på
+ * forhånd, slik at filsystemet kan reservere plassen. Resultatet er antall byte som ble skrevet.
+ * Er en {@link MessageDigest} oppgitt, oppdateres den med innholdet underveis, så filen ikke må leses på nytt.
+ * Antall mottatte byte meldes til {@code received}, som svarer med hvor lenge vi skal vente før
+ * neste buffer bes om. Slik holdes en båndbreddegrense uten å blokkere klientens tråder: så lenge
+ * vi ikke ber om mer, stopper flytkontrollen i TCP/HTTP/2 serveren.
+ * <p>
+ * En {@link IdleTimeout} avbryter kroppen hvis serveren stopper opp, og sjekker {@code cancelled}
+ * selv når det ikke kommer data.
+ */
+class FileBodySubscriber implements HttpResponse.BodySubscriber<Long> {
+
+    static final int WRITE_BUFFER_SIZE = 1 << 20;
+    private static final int SMALL_BUFFER_SIZE = 64 * 1024;
+
+    private final Path target;
+    private final long expectedLength;
+    private final BooleanSupplier cancelled;
+    private final MessageDigest digest;
+    private final LongUnaryOperator received;
+    private final IdleTimeout idle;
+    private final CompletableFuture<Long> result = new CompletableFuture<>();
+
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private ByteBuffer buffer;
+    private Flow.Subscription subscription;
+    private long position;
+
+    FileBodySubscriber(Path target, long expectedLength, BooleanSupplier cancelled, MessageDigest digest, LongUnaryOperator received, IdleTimeout idle) {
+        this.target = target;
+        this.expectedLength = expectedLength;
+        this.cancelled = cancelled;
+        this.digest = digest;
+        this.received = received;
+        this.idle = idle;
+    }
+
+    @Override
+    public CompletionStage<Long> getBody() {
+        return result;
+    }
+
+    @Override
+    public synchronized void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        try {
+            file = new RandomAccessFile(target.toFile(), "rw");
+            file.setLength(Math.max(0, expectedLength));
+            channel = file.getChannel();
+            buffer = ByteBuffer.allocateDirect(expectedLength > 0 ? (int) Math.min(WRITE_BUFFER_SIZE, expectedLength) : SMALL_BUFFER_SIZE);
+        } catch (IOException e) {
+            fail(e);
+            return;
+        }
+        idle.start(cancelled, this::fail);
+        request();
+    }
+
+    @Override
+    public synchronized void onNext(List<ByteBuffer> items) {
+        idle.received();
+        if (result.isDone()) return;
+        if (cancelled.getAsBoolean()) {
+            fail(new InterruptedIOException("Nedlastingen ble avbrutt"));
+            return;
+        }
+        long n = 0;
+        try {
+            for (ByteBuffer b : items) {
+                if (digest != null) digest.update(b.duplicate());
+                n += b.remaining();
+                while (b.hasRemaining()) {
+                    if (!buffer.hasRemaining()) flush();
+                    if (b.remaining() <= buffer.remaining()) {
+                        buffer.put(b);
+                    } else {
+                        int limit = b.limit();
+                        b.limit(b.position() + buffer.remaining());
+                        buffer.put(b);
+                        b.limit(limit);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            fail(e);
+            return;
+        }
+        long wait = received != null ? received.applyAsLong(n) : 0;
+        if (wait > 0) CompletableFuture.delayedExecutor(wait, TimeUnit.NANOSECONDS).execute(this::requestNext);
+        else request();
+    }
+
+    private synchronized void requestNext() {
+        if (result.isDone()) return;
+        if (cancelled.getAsBoolean()) fail(new InterruptedIOException("Nedlastingen ble avbrutt"));
+        else request();
+    }
+
+    /** Ber om neste buffer. Vakthunden teller bare tiden vi venter på serveren. */
+    private void request() {
+        idle.waiting();
+        subscription.request(1);
+    }
+
+    /** Skriver samlebufferen til filen. Én stor skriving i stedet for én per mottatt buffer. */
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) position += channel.write(buffer);
+        buffer.clear();
+    }
+
+    @Override
+    public synchronized void onError(Throwable throwable) {
+        close();
+        result.completeExceptionally(throwable);
+    }
+
+    @Override
+    public synchronized void onComplete() {
+        if (result.isDone()) return;
+        try {
+            flush();
+            if (channel.size() != position) channel.truncate(position);
+            file.close();
+            result.complete(position);
+        } catch (IOException e) {
+            close();
+            result.completeExceptionally(e);
+        }
+    }
+
+    /** Kalles også fra vakthunden, derfor synkronisert med skrivingen. */
+    private synchronized void fail(IOException e) {
+        if (subscription != null) subscription.cancel();
+        close();
+        result.completeExceptionally(e);
+    }
+
+    private void close() {
+        idle.close();
+        try {
+            if (file != null) file.close();
+        } catch (IOException ignored) { /* Ignorer */ }
+    }
+}
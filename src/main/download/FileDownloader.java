@@ -0,0 +1,365 @@
+// FileDownloader.java
+package main.download;
+
+import main.model.FileInfo;
+import main.net.HostHealth;
+import main.net.HttpService;
+import main.net.RetryPolicy;
+import main.util.FileUtil;
+import main.util.UrlUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Laster ned én enkelt fil over HTTP og lagrer den i nedlastingsmappen.
+ * Trådsikker, slik at flere nedlastinger kan kjøre samtidig mot samme mappe.
+ * <p>
+ * Hva som er lastet ned før huskes i en {@link DownloadIndex} i mappen. Kjente filer hentes
+ * med If-None-Match/If-Modified-Since og hoppes over ved 304, og en fil med samme innhold
+ * som en fil som allerede ligger i mappen lagres ikke en gang til.
+ * <p>
+ * Tider, byte og statuskoder for hver fil samles i {@link TransferMetrics}, og mottaket holdes
+ * innenfor grensene i en {@link BandwidthLimiter}. Filnavnene velges av en {@link OutputPathAllocator},
+ * eventuelt i undermapper som speiler URL-ens vert og sti.
+ */
+public class FileDownloader {
+
+    private static final Pattern CONTENT_DISPOSITION_FILENAME = Pattern.compile("filename\\*?=['\"]?([^'\"]+)['\"]?", Pattern.CASE_INSENSITIVE);
+    private static final int CONTENT_LOCKS = 64;
+
+    private final HttpService http;
+    private final File saveDirectory;
+    private final SegmentedDownloader segmented;
+    private final DownloadIndex index;
+    private final BandwidthLimiter limiter;
+    private final OutputPathAllocator allocator;
+    private final boolean mirrorPaths;
+    private final TransferMetrics metrics = new TransferMetrics();
+    /** Målingene for filer som skal prøves igjen, så alle forsøkene telles som én fil. */
+    private final Map<String, TransferMetrics.Transfer> retrying = new ConcurrentHashMap<>();
+    /** Svar på HEAD fra {@link #probeSize}, slik at store filer ikke sjekkes to ganger. */
+    private final Map<String, SegmentedDownloader.RemoteFile> probed = new ConcurrentHashMap<>();
+    /** Låser for lagring, fordelt etter innholdets SHA-256. */
+    private final Object[] contentLocks = new Object[CONTENT_LOCKS];
+
+    public FileDownloader(HttpService http, File saveDirectory) {
+        this(http, saveDirectory, BandwidthLimiter.UNLIMITED);
+    }
+
+    public FileDownloader(HttpService http, File saveDirectory, BandwidthLimiter limiter) {
+        this(http, saveDirectory, limiter, false);
+    }
+
+    /** Med {@code mirrorPaths} lagres filene under {@code vert/sti/} i mappen i stedet for rett i den. */
+    public FileDownloader(HttpService http, File saveDirectory, BandwidthLimiter limiter, boolean mirrorPaths) {
+        this.http = http;
+        this.saveDirectory = saveDirectory;
+        this.limiter = limiter;
+        this.mirrorPaths = mirrorPaths;
+        this.allocator = new OutputPathAllocator(saveDirectory.toPath());
+        this.segmented = new SegmentedDownloader(http, limiter);
+        this.index = DownloadIndex.load(saveDirectory);
+        for (int i = 0; i < CONTENT_LOCKS; i++) contentLocks[i] = new Object();
+    }
+
+    public File getSaveDirectory() { return saveDirectory; }
+
+    public TransferMetrics getMetrics() { return metrics; }
+
+    /** Lagrer nedlastingsindeksen. Kalles når en batch er ferdig. */
+    public void saveIndex() {
+        try {
+            index.save();
+        } catch (IOException ex) {
+            System.err.println("Kunne ikke lagre nedlastingsindeksen: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Finner størrelsen med en HEAD-forespørsel før nedlastingen starter. Returnerer hvor mange
+     * byte nedlastingen ventes å hente (0 når filen er uendret siden sist), eller -1 når det ikke
+     * kan vites, f.eks. fordi serveren ikke svarer på HEAD.
+     */
+    public long probeSize(FileInfo fi) throws InterruptedException {
+        try {
+            SegmentedDownloader.RemoteFile rf = segmented.probe(fi.getUrl(), metrics.probe(fi.getUrl()));
+            if (rf != null && rf.statusCode < 300 && SegmentedDownloader.LARGE_FILE_CATEGORIES.contains(fi.getDetectedType())) probed.put(fi.getUrl(), rf);
+            if (rf == null || rf.statusCode >= 300 || rf.length < 0) return -1;
+            long expected = isUnchanged(index.get(fi.getUrl()), rf.etag, rf.lastModified, rf.length) ? 0 : rf.length;
+            metrics.sizeProbed(fi.getUrl(), expected);
+            return expected;
+        } catch (IOException | IllegalArgumentException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Laster ned filen. Kaster InterruptedException hvis nedlastingen avbrytes underveis.
+     * Filen skrives først til en delfil og dukker bare opp under sitt endelige navn når den er komplett.
+     */
+    public DownloadResult download(FileInfo fi, BooleanSupplier cancelled) throws InterruptedException {
+        return download(fi, cancelled, true);
+    }
+
+    /**
+     * Som {@link #download(FileInfo, BooleanSupplier)}. Er det ikke siste forsøk og feilen kan gå over
+     * ({@link DownloadResult#isRetryable()}), regnes filen ikke som ferdig i målingene før neste forsøk.
+     */
+    public DownloadResult download(FileInfo fi, BooleanSupplier cancelled, boolean lastAttempt) throws InterruptedException {
+        TransferMetrics.Transfer transfer = retrying.remove(fi.getUrl());
+        if (transfer == null) transfer = metrics.start(fi.getUrl());
+        DownloadResult result = DownloadResult.cancelled(fi);
+        try {
+            result = download(fi, transfer, cancelled);
+            return result;
+        } catch (RuntimeException ex) {
+            result = DownloadResult.failed(fi, "Feil DL " + fi.getUrl() + ": " + ex);
+            throw ex;
+        } finally {
+            if (!lastAttempt && result.isRetryable()) {
+                transfer.retry();
+                retrying.put(fi.getUrl(), transfer);
+            } else {
+                transfer.finish(result);
+            }
+        }
+    }
+
+    /**
+     * Avslutter en fil med {@code result} uten å laste den ned, f.eks. fordi verten ikke svarer eller
+     * batchen er avbrutt. Ventet filen på et nytt forsøk, avsluttes målingene for den også.
+     */
+    public DownloadResult abandon(DownloadResult result) {
+        TransferMetrics.Transfer transfer = retrying.remove(result.getFile().getUrl());
+        if (transfer != null) transfer.finish(result);
+        return result;
+    }
+
+    /** Tilstanden for verten, med svartid og kretsbryter. */
+    public HostHealth hostHealth(String host) {
+        return http.health(host);
+    }
+
+    private DownloadResult download(FileInfo fi, TransferMetrics.Transfer transfer, BooleanSupplier cancelled) throws InterruptedException {
+        try {
+            if (SegmentedDownloader.LARGE_FILE_CATEGORIES.contains(fi.getDetectedType())) {
+                SegmentedDownloader.RemoteFile rf = probed.remove(fi.getUrl());
+                if (rf == null) rf = segmented.probe(fi.getUrl(), transfer);
+                if (rf != null && rf.statusCode >= 400) return failedStatus(fi, rf.statusCode, rf.retryAfterMillis);
+                if (rf != null && isUnchanged(index.get(fi.getUrl()), rf.etag, rf.lastModified, rf.length)) {
+                    return unchanged(fi, index.get(fi.getUrl()));
+                }
+                if (SegmentedDownloader.supports(rf)) return downloadSegmented(fi, rf, cancelled, transfer);
+            }
+            return downloadStream(fi, cancelled, transfer);
+        } catch (IOException ex) {
+            String msg = "Feil DL " + fi.getUrl() + ": " + ex.getMessage();
+            return RetryPolicy.isTransient(ex) ? DownloadResult.retryable(fi, msg, -1) : DownloadResult.failed(fi, msg);
+        } catch (IllegalArgumentException ex) {
+            return DownloadResult.failed(fi, "Feil DL " + fi.getUrl() + ": " + ex.getMessage());
+        }
+    }
+
+    private static DownloadResult failedStatus(FileInfo fi, int status, long retryAfterMillis) {
+        String msg = "Feil (" + status + ") " + fi.getUrl();
+        return RetryPolicy.isRetryableStatus(status) ? DownloadResult.retryable(fi, msg, retryAfterMillis) : DownloadResult.failed(fi, msg);
+    }
+
+    /**
+     * Vanlig nedlasting i én strøm. Bufferne fra HTTP-klienten skrives rett til en delfil,
+     * som flyttes atomisk på plass når hele filen er mottatt og slettes ellers. Er filen lastet
+     * ned før, sendes validatorene fra indeksen med, og et 304-svar betyr at vi beholder filen vi har.
+     */
+    private DownloadResult downloadStream(FileInfo fi, BooleanSupplier cancelled, TransferMetrics.Transfer transfer) throws IOException, InterruptedException {
+        DownloadIndex.Entry known = index.get(fi.getUrl());
+        HttpRequest.Builder rb = http.request(fi.getUrl());
+        if (known != null && known.etag != null) rb.header("If-None-Match", known.etag);
+        if (known != null && known.lastModified != null) rb.header("If-Modified-Since", known.lastModified);
+        Path part = Files.createTempFile(saveDirectory.toPath(), ".dl-", ".part");
+        String host = UrlUtil.hostOf(fi.getUrl());
+        MessageDigest digest = DownloadIndex.newDigest();
+        HttpResponse<Long> resp;
+        try {
+            resp = http.send(rb.build(), transfer.observe(info -> {
+                if (info.statusCode() >= 400 || info.statusCode() == 304) return HttpResponse.BodySubscribers.replacing(-1L);
+                long length = info.headers().firstValueAsLong("Content-Length").orElse(-1);
+                transfer.expect(length);
+                return new FileBodySubscriber(part, length, cancelled, digest, n -> {
+                    transfer.received(n);
+                    return limiter.acquire(host, n);
+                }, http.idleTimeout(fi.getUrl(), HttpService.READ_TIMEOUT));
+            }));
+        } catch (IOException ex) {
+            Files.deleteIfExists(part);
+            if (cancelled.getAsBoolean()) throw new InterruptedException();
+            throw ex;
+        } catch (InterruptedException ex) {
+            Files.deleteIfExists(part);
+            throw ex;
+        }
+        int rc = resp.statusCode();
+        if (rc == 304 && known != null) {
+            Files.deleteIfExists(part);
+            return unchanged(fi, known);
+        }
+        if (rc >= 400 || rc == 304) {
+            Files.deleteIfExists(part);
+            return failedStatus(fi, rc, RetryPolicy.retryAfterMillis(resp.headers()));
+        }
+
+        long written = resp.body();
+        long expected = resp.headers().firstValueAsLong("Content-Length").orElse(-1);
+        if (expected >= 0 && written != expected) {
+            Files.deleteIfExists(part);
+            return DownloadResult.retryable(fi, "Feil DL " + fi.getUrl() + ": ufullstendig (" + written + " av " + expected + " byte)", -1);
+        }
+        String fn = resolveFileName(fi, resp.uri(), resp.headers().firstValue("Content-Disposition").orElse(null));
+        return store(fi, part, fn, written, DownloadIndex.toHex(digest.digest()),
+                resp.headers().firstValue("ETag").orElse(null), resp.headers().firstValue("Last-Modified").orElse(null));
+    }
+
+    /**
+     * Store filer fra servere som støtter Range lastes ned i segmenter til en delfil med fast
+     * navn per URL. Delfilen blir liggende ved feil eller avbrudd, og neste forsøk fortsetter der.
+     * Har filen endret seg på serveren siden delfilen ble startet, lastes den ned på nytt fra starten.
+     */
+    private DownloadResult downloadSegmented(FileInfo fi, SegmentedDownloader.RemoteFile rf, BooleanSupplier cancelled, TransferMetrics.Transfer transfer) throws IOException, InterruptedException {
+        String fn = resolveFileName(fi, rf.uri, rf.contentDisposition);
+        Path part = saveDirectory.toPath().resolve(partFileName(fi.getUrl()));
+        long resumed;
+        try {
+            resumed = segmented.download(rf, part, cancelled, transfer);
+        } catch (SegmentedDownloader.ChangedException ex) {
+            // Delfilen er forkastet. Hele den nye filen hentes i én strøm, så en server som alltid
+            // svarer 200 på If-Range ikke gir en ny runde med segmenter hver gang
+            return downloadStream(fi, cancelled, transfer);
+        } catch (IOException ex) {
+            String msg = "Feil DL " + fi.getUrl() + ": " + ex.getMessage() + " (kan gjenopptas)";
+            return RetryPolicy.isTransient(ex) ? DownloadResult.retryable(fi, msg, -1) : DownloadResult.failed(fi, msg);
+        }
+        DownloadResult result = store(fi, part, fn, rf.length, DownloadIndex.hashFile(part), rf.etag, rf.lastModified);
+        if (resumed > 0 && !result.isSkipped()) result = result.withMessage(result.getMessage() + String.format(" (gjenopptatt fra %.1f MB)", resumed / 1e6));
+        return result;
+    }
+
+    /**
+     * Flytter en ferdig delfil på plass og oppdaterer indeksen. Har mappen allerede en fil med
+     * samme innhold, slettes delfilen i stedet. En URL som er lastet ned før beholder filnavnet
+     * sitt, slik at en endret fil erstatter den gamle i stedet for å bli lagret som navn_1.
+     */
+    private DownloadResult store(FileInfo fi, Path part, String fn, long size, String sha256, String etag, String lastModified) throws IOException {
+        if (mirrorPaths) {
+            String dir = OutputPathAllocator.mirrorDirectory(fi.getUrl());
+            if (!dir.isEmpty()) fn = dir + "/" + fn;
+        }
+        File sameName = sameContent(new File(saveDirectory, fn), size, sha256);
+        DownloadIndex.Entry previous = index.get(fi.getUrl());
+        // Låser innholdet vi lagrer og det filen hadde før, alltid i samme rekkefølge. Filer med samme
+        // innhold lagres da én om gangen og deler fil, mens andre flyttes på plass samtidig
+        int a = contentStripe(sha256);
+        int b = previous != null ? contentStripe(previous.sha256) : a;
+        synchronized (contentLocks[Math.min(a, b)]) {
+            synchronized (contentLocks[Math.max(a, b)]) {
+                return storeLocked(fi, part, fn, size, sha256, etag, lastModified, previous, sameName);
+            }
+        }
+    }
+
+    /** Resten av {@link #store}, under låsene for innholdet. Indeksen låses bare for hvert oppslag og hver endring. */
+    private DownloadResult storeLocked(FileInfo fi, Path part, String fn, long size, String sha256, String etag, String lastModified,
+                                       DownloadIndex.Entry previous, File sameName) throws IOException {
+        File existing = index.findByContent(sha256, size);
+        if (existing == null) existing = sameName;
+        if (existing != null) {
+            Files.deleteIfExists(part);
+            String name = allocator.relativize(existing.toPath());
+            index.put(fi.getUrl(), new DownloadIndex.Entry(name, size, sha256, etag, lastModified));
+            String msg = (previous != null && previous.fileName.equals(name) ? "Uendret: " : "Finnes fra før: ") + name;
+            return DownloadResult.skipped(fi, existing, msg);
+        }
+        boolean replace = previous != null && !index.isSharedWithOtherUrl(fi.getUrl(), previous.fileName);
+        File oF = replace ? new File(saveDirectory, previous.fileName) : allocator.reserve(fn).toFile();
+        try {
+            FileUtil.moveReplacing(part, oF.toPath());
+        } catch (IOException e) {
+            // Den tomme filen som holdt av navnet skal ikke bli liggende
+            if (!replace) {
+                try {
+                    Files.deleteIfExists(oF.toPath());
+                } catch (IOException ex) {
+                    e.addSuppressed(ex);
+                }
+            }
+            throw e;
+        }
+        index.put(fi.getUrl(), new DownloadIndex.Entry(allocator.relativize(oF.toPath()), size, sha256, etag, lastModified));
+        return DownloadResult.ok(fi, oF, size);
+    }
+
+    private static int contentStripe(String sha256) {
+        return (sha256.hashCode() & 0x7fffffff) % CONTENT_LOCKS;
+    }
+
+    /** Filen hvis den finnes med samme størrelse og innhold, ellers null. Fanger opp filer lastet ned før indeksen fantes. */
+    private static File sameContent(File f, long size, String sha256) throws IOException {
+        if (!f.isFile() || f.length() != size) return null;
+        return DownloadIndex.hashFile(f.toPath()).equals(sha256) ? f : null;
+    }
+
+    /** Sant når serverens validatorer og størrelse stemmer med det vi lastet ned sist. */
+    private static boolean isUnchanged(DownloadIndex.Entry known, String etag, String lastModified, long length) {
+        if (known == null || length != known.size) return false;
+        if (etag != null && known.etag != null) return etag.equals(known.etag);
+        return lastModified != null && lastModified.equals(known.lastModified);
+    }
+
+    private static DownloadResult unchanged(FileInfo fi, DownloadIndex.Entry known) {
+        return DownloadResult.skipped(fi, null, "Uendret: " + known.fileName);
+    }
+
+    /** Fast navn på delfilen for segmenterte nedlastinger, slik at en senere nedlasting av samme URL finner den igjen. */
+    static String partFileName(String url) {
+        return ".dl-" + Integer.toHexString(url.hashCode()) + "-" + Integer.toHexString(url.length()) + ".part";
+    }
+
+    static String resolveFileName(FileInfo fi, URI u, String contentDisposition) {
+        String fnHead = null;
+        if (contentDisposition != null) {
+            Matcher m = CONTENT_DISPOSITION_FILENAME.matcher(contentDisposition);
+            if (m.find()) {
+                fnHead = m.group(1);
+                if (fnHead.toLowerCase().startsWith("utf-8''")) fnHead = URLDecoder.decode(fnHead.substring(7), StandardCharsets.UTF_8);
+            }
+        }
+        String fn;
+        if (fnHead != null && !fnHead.trim().isEmpty()) {
+            fn = fnHead;
+        } else {
+            String path = u.getPath();
+            java.nio.file.Path last = (path != null && !path.isEmpty()) ? Paths.get(path).getFileName() : null;
+            fn = last != null ? last.toString() : "";
+        }
+        String fallbackExt = (fi.getExtension() != null && !fi.getExtension().isEmpty()) ? fi.getExtension() : ".dat";
+        // Reservenavnet følger URL-en, så samme fil får samme navn hver gang; kollisjoner løses av OutputPathAllocator
+        String fallback = "f_" + Integer.toHexString(fi.getUrl().hashCode()) + fallbackExt;
+        if (fn.isEmpty() || (!fn.contains(".") && fi.getExtension() != null && !fi.getExtension().isEmpty())) fn = fallback;
+        fn = OutputPathAllocator.sanitize(fn);
+        if (fn.isEmpty() || fn.equals(".") || fn.equals("..")) fn = fallback;
+        return fn;
+    }
+}
@@ -0,0 +1,51 @@
+// FileTransferEvent.java
+package main.download;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR-hendelse for én nedlastet fil. Varigheten er hele nedlastingen, inkludert DNS og nye forsøk.
+ * Tas opp med f.eks. {@code java -XX:StartFlightRecording=filename=nedlasting.jfr ...} og kan
+ * ses i JDK Mission Control under kategorien FileDownload.
+ */
+@Name("filedownload.FileTransfer")
+@Label("Filoverføring")
+@Category("FileDownload")
+@Description("Nedlasting av én fil med DNS-tid, TTFB, byte og HTTP-status")
+@StackTrace(false)
+class FileTransferEvent extends Event {
+
+    @Label("URL")
+    String url;
+
+    @Label("Vert")
+    String host;
+
+    @Label("Resultat")
+    String result;
+
+    @Label("HTTP-status")
+    int httpStatus;
+
+    @Label("Byte")
+    @DataAmount
+    long bytes;
+
+    @Label("DNS-oppslag")
+    @Timespan
+    long dns;
+
+    @Label("Tid til første svar")
+    @Timespan
+    long ttfb;
+
+    @Label("Nye forsøk")
+    int retries;
+}
@@ -0,0 +1,147 @@
+// OutputPathAllocator.java
+package main.download;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finner ledige filnavn i nedlastingsmappen og reserverer dem ved å opprette filen atomisk
+ * ({@code CREATE_NEW}), slik at to samtidige nedlastinger aldri får samme navn.
+ * <p>
+ * Navnene i hver mappe leses inn én gang og holdes i minnet, og for hvert ønsket navn huskes
+ * neste ledige {@code _N}. Et nytt navn koster da ett oppslag og ett filsystemkall også når mappen
+ * har titusener av filer som heter det samme. Filer som lages av andre ved siden av oss oppdages
+ * når opprettingen feiler, og da prøves neste nummer. Navn sammenlignes uten hensyn til store og
+ * små bokstaver, så resultatet blir det samme på filsystemer som ikke skiller dem.
+ * Alle metoder er trådsikre.
+ */
+class OutputPathAllocator {
+
+    /** Navnene i én mappe. */
+    private static final class Directory {
+        final Set<String> taken = new HashSet<>();
+        /** Ønsket navn til neste nummer som kan være ledig. */
+        final Map<String, Integer> nextSuffix = new HashMap<>();
+    }
+
+    /** {@code navn_N.ext}, med navnet, nummeret og endelsen som grupper. */
+    private static final Pattern NUMBERED = Pattern.compile("(.+)_(\\d{1,9})(\\.[^.]*)?");
+
+    private final Path root;
+    private final Map<Path, Directory> directories = new ConcurrentHashMap<>();
+
+    OutputPathAllocator(Path root) {
+        this.root = root.toAbsolutePath().normalize();
+    }
+
+    /**
+     * Reserverer {@code relativePath} under nedlastingsmappen, eller {@code navn_N.ext} i samme mappe
+     * hvis navnet er tatt. Mapper som mangler opprettes. Returnerer den nye, tomme filen.
+     */
+    Path reserve(String relativePath) throws IOException {
+        Path target = root.resolve(relativePath).normalize();
+        if (!target.startsWith(root) || target.equals(root)) throw new IOException("Ugyldig filnavn: " + relativePath);
+        Path dir = target.getParent();
+        Directory d = directories.get(dir);
+        if (d == null) {
+            // Leses utenfor kartet, så disken ikke holdes under låsen i computeIfAbsent. Leser to tråder
+            // samme mappe samtidig, brukes den første; den andre har ikke reservert noe ennå.
+            Directory scanned = scan(dir);
+            d = directories.putIfAbsent(dir, scanned);
+            if (d == null) d = scanned;
+        }
+        String name = target.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String ext = dot > 0 ? name.substring(dot) : "";
+        String key = key(name);
+        synchronized (d) {
+            String candidate = name;
+            int next = d.nextSuffix.getOrDefault(key, 1);
+            while (true) {
+                if (!d.taken.contains(key(candidate))) {
+                    try {
+                        Path p = Files.createFile(dir.resolve(candidate));
+                        d.taken.add(key(candidate));
+                        if (!candidate.equals(name)) d.nextSuffix.put(key, next);
+                        return p;
+                    } catch (FileAlreadyExistsException e) {
+                        // Laget av noen andre siden mappen ble lest
+                        d.taken.add(key(candidate));
+                    }
+                }
+                candidate = base + "_" + next++ + ext;
+            }
+        }
+    }
+
+    /** Relativ sti fra nedlastingsmappen, med / mellom mappene slik den lagres i indeksen. */
+    String relativize(Path file) {
+        return root.relativize(file.toAbsolutePath().normalize()).toString().replace(file.getFileSystem().getSeparator(), "/");
+    }
+
+    /**
+     * Mappen filen havner i når URL-ens mappestruktur speiles: vert og mapper fra stien,
+     * med samme tegn som i filnavn. Tom streng hvis URL-en ikke har noen vert.
+     */
+    static String mirrorDirectory(String url) {
+        URI u;
+        try {
+            u = URI.create(url).normalize();
+        } catch (IllegalArgumentException e) {
+            return "";
+        }
+        if (u.getHost() == null) return "";
+        StringBuilder sb = new StringBuilder(sanitize(u.getHost().toLowerCase(Locale.ROOT)));
+        String path = u.getPath();
+        if (path != null) {
+            String[] segments = path.split("/");
+            // Siste ledd er filnavnet
+            for (int i = 0; i < segments.length - 1; i++) {
+                String s = sanitize(segments[i]);
+                if (s.isEmpty() || s.equals(".") || s.equals("..")) continue;
+                sb.append('/').append(s);
+            }
+        }
+        return sb.toString();
+    }
+
+    /** Fjerner tegn som ikke kan brukes i fil- og mappenavn, som i {@link FileDownloader#resolveFileName}. */
+    static String sanitize(String name) {
+        return name.replaceAll("[^a-zA-Z0-9._\\- ()]", "_").replaceAll("_+", "_").trim();
+    }
+
+    private static Directory scan(Path dir) throws IOException {
+        Directory d = new Directory();
+        Files.createDirectories(dir);
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+            for (Path p : ds) {
+                String name = key(p.getFileName().toString());
+                d.taken.add(name);
+                // Fortsetter etter det høyeste nummeret som finnes, i stedet for å prøve alle fra 1
+                Matcher m = NUMBERED.matcher(name);
+                if (m.matches()) {
+                    String wanted = m.group(1) + (m.group(3) != null ? m.group(3) : "");
+                    d.nextSuffix.merge(wanted, Integer.parseInt(m.group(2)) + 1, Math::max);
+                }
+            }
+        }
+        return d;
+    }
+
+    private static String key(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+}
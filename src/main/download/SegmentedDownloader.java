@@ -0,0 +1,377 @@
+// SegmentedDownloader.java
+package main.download;
+
+import main.net.HttpService;
+import main.net.RetryPolicy;
+import main.util.FileUtil;
+import main.util.UrlUtil;
+import main.util.WorkerThreads;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Laster ned store filer i flere byte-områder parallelt med HTTP Range.
+ * <p>
+ * Hvert segment skrives direkte på sin egen posisjon i en {@code .part}-fil. Fremdriften
+ * lagres i en {@code .part.meta}-fil ved siden av, slik at en avbrutt nedlasting kan
+ * gjenopptas fra bytene som allerede ligger på disk. Metafilen lagrer også ETag og
+ * Last-Modified, og en delvis fil forkastes hvis filen på serveren har endret seg.
+ */
+class SegmentedDownloader {
+
+    /** Kategorier der vi sjekker Range-støtte før nedlasting. */
+    static final Set<String> LARGE_FILE_CATEGORIES = Set.of("Videoer", "Arkiver");
+
+    static final long MIN_SEGMENTED_SIZE = 8L << 20;
+    static final long MIN_SEGMENT_SIZE = 4L << 20;
+    static final int MAX_SEGMENTS = 4;
+    private static final int SEGMENT_ATTEMPTS = 3;
+    private static final long SAVE_INTERVAL_BYTES = 4L << 20;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Duration PROBE_TIMEOUT = Duration.ofSeconds(15);
+    /** Så lenge vi venter på at segmentene stopper før fremdriften lagres. */
+    private static final long STOP_WAIT_SECONDS = 5;
+
+    /** Det vi vet om filen på serveren etter en HEAD-forespørsel. */
+    static final class RemoteFile {
+        final String url;
+        final URI uri;
+        final int statusCode;
+        final long length;
+        final boolean acceptsRanges;
+        final String etag;
+        final String lastModified;
+        final String contentDisposition;
+        /** {@code Retry-After} i millisekunder, -1 hvis serveren ikke sa noe. */
+        final long retryAfterMillis;
+
+        RemoteFile(String url, HttpResponse<?> resp) {
+            this.url = url;
+            this.uri = resp.uri();
+            this.statusCode = resp.statusCode();
+            this.length = resp.headers().firstValueAsLong("Content-Length").orElse(-1);
+            this.acceptsRanges = resp.headers().allValues("Accept-Ranges").stream().anyMatch(v -> v.toLowerCase().contains("bytes"));
+            this.etag = resp.headers().firstValue("ETag").orElse("");
+            this.lastModified = resp.headers().firstValue("Last-Modified").orElse("");
+            this.contentDisposition = resp.headers().firstValue("Content-Disposition").orElse(null);
+            this.retryAfterMillis = RetryPolicy.retryAfterMillis(resp.headers());
+        }
+
+        /** Validator for If-Range. Svake ETags kan ikke brukes der. */
+        String rangeValidator() {
+            if (!etag.isEmpty() && !etag.startsWith("W/")) return etag;
+            return lastModified.isEmpty() ? null : lastModified;
+        }
+    }
+
+    private static final class Segment {
+        final long start;
+        final long end;
+        volatile long done;
+
+        Segment(long start, long end, long done) {
+            this.start = start;
+            this.end = end;
+            this.done = done;
+        }
+
+        long remaining() { return end - start + 1 - done; }
+    }
+
+    /** Fremdriften for én delvis nedlasting, lagret i metafilen. */
+    private static final class State {
+        final String url;
+        final long length;
+        final String etag;
+        final String lastModified;
+        final List<Segment> segments = new ArrayList<>();
+
+        State(String url, long length, String etag, String lastModified) {
+            this.url = url;
+            this.length = length;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        static State create(RemoteFile rf) {
+            State st = new State(rf.url, rf.length, rf.etag, rf.lastModified);
+            int count = (int) Math.max(1, Math.min(MAX_SEGMENTS, rf.length / MIN_SEGMENT_SIZE));
+            long size = rf.length / count;
+            for (int i = 0; i < count; i++) {
+                long start = i * size;
+                long end = (i == count - 1) ? rf.length - 1 : start + size - 1;
+                st.segments.add(new Segment(start, end, 0));
+            }
+            return st;
+        }
+
+        static State load(Path meta) {
+            if (!Files.isRegularFile(meta)) return null;
+            Properties p = new Properties();
+            try (Reader r = Files.newBufferedReader(meta, StandardCharsets.UTF_8)) {
+                p.load(r);
+                State st = new State(p.getProperty("url"), Long.parseLong(p.getProperty("length")), p.getProperty("etag", ""), p.getProperty("lastModified", ""));
+                int count = Integer.parseInt(p.getProperty("segments"));
+                for (int i = 0; i < count; i++) {
+                    String[] v = p.getProperty("segment." + i).split(",");
+                    st.segments.add(new Segment(Long.parseLong(v[0]), Long.parseLong(v[1]), Long.parseLong(v[2])));
+                }
+                return st;
+            } catch (IOException | RuntimeException e) {
+                return null;
+            }
+        }
+
+        boolean matches(RemoteFile rf) {
+            return rf.url.equals(url) && rf.length == length && rf.etag.equals(etag) && rf.lastModified.equals(lastModified);
+        }
+
+        long completedBytes() {
+            return segments.stream().mapToLong(s -> s.done).sum();
+        }
+
+        synchronized void save(Path meta) throws IOException {
+            Properties p = new Properties();
+            p.setProperty("url", url);
+            p.setProperty("length", Long.toString(length));
+            p.setProperty("etag", etag);
+            p.setProperty("lastModified", lastModified);
+            p.setProperty("segments", Integer.toString(segments.size()));
+            for (int i = 0; i < segments.size(); i++) {
+                Segment s = segments.get(i);
+                p.setProperty("segment." + i, s.start + "," + s.end + "," + s.done);
+            }
+            Path tmp = meta.resolveSibling(meta.getFileName() + ".tmp");
+            try (Writer w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                p.store(w, "Delvis nedlasting");
+            }
+            FileUtil.moveReplacing(tmp, meta);
+        }
+    }
+
+    /** Serveren svarte på {@code If-Range} med hele filen, så filen er endret siden delfilen ble startet. */
+    static final class ChangedException extends IOException {
+        ChangedException(String url) {
+            super("Filen er endret på serveren: " + url);
+        }
+    }
+
+    private final HttpService http;
+    private final BandwidthLimiter limiter;
+
+    SegmentedDownloader(HttpService http, BandwidthLimiter limiter) {
+        this.http = http;
+        this.limiter = limiter;
+    }
+
+    /**
+     * Sender HEAD for å finne størrelse og Range-støtte. Returnerer null hvis serveren ikke svarer på HEAD.
+     * Svaret registreres i vertens {@link main.net.HostHealth} som andre forespørsler, og har verten pause,
+     * feiler kallet med en gang. Nye forsøk er opp til kalleren, som for selve nedlastingen.
+     */
+    RemoteFile probe(String url, TransferMetrics.Transfer transfer) throws IOException, InterruptedException {
+        HttpResponse<Void> resp = http.sendRetrying(
+                () -> http.request(url).method("HEAD", HttpRequest.BodyPublishers.noBody()).timeout(http.timeoutFor(url, PROBE_TIMEOUT)).build(),
+                transfer.observe(HttpResponse.BodyHandlers.discarding()), RetryPolicy.NONE);
+        if (resp.statusCode() == 405 || resp.statusCode() == 501) return null;
+        return new RemoteFile(url, resp);
+    }
+
+    static boolean supports(RemoteFile rf) {
+        return rf != null && rf.statusCode < 300 && rf.acceptsRanges && rf.length >= MIN_SEGMENTED_SIZE;
+    }
+
+    static Path metaPath(Path part) {
+        return part.resolveSibling(part.getFileName() + ".meta");
+    }
+
+    /**
+     * Laster ned filen til {@code part}, eventuelt videre fra en tidligere avbrutt nedlasting.
+     * Ved feil eller avbrudd blir delfilen og metafilen liggende, slik at neste forsøk kan fortsette.
+     * Er filen endret på serveren, slettes begge, og {@link ChangedException} kastes så kalleren kan
+     * begynne på nytt.
+     *
+     * @return antall byte som allerede lå på disk og ble gjenbrukt
+     */
+    long download(RemoteFile rf, Path part, BooleanSupplier cancelled, TransferMetrics.Transfer transfer) throws IOException, InterruptedException {
+        Path meta = metaPath(part);
+        State loaded = State.load(meta);
+        State st;
+        if (loaded != null && loaded.matches(rf) && Files.isRegularFile(part)) {
+            st = loaded;
+        } else {
+            st = State.create(rf);
+            Files.deleteIfExists(part);
+        }
+        long resumed = st.completedBytes();
+        transfer.expect(rf.length - resumed);
+
+        List<Segment> pending = new ArrayList<>();
+        for (Segment s : st.segments) if (s.remaining() > 0) pending.add(s);
+
+        try (RandomAccessFile raf = new RandomAccessFile(part.toFile(), "rw"); FileChannel ch = raf.getChannel()) {
+            if (raf.length() != rf.length) raf.setLength(rf.length);
+            st.save(meta);
+            ExecutorService pool = WorkerThreads.newExecutor(Math.max(1, pending.size()), "segment");
+            AtomicBoolean failed = new AtomicBoolean();
+            BooleanSupplier stop = () -> failed.get() || cancelled.getAsBoolean();
+            Throwable primary = null;
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (Segment s : pending) {
+                    futures.add(pool.submit(() -> {
+                        try {
+                            fetchSegment(rf, ch, s, st, meta, stop, transfer);
+                        } catch (Exception ex) {
+                            // Stopper de andre segmentene med en gang, ikke først når vi kommer til denne i listen
+                            failed.set(true);
+                            throw ex;
+                        }
+                        return null;
+                    }));
+                }
+                IOException error = null;
+                for (Future<?> f : futures) {
+                    try {
+                        f.get();
+                    } catch (ExecutionException ex) {
+                        failed.set(true);
+                        Throwable c = ex.getCause();
+                        if (c instanceof ChangedException) error = (ChangedException) c;
+                        else if (error == null && !(c instanceof InterruptedException) && !(c instanceof InterruptedIOException)) error = (c instanceof IOException) ? (IOException) c : new IOException(c);
+                    }
+                }
+                if (cancelled.getAsBoolean()) throw new InterruptedException();
+                if (error != null) throw error;
+            } catch (IOException | InterruptedException | RuntimeException ex) {
+                primary = ex;
+                throw ex;
+            } finally {
+                failed.set(true);
+                finish(pool, ch, st, meta, primary);
+            }
+        } catch (ChangedException ex) {
+            // Bytene vi har hører til den gamle filen
+            Files.deleteIfExists(meta);
+            Files.deleteIfExists(part);
+            throw ex;
+        }
+        Files.deleteIfExists(meta);
+        return resumed;
+    }
+
+    /**
+     * Venter på at segmentene stopper, og lagrer fremdriften. Segmentene stoppes med {@code stop}-flagget,
+     * som vakthunden for kroppen ser, ikke med avbrudd: et avbrudd midt i en skriving lukker den delte
+     * kanalen for alle segmentene. Feil her legges til {@code primary} i stedet for å skjule den.
+     */
+    private static void finish(ExecutorService pool, FileChannel ch, State st, Path meta, Throwable primary) throws IOException {
+        pool.shutdown();
+        boolean interrupted = false;
+        try {
+            pool.awaitTermination(STOP_WAIT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            interrupted = true;
+        }
+        // Kanalen lukkes av et kall fra en avbrutt tråd, så flagget holdes unna til vi er ferdige
+        interrupted |= Thread.interrupted();
+        try {
+            IOException error = null;
+            try {
+                ch.force(false);
+            } catch (IOException e) {
+                error = e;
+            }
+            try {
+                st.save(meta);
+            } catch (IOException e) {
+                if (error == null) error = e;
+                else error.addSuppressed(e);
+            }
+            if (error != null) {
+                if (primary == null) throw error;
+                primary.addSuppressed(error);
+            }
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    private void fetchSegment(RemoteFile rf, FileChannel ch, Segment seg, State st, Path meta, BooleanSupplier stop, TransferMetrics.Transfer transfer) throws IOException, InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                fetchSegmentOnce(rf, ch, seg, st, meta, stop, transfer);
+                return;
+            } catch (IOException ex) {
+                if (ex instanceof ChangedException || attempt >= SEGMENT_ATTEMPTS || stop.getAsBoolean()) throw ex;
+                transfer.retry();
+            }
+        }
+    }
+
+    private void fetchSegmentOnce(RemoteFile rf, FileChannel ch, Segment seg, State st, Path meta, BooleanSupplier stop, TransferMetrics.Transfer transfer) throws IOException, InterruptedException {
+        if (seg.remaining() <= 0) return;
+        long from = seg.start + seg.done;
+        HttpRequest.Builder b = http.request(rf.url).header("Range", "bytes=" + from + "-" + seg.end);
+        String validator = rf.rangeValidator();
+        if (validator != null) b.header("If-Range", validator);
+        HttpResponse<InputStream> resp = http.send(b.build(), transfer.observe(HttpResponse.BodyHandlers.ofInputStream()));
+        String host = UrlUtil.hostOf(rf.url);
+        if (resp.statusCode() == 200 && validator != null) {
+            resp.body().close();
+            throw new ChangedException(rf.url);
+        }
+        if (resp.statusCode() != 206) {
+            resp.body().close();
+            throw new IOException("Serveren svarte " + resp.statusCode() + " på Range-forespørsel");
+        }
+        long sinceSave = 0;
+        try (InputStream in = http.idleTimeout(rf.url, HttpService.READ_TIMEOUT).watch(resp.body(), stop)) {
+            byte[] buf = new byte[BUFFER_SIZE];
+            ByteBuffer bb = ByteBuffer.wrap(buf);
+            int n;
+            while (seg.remaining() > 0 && (n = in.read(buf)) != -1) {
+                if (stop.getAsBoolean()) throw new InterruptedException();
+                int len = (int) Math.min(n, seg.remaining());
+                long pos = seg.start + seg.done;
+                bb.clear().limit(len);
+                while (bb.hasRemaining()) pos += ch.write(bb, pos);
+                seg.done += len;
+                sinceSave += len;
+                transfer.received(len);
+                long wait = limiter.acquire(host, len);
+                if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+                if (sinceSave >= SAVE_INTERVAL_BYTES) {
+                    ch.force(false);
+                    st.save(meta);
+                    sinceSave = 0;
+                }
+            }
+        }
+        if (seg.remaining() > 0) throw new IOException("Segment " + seg.start + "-" + seg.end + " ble avsluttet for tidlig");
+    }
+}
@@ -0,0 +1,361 @@
+// TransferMetrics.java
+package main.download;
+
+import main.util.UrlUtil;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Målinger for én nedlastingsbatch: per fil og samlet per vert.
+ * <p>
+ * For hver fil måles DNS-oppslag, tid til første svar (TTFB), antall byte, varighet,
+ * nye forsøk og HTTP-statuskoder. Mottatte byte telles fortløpende, slik at grensesnittet
+ * kan vise overføringshastighet og anslått tid igjen mens batchen pågår.
+ * <p>
+ * {@link java.net.http.HttpClient} gir ikke tilgang til DNS- og tilkoblingstider. DNS måles
+ * derfor med et eget oppslag første gang en vert brukes (JVM-en mellomlagrer svaret, så
+ * klienten gjør ikke oppslaget på nytt). Tilkoblingstiden anslås per vert som forskjellen
+ * mellom TTFB for den første forespørselen, som måtte åpne tilkoblingen, og snittet for resten.
+ * Hver fil sendes også som en {@link FileTransferEvent} til JFR.
+ */
+public class TransferMetrics {
+
+    /** Ferdige målinger for én fil. */
+    public static final class FileMetrics {
+        public final String url;
+        public final String host;
+        public final DownloadResult.Status result;
+        /** Siste HTTP-status, eller -1 hvis serveren aldri svarte. */
+        public final int httpStatus;
+        public final long bytes;
+        /** Tid brukt på DNS-oppslag for denne filen, -1 hvis verten allerede var slått opp. */
+        public final long dnsNanos;
+        /** Tid fra første forespørsel ble sendt til svarhodene kom, -1 uten svar. */
+        public final long ttfbNanos;
+        public final long durationNanos;
+        public final int retries;
+
+        FileMetrics(String url, String host, DownloadResult.Status result, int httpStatus, long bytes, long dnsNanos, long ttfbNanos, long durationNanos, int retries) {
+            this.url = url;
+            this.host = host;
+            this.result = result;
+            this.httpStatus = httpStatus;
+            this.bytes = bytes;
+            this.dnsNanos = dnsNanos;
+            this.ttfbNanos = ttfbNanos;
+            this.durationNanos = durationNanos;
+            this.retries = retries;
+        }
+
+        /** Byte per sekund for selve overføringen. */
+        public double getBytesPerSecond() {
+            return durationNanos > 0 ? bytes / (durationNanos / 1e9) : 0;
+        }
+    }
+
+    /** Samlede målinger for én vert. */
+    public static final class HostMetrics {
+        public final String host;
+        private final AtomicBoolean resolved = new AtomicBoolean();
+        private volatile long dnsNanos = -1;
+        private int files;
+        private int failed;
+        private long bytes;
+        private long durationNanos;
+        private long responses;
+        private long ttfbSumNanos;
+        private long ttfbMaxNanos;
+        private long firstTtfbNanos = -1;
+        private int retries;
+
+        HostMetrics(String host) { this.host = host; }
+
+        /**
+         * Slår opp verten første gang og returnerer tiden det tok, ellers -1. Oppslaget gjøres uten lås,
+         * så andre filer mot verten ikke venter på det.
+         */
+        long resolveOnce() {
+            if (host.isEmpty() || !resolved.compareAndSet(false, true)) return -1;
+            long t0 = System.nanoTime();
+            try {
+                InetAddress.getAllByName(host);
+            } catch (UnknownHostException ignored) {
+                // Forespørselen feiler med en bedre melding om litt
+            }
+            long took = System.nanoTime() - t0;
+            dnsNanos = took;
+            return took;
+        }
+
+        synchronized void response(long ttfbNanos) {
+            if (firstTtfbNanos < 0) firstTtfbNanos = ttfbNanos;
+            responses++;
+            ttfbSumNanos += ttfbNanos;
+            ttfbMaxNanos = Math.max(ttfbMaxNanos, ttfbNanos);
+        }
+
+        synchronized void fileFinished(FileMetrics fm) {
+            files++;
+            if (fm.result == DownloadResult.Status.FAILED) failed++;
+            bytes += fm.bytes;
+            durationNanos += fm.durationNanos;
+        }
+
+        synchronized void retry() { retries++; }
+
+        public long getDnsNanos() { return dnsNanos; }
+        public synchronized int getFiles() { return files; }
+        public synchronized int getFailed() { return failed; }
+        public synchronized long getBytes() { return bytes; }
+        public synchronized long getResponses() { return responses; }
+        public synchronized int getRetries() { return retries; }
+        public synchronized long getMeanTtfbNanos() { return responses > 0 ? ttfbSumNanos / responses : -1; }
+        public synchronized long getMaxTtfbNanos() { return ttfbMaxNanos; }
+
+        /** Anslått tid for å åpne tilkoblingen: første TTFB minus snittet for resten, -1 når det ikke kan anslås. */
+        public synchronized long getConnectEstimateNanos() {
+            if (responses < 2) return -1;
+            long warmMean = (ttfbSumNanos - firstTtfbNanos) / (responses - 1);
+            return Math.max(0, firstTtfbNanos - warmMean);
+        }
+
+        /** Snittfart per fil mot verten, dvs. hva én tilkobling klarer. */
+        public synchronized double getBytesPerSecond() {
+            return durationNanos > 0 ? bytes / (durationNanos / 1e9) : 0;
+        }
+    }
+
+    /** Øyeblikksbilde for fremdriftsvisning. */
+    public static final class Snapshot {
+        public final long elapsedNanos;
+        public final long bytesReceived;
+        /** Anslått antall byte for hele batchen, -1 før noen størrelser er kjent. */
+        public final long estimatedTotalBytes;
+        public final int filesFinished;
+        public final int filesTotal;
+        public final long meanTtfbNanos;
+        public final long retries;
+        public final SortedMap<Integer, Long> statusCounts;
+
+        Snapshot(long elapsedNanos, long bytesReceived, long estimatedTotalBytes, int filesFinished, int filesTotal, long meanTtfbNanos, long retries, SortedMap<Integer, Long> statusCounts) {
+            this.elapsedNanos = elapsedNanos;
+            this.bytesReceived = bytesReceived;
+            this.estimatedTotalBytes = estimatedTotalBytes;
+            this.filesFinished = filesFinished;
+            this.filesTotal = filesTotal;
+            this.meanTtfbNanos = meanTtfbNanos;
+            this.retries = retries;
+            this.statusCounts = statusCounts;
+        }
+
+        /** Anslått tid igjen i nanosekunder ved gitt hastighet, -1 når det ikke kan anslås. */
+        public long estimateRemainingNanos(double bytesPerSecond) {
+            if (filesFinished >= filesTotal) return 0;
+            if (estimatedTotalBytes < 0 || bytesPerSecond <= 0) return -1;
+            return (long) (Math.max(0, estimatedTotalBytes - bytesReceived) / bytesPerSecond * 1e9);
+        }
+    }
+
+    /**
+     * Målingene for én fil mens den lastes ned. Kan brukes fra flere tråder samtidig,
+     * f.eks. av segmentene i en segmentert nedlasting. Målinger for en HEAD fra {@link #probe}
+     * trenger ingen slutt: de teller bare statuskoden og svartiden, og blir aldri en fil eller en JFR-hendelse.
+     */
+    final class Transfer {
+        private final String url;
+        private final HostMetrics host;
+        private final long startNanos = System.nanoTime();
+        private final long dnsNanos;
+        private final boolean probe;
+        private final FileTransferEvent event = new FileTransferEvent();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong ttfbNanos = new AtomicLong(-1);
+        private final AtomicInteger retries = new AtomicInteger();
+        private volatile int httpStatus = -1;
+        private long expected;
+
+        private Transfer(String url, boolean probe) {
+            this.url = url;
+            this.host = hosts.computeIfAbsent(UrlUtil.hostOf(url), HostMetrics::new);
+            this.probe = probe;
+            if (probe) {
+                this.expected = -1;
+            } else {
+                // Merket som startet, så en HEAD som svarer etter dette ikke telles i tillegg
+                Long probed = probedSizes.put(url, STARTED);
+                this.expected = probed != null && probed >= 0 ? probed : -1;
+                event.begin();
+            }
+            this.dnsNanos = host.resolveOnce();
+        }
+
+        /**
+         * Pakker inn en BodyHandler slik at tiden fra nå til svarhodene kommer måles som TTFB og
+         * statuskoden telles. Lag handleren rett før forespørselen sendes.
+         */
+        <T> HttpResponse.BodyHandler<T> observe(HttpResponse.BodyHandler<T> handler) {
+            long sent = System.nanoTime();
+            return info -> {
+                responseReceived(info.statusCode(), System.nanoTime() - sent);
+                return handler.apply(info);
+            };
+        }
+
+        private void responseReceived(int status, long ttfb) {
+            httpStatus = status;
+            ttfbNanos.compareAndSet(-1, ttfb);
+            host.response(ttfb);
+            statusCounts.computeIfAbsent(status, s -> new LongAdder()).increment();
+        }
+
+        /** Kalles når det er kjent hvor mange byte som skal hentes. Erstatter et tidligere anslag, f.eks. fra HEAD. */
+        synchronized void expect(long length) {
+            if (length < 0) return;
+            if (expected < 0) sizedFiles.incrementAndGet();
+            expectedBytes.addAndGet(length - Math.max(0, expected));
+            expected = length;
+        }
+
+        void received(long n) {
+            bytes.addAndGet(n);
+            bytesReceived.add(n);
+        }
+
+        void retry() {
+            retries.incrementAndGet();
+            host.retry();
+            totalRetries.increment();
+        }
+
+        void finish(DownloadResult result) {
+            if (probe) return;
+            long duration = System.nanoTime() - startNanos;
+            // Ferdige filer teller med det de faktisk ga, f.eks. 0 ved 304, så fremdriften når 100 %
+            expect(bytes.get());
+            FileMetrics fm = new FileMetrics(url, host.host, result.getStatus(), httpStatus, bytes.get(), dnsNanos, ttfbNanos.get(), duration, retries.get());
+            host.fileFinished(fm);
+            files.add(fm);
+            if (result.getStatus() != DownloadResult.Status.CANCELLED) filesFinished.incrementAndGet();
+            if (event.shouldCommit()) {
+                event.url = url;
+                event.host = host.host;
+                event.result = result.getStatus().name();
+                event.httpStatus = fm.httpStatus;
+                event.bytes = fm.bytes;
+                event.dns = Math.max(0, fm.dnsNanos);
+                event.ttfb = Math.max(0, fm.ttfbNanos);
+                event.retries = fm.retries;
+                event.commit();
+            }
+        }
+    }
+
+    private static final Long STARTED = -1L;
+
+    private final long startNanos = System.nanoTime();
+    private final long startMillis = System.currentTimeMillis();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder totalRetries = new LongAdder();
+    private final AtomicLong expectedBytes = new AtomicLong();
+    private final AtomicInteger sizedFiles = new AtomicInteger();
+    private final AtomicInteger filesFinished = new AtomicInteger();
+    private final Map<Integer, LongAdder> statusCounts = new ConcurrentHashMap<>();
+    private final Map<String, HostMetrics> hosts = new ConcurrentHashMap<>();
+    /** Størrelser fra HEAD for filer som ikke er startet ennå, eller {@link #STARTED}. */
+    private final Map<String, Long> probedSizes = new ConcurrentHashMap<>();
+    private final Queue<FileMetrics> files = new ConcurrentLinkedQueue<>();
+    private volatile int filesTotal;
+    private volatile int maxConcurrent;
+    private volatile int maxPerHost;
+    private volatile long endNanos = -1;
+
+    /** Kalles når batchen starter, med innstillingene som skal med i rapporten. */
+    void batchStarted(int total, int maxConcurrent, int maxPerHost) {
+        this.filesTotal = total;
+        this.maxConcurrent = maxConcurrent;
+        this.maxPerHost = maxPerHost;
+    }
+
+    void batchFinished() {
+        endNanos = System.nanoTime();
+    }
+
+    /** Størrelse fra en HEAD-forespørsel før nedlastingen starter, så fremdriften kan måles i byte fra starten. */
+    void sizeProbed(String url, long length) {
+        if (length < 0 || probedSizes.putIfAbsent(url, length) != null) return;
+        expectedBytes.addAndGet(length);
+        sizedFiles.incrementAndGet();
+    }
+
+    /** Sant hvis nedlastingen av filen er startet, så det ikke lenger er noen vits i å spørre om størrelsen. */
+    boolean isStarted(String url) {
+        return STARTED.equals(probedSizes.get(url));
+    }
+
+    Transfer start(String url) {
+        return new Transfer(url, false);
+    }
+
+    /** Målinger for en HEAD-forespørsel før nedlastingen. Teller med i statuskoder og vertstider, men ikke som en fil. */
+    Transfer probe(String url) {
+        return new Transfer(url, true);
+    }
+
+    public Snapshot snapshot() {
+        long now = endNanos >= 0 ? endNanos : System.nanoTime();
+        int total = filesTotal;
+        int sized = sizedFiles.get();
+        long expected = expectedBytes.get();
+        // Filer vi ikke vet størrelsen på ennå antas å være like store som snittet så langt
+        long estimate = sized > 0 ? expected + (long) ((double) expected / sized * Math.max(0, total - sized)) : -1;
+        long ttfbSum = 0;
+        long responses = 0;
+        for (HostMetrics h : hosts.values()) {
+            synchronized (h) {
+                ttfbSum += h.ttfbSumNanos;
+                responses += h.responses;
+            }
+        }
+        return new Snapshot(now - startNanos, bytesReceived.sum(), estimate, filesFinished.get(), total,
+                responses > 0 ? ttfbSum / responses : -1, totalRetries.sum(), getStatusCounts());
+    }
+
+    public SortedMap<Integer, Long> getStatusCounts() {
+        SortedMap<Integer, Long> counts = new TreeMap<>();
+        statusCounts.forEach((status, n) -> counts.put(status, n.sum()));
+        return counts;
+    }
+
+    public Collection<HostMetrics> getHosts() {
+        List<HostMetrics> list = new ArrayList<>(hosts.values());
+        list.sort((a, b) -> Long.compare(b.getBytes(), a.getBytes()));
+        return list;
+    }
+
+    public List<FileMetrics> getFiles() {
+        return Collections.unmodifiableList(new ArrayList<>(files));
+    }
+
+    public long getStartMillis() { return startMillis; }
+    public int getFilesTotal() { return filesTotal; }
+    public int getMaxConcurrent() { return maxConcurrent; }
+    public int getMaxPerHost() { return maxPerHost; }
+    public long getBytesReceived() { return bytesReceived.sum(); }
+    public long getRetries() { return totalRetries.sum(); }
+}
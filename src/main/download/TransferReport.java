@@ -0,0 +1,159 @@
+// TransferReport.java
+package main.download;
+
+import main.util.FileUtil;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Skriver målingene for en batch som JSON, slik at samtidighet kan justeres og trege verter
+ * finnes ut fra data. Én fil per batch i mappen {@value #REPORT_DIRECTORY} i nedlastingsmappen.
+ */
+final class TransferReport {
+
+    static final String REPORT_DIRECTORY = ".filedownload-metrics";
+
+    private TransferReport() {} // Privat konstruktør for hjelpeklasse
+
+    /** Skriver rapporten og returnerer stien til den. */
+    static Path write(Path saveDirectory, TransferMetrics metrics, DownloadSummary summary) throws IOException {
+        Path dir = saveDirectory.resolve(REPORT_DIRECTORY);
+        Files.createDirectories(dir);
+        String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date(metrics.getStartMillis()));
+        Path target = dir.resolve("nedlasting-" + stamp + ".json");
+        Path tmp = dir.resolve(target.getFileName() + ".tmp");
+        try (Writer w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            w.write(toJson(metrics, summary));
+        }
+        FileUtil.moveReplacing(tmp, target);
+        return target;
+    }
+
+    static String toJson(TransferMetrics metrics, DownloadSummary summary) {
+        List<TransferMetrics.FileMetrics> files = metrics.getFiles();
+        StringBuilder sb = new StringBuilder(256 + files.size() * 256);
+        sb.append("{\n");
+        sb.append("  \"start\": ").append(quote(Instant.ofEpochMilli(metrics.getStartMillis()).toString())).append(",\n");
+        sb.append("  \"settings\": {\"maxConcurrent\": ").append(metrics.getMaxConcurrent())
+          .append(", \"maxPerHost\": ").append(metrics.getMaxPerHost()).append("},\n");
+        sb.append("  \"summary\": {\"files\": ").append(summary.getTotal())
+          .append(", \"succeeded\": ").append(summary.getSucceeded())
+          .append(", \"skipped\": ").append(summary.getSkipped())
+          .append(", \"failed\": ").append(summary.getFailed())
+          .append(", \"bytes\": ").append(summary.getBytes())
+          .append(", \"bytesReceived\": ").append(metrics.getBytesReceived())
+          .append(", \"seconds\": ").append(number(summary.getElapsedNanos() / 1e9))
+          .append(", \"filesPerSecond\": ").append(number(summary.getFilesPerSecond()))
+          .append(", \"bytesPerSecond\": ").append(number(summary.getBytesPerSecond()))
+          .append(", \"retries\": ").append(metrics.getRetries()).append("},\n");
+
+        long[] ttfb = files.stream().mapToLong(f -> f.ttfbNanos).filter(t -> t >= 0).toArray();
+        long[] duration = files.stream().mapToLong(f -> f.durationNanos).toArray();
+        sb.append("  \"ttfbMs\": ").append(distribution(ttfb)).append(",\n");
+        sb.append("  \"durationMs\": ").append(distribution(duration)).append(",\n");
+
+        sb.append("  \"statusCodes\": {");
+        String sep = "";
+        for (Map.Entry<Integer, Long> e : metrics.getStatusCounts().entrySet()) {
+            sb.append(sep).append(quote(Integer.toString(e.getKey()))).append(": ").append(e.getValue());
+            sep = ", ";
+        }
+        sb.append("},\n");
+
+        sb.append("  \"hosts\": [");
+        Collection<TransferMetrics.HostMetrics> hosts = metrics.getHosts();
+        sep = "\n";
+        for (TransferMetrics.HostMetrics h : hosts) {
+            sb.append(sep).append("    {\"host\": ").append(quote(h.host))
+              .append(", \"files\": ").append(h.getFiles())
+              .append(", \"failed\": ").append(h.getFailed())
+              .append(", \"bytes\": ").append(h.getBytes())
+              .append(", \"responses\": ").append(h.getResponses())
+              .append(", \"dnsMs\": ").append(millis(h.getDnsNanos()))
+              .append(", \"connectEstimateMs\": ").append(millis(h.getConnectEstimateNanos()))
+              .append(", \"meanTtfbMs\": ").append(millis(h.getMeanTtfbNanos()))
+              .append(", \"maxTtfbMs\": ").append(millis(h.getMaxTtfbNanos()))
+              .append(", \"bytesPerSecond\": ").append(number(h.getBytesPerSecond()))
+              .append(", \"retries\": ").append(h.getRetries()).append('}');
+            sep = ",\n";
+        }
+        sb.append(hosts.isEmpty() ? "],\n" : "\n  ],\n");
+
+        sb.append("  \"files\": [");
+        sep = "\n";
+        for (TransferMetrics.FileMetrics f : files) {
+            sb.append(sep).append("    {\"url\": ").append(quote(f.url))
+              .append(", \"host\": ").append(quote(f.host))
+              .append(", \"result\": ").append(quote(f.result.name()))
+              .append(", \"status\": ").append(f.httpStatus >= 0 ? Integer.toString(f.httpStatus) : "null")
+              .append(", \"bytes\": ").append(f.bytes)
+              .append(", \"dnsMs\": ").append(millis(f.dnsNanos))
+              .append(", \"ttfbMs\": ").append(millis(f.ttfbNanos))
+              .append(", \"durationMs\": ").append(millis(f.durationNanos))
+              .append(", \"bytesPerSecond\": ").append(number(f.getBytesPerSecond()))
+              .append(", \"retries\": ").append(f.retries).append('}');
+            sep = ",\n";
+        }
+        sb.append(files.isEmpty() ? "]\n" : "\n  ]\n");
+        return sb.append("}\n").toString();
+    }
+
+    /** Snitt, median, 90- og 99-persentil og maks i millisekunder. */
+    private static String distribution(long[] nanos) {
+        if (nanos.length == 0) return "null";
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        long sum = 0;
+        for (long n : sorted) sum += n;
+        return "{\"mean\": " + millis(sum / sorted.length)
+                + ", \"p50\": " + millis(percentile(sorted, 0.50))
+                + ", \"p90\": " + millis(percentile(sorted, 0.90))
+                + ", \"p99\": " + millis(percentile(sorted, 0.99))
+                + ", \"max\": " + millis(sorted[sorted.length - 1]) + "}";
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1)];
+    }
+
+    /** Nanosekunder som millisekunder med én desimal, eller null for ukjent (negativ) verdi. */
+    private static String millis(long nanos) {
+        return nanos < 0 ? "null" : number(nanos / 1e6);
+    }
+
+    private static String number(double d) {
+        if (Double.isNaN(d) || Double.isInfinite(d)) return "null";
+        return String.format(Locale.ROOT, "%.1f", d);
+    }
+
+    static String quote(String s) {
+        if (s == null) return "null";
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
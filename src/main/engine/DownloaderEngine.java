@@ -0,0 +1,101 @@
+// DownloaderEngine.java
+package main.engine;
+
+import main.analysis.Crawler;
+import main.analysis.PageAnalyzer;
+import main.analysis.PageCache;
+import main.download.BandwidthLimiter;
+import main.download.DownloadScheduler;
+import main.download.FileDownloader;
+import main.model.FileCategory;
+import main.model.FileInfo;
+import main.net.HttpService;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Analyse- og nedlastingsmotoren, uten avhengigheter til Swing.
+ * Brukes både av skrivebordsapplikasjonen og kommandolinjeversjonen.
+ */
+public class DownloaderEngine {
+
+    private final HttpService http;
+    private final PageAnalyzer analyzer;
+
+    /** Bruker den delte HTTP-klienten og sidebufferen i {@link PageCache#DEFAULT_DIRECTORY}. */
+    public DownloaderEngine() {
+        this(HttpService.getDefault(), PageCache.openDefault());
+    }
+
+    public DownloaderEngine(HttpService http) {
+        this(http, null);
+    }
+
+    /** {@code pageCache} kan være null, så hentes og leses sidene hver gang. */
+    public DownloaderEngine(HttpService http, PageCache pageCache) {
+        this.http = http;
+        this.analyzer = new PageAnalyzer(http, pageCache);
+    }
+
+    /** Bufferen for analyserte sider, eller null. */
+    public PageCache getPageCache() { return analyzer.getCache(); }
+
+    /** Henter siden og returnerer fillenkene på den. */
+    public List<FileInfo> analyze(String pageUrl, Consumer<String> log) throws IOException, InterruptedException {
+        return analyzer.analyze(pageUrl, log);
+    }
+
+    /** Henter siden og sender hver fillenke til {@code fileSink} så snart den er funnet. Returnerer antall filer. */
+    public int analyze(String pageUrl, Consumer<FileInfo> fileSink, Consumer<String> log) throws IOException, InterruptedException {
+        return analyzer.analyze(pageUrl, fileSink, log);
+    }
+
+    /**
+     * Som {@link #analyze(String, Consumer, Consumer)}, og sjekker filtypen for lenker uten filendelse
+     * mot serveren når {@code probeTypes} er satt. {@code fileSink} kalles da fra flere tråder.
+     */
+    public int analyze(String pageUrl, Consumer<FileInfo> fileSink, Consumer<String> log, boolean probeTypes) throws IOException, InterruptedException {
+        return analyzer.analyze(pageUrl, fileSink, log, probeTypes);
+    }
+
+    /** Som {@link #analyze(String, Consumer)}, og sjekker filtypen for lenker uten filendelse når {@code probeTypes} er satt. */
+    public List<FileInfo> analyze(String pageUrl, Consumer<String> log, boolean probeTypes) throws IOException, InterruptedException {
+        return analyzer.analyze(pageUrl, log, probeTypes);
+    }
+
+    /** Lager en gjennomsøker for flere sider på samme nettsted. */
+    public Crawler newCrawler(Crawler.Options options) {
+        return new Crawler(analyzer, options);
+    }
+
+    /** Lager en scheduler for én nedlastingsbatch til {@code saveDirectory}. */
+    public DownloadScheduler newDownload(File saveDirectory, int maxConcurrent, int maxPerHost) {
+        return new DownloadScheduler(new FileDownloader(http, saveDirectory), maxConcurrent, maxPerHost);
+    }
+
+    /** Lager en scheduler for én nedlastingsbatch med rekkefølge og båndbreddegrenser fra {@code options}. */
+    public DownloadScheduler newDownload(File saveDirectory, DownloadScheduler.Options options) {
+        BandwidthLimiter limiter = new BandwidthLimiter(options.maxBytesPerSecond, options.maxBytesPerSecondPerHost);
+        return new DownloadScheduler(new FileDownloader(http, saveDirectory, limiter, options.mirrorPaths), options);
+    }
+
+    /**
+     * Filer som hører til kategorien og, hvis {@code extensions} ikke er tom, har en av de oppgitte endelsene.
+     */
+    public static List<FileInfo> filter(List<FileInfo> files, String category, Set<String> extensions) {
+        List<FileInfo> result = new ArrayList<>();
+        for (FileInfo fi : files) {
+            if (!FileCategory.matchesCategory(category, fi.getExtension())) continue;
+            if (extensions != null && !extensions.isEmpty() && !extensions.contains(fi.getExtension())) continue;
+            result.add(fi);
+        }
+        return result;
+    }
+
+    public HttpService getHttp() { return http; }
+}
@@ -0,0 +1,75 @@
+// LogBuffer.java
+package main.log;
+
+import java.util.List;
+
+/**
+ * Felles logg for applikasjonen: en ringbuffer med fast størrelse som alle tråder kan skrive til.
+ * <p>
+ * Å logge er bare å legge meldingen i bufferen. Visningen i grensesnittet og loggfilen leser
+ * hver for seg fra sin egen posisjon i sitt eget tempo, i bolker. Blir en leser hengende mer enn
+ * en hel buffer etter, mister den de eldste meldingene i stedet for at minnebruken vokser.
+ */
+public class LogBuffer {
+
+    public static final int DEFAULT_CAPACITY = 20_000;
+
+    /** Én loggmelding. {@code sequence} øker med én for hver melding som logges. */
+    public static final class Entry {
+        public final long sequence;
+        public final long timeMillis;
+        public final LogLevel level;
+        public final String message;
+
+        Entry(long sequence, long timeMillis, LogLevel level, String message) {
+            this.sequence = sequence;
+            this.timeMillis = timeMillis;
+            this.level = level;
+            this.message = message;
+        }
+    }
+
+    private final Entry[] ring;
+    private long next;
+
+    public LogBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public LogBuffer(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("Kapasiteten må være minst 1");
+        this.ring = new Entry[capacity];
+    }
+
+    public void log(LogLevel level, String message) {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            ring[(int) (next % ring.length)] = new Entry(next, now, level, message);
+            next++;
+        }
+    }
+
+    public void debug(String message) { log(LogLevel.DEBUG, message); }
+    public void info(String message) { log(LogLevel.INFO, message); }
+    public void warn(String message) { log(LogLevel.WARN, message); }
+    public void error(String message) { log(LogLevel.ERROR, message); }
+
+    /** Sekvensnummeret den neste meldingen får. En ny leser som bare vil ha nye meldinger starter her. */
+    public synchronized long nextSequence() {
+        return next;
+    }
+
+    /**
+     * Legger opptil {@code max} meldinger fra og med {@code from} til {@code out} og returnerer
+     * posisjonen å lese fra neste gang. Meldinger som allerede er overskrevet hoppes over;
+     * leseren ser det på at første melding har høyere sekvensnummer enn {@code from}.
+     */
+    public synchronized long read(long from, int max, List<Entry> out) {
+        long start = Math.max(from, next - ring.length);
+        long end = Math.min(next, start + max);
+        for (long seq = start; seq < end; seq++) out.add(ring[(int) (seq % ring.length)]);
+        return Math.max(from, end);
+    }
+
+    public int getCapacity() { return ring.length; }
+}
@@ -0,0 +1,31 @@
+// LogLevel.java
+package main.log;
+
+/**
+ * Alvorlighetsgrad for en loggmelding, fra minst til mest alvorlig.
+ */
+public enum LogLevel {
+    /** Én linje per fil eller side, nyttig for feilsøking men mye støy ellers. */
+    DEBUG("Detaljer", "DEBUG"),
+    INFO("Info", "INFO"),
+    WARN("Advarsler", "WARN"),
+    ERROR("Feil", "ERROR");
+
+    private final String label;
+    private final String tag;
+
+    LogLevel(String label, String tag) {
+        this.label = label;
+        this.tag = tag;
+    }
+
+    /** Kort navn for loggfilen. */
+    public String getTag() { return tag; }
+
+    public boolean isAtLeast(LogLevel other) {
+        return compareTo(other) >= 0;
+    }
+
+    @Override
+    public String toString() { return label; }
+}
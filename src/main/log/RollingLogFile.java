@@ -0,0 +1,162 @@
+// RollingLogFile.java
+package main.log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Skriver meldingene fra en {@link LogBuffer} til fil fra en egen bakgrunnstråd, i bolker
+ * noen ganger i sekundet. Når filen blir større enn {@code maxBytes} roteres den:
+ * {@code navn.log} blir {@code navn.log.1}, {@code .1} blir {@code .2} osv., og filer utover
+ * {@code keepFiles} gamle filer slettes.
+ */
+public class RollingLogFile implements AutoCloseable {
+
+    public static final long DEFAULT_MAX_BYTES = 10L << 20;
+    public static final int DEFAULT_KEEP_FILES = 5;
+
+    private static final long FLUSH_INTERVAL_MILLIS = 250;
+    private static final int READ_BATCH = 4096;
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    private final LogBuffer buffer;
+    private final Path file;
+    private final long maxBytes;
+    private final int keepFiles;
+    private final LogLevel minLevel;
+    private final Thread writer;
+    private final List<LogBuffer.Entry> batch = new ArrayList<>();
+
+    private OutputStream out;
+    private long size;
+    private long cursor;
+    private volatile boolean closed;
+
+    /** Åpner filen for tilføying og begynner å skrive nye meldinger fra {@code buffer}. */
+    public RollingLogFile(LogBuffer buffer, Path file, long maxBytes, int keepFiles, LogLevel minLevel) throws IOException {
+        if (maxBytes < 1 || keepFiles < 1) throw new IllegalArgumentException("maxBytes og keepFiles må være minst 1");
+        this.buffer = buffer;
+        this.file = file;
+        this.maxBytes = maxBytes;
+        this.keepFiles = keepFiles;
+        this.minLevel = minLevel;
+        Path dir = file.toAbsolutePath().getParent();
+        if (dir != null) Files.createDirectories(dir);
+        open();
+        this.cursor = buffer.nextSequence();
+        this.writer = new Thread(this::run, "loggfil");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public RollingLogFile(LogBuffer buffer, Path file) throws IOException {
+        this(buffer, file, DEFAULT_MAX_BYTES, DEFAULT_KEEP_FILES, LogLevel.DEBUG);
+    }
+
+    public Path getFile() { return file; }
+
+    private void open() throws IOException {
+        out = Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        size = Files.size(file);
+    }
+
+    private void run() {
+        while (!closed) {
+            try {
+                Thread.sleep(FLUSH_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                // close() vekker oss for en siste skriving
+            }
+            if (closed) return;
+            drainQuietly();
+        }
+    }
+
+    private void drainQuietly() {
+        try {
+            drain();
+        } catch (IOException e) {
+            System.err.println("Kunne ikke skrive til loggfilen " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Skriver alt som er logget siden sist. Feiler skrivingen, leses den samme bolken igjen neste gang,
+     * og er filen lukket etter en mislykket rotering, åpnes den på nytt.
+     */
+    private synchronized void drain() throws IOException {
+        if (out == null) open();
+        while (true) {
+            batch.clear();
+            long from = cursor;
+            long next = buffer.read(cursor, READ_BATCH, batch);
+            if (batch.isEmpty()) break;
+            StringBuilder sb = new StringBuilder(batch.size() * 96);
+            long lost = batch.get(0).sequence - from;
+            if (lost > 0) sb.append(TIME_FORMAT.format(Instant.now())).append(" WARN  ").append(lost).append(" meldinger gikk tapt før de ble skrevet\n");
+            for (LogBuffer.Entry e : batch) {
+                if (!e.level.isAtLeast(minLevel)) continue;
+                sb.append(TIME_FORMAT.format(Instant.ofEpochMilli(e.timeMillis))).append(' ')
+                  .append(e.level.getTag());
+                for (int i = e.level.getTag().length(); i < 6; i++) sb.append(' ');
+                sb.append(e.message).append('\n');
+            }
+            byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+            out.write(bytes);
+            cursor = next;
+            size += bytes.length;
+            if (size >= maxBytes) rotate();
+        }
+        out.flush();
+    }
+
+    private void rotate() throws IOException {
+        OutputStream old = out;
+        out = null;
+        try {
+            old.close();
+            Files.deleteIfExists(numbered(keepFiles));
+            for (int i = keepFiles - 1; i >= 1; i--) {
+                Path p = numbered(i);
+                if (Files.exists(p)) Files.move(p, numbered(i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.move(file, numbered(1), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            // Også når flyttingen feilet, så loggingen fortsetter i den gamle filen
+            open();
+        }
+    }
+
+    private Path numbered(int i) {
+        return file.resolveSibling(file.getFileName() + "." + i);
+    }
+
+    /** Skriver det som gjenstår og lukker filen. */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        writer.interrupt();
+        try {
+            writer.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        drainQuietly();
+        synchronized (this) {
+            try {
+                if (out != null) out.close();
+            } catch (IOException ignored) { /* Ignorer */ }
+        }
+    }
+}
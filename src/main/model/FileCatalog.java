@@ -0,0 +1,127 @@
+// FileCatalog.java
+package main.model;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Alle funnede filer, med indekser som gjør filtrering og massevalg raskt også med
+ * hundretusenvis av rader.
+ * <p>
+ * Radene ligger i den rekkefølgen de ble lagt til. For hver filendelse finnes et {@link BitSet}
+ * med radene som har den endelsen, og hvilke rader som er valgt ligger også i et {@link BitSet}.
+ * Å velge alle filer av en type eller en kategori koster dermed ett bitsett-oppslag i stedet for
+ * en løkke over alle radene. Antall valgte per endelse holdes oppdatert, slik at spørsmål som
+ * "er noen .jpg valgt?" svares uten å lete. Ikke trådsikker; brukes fra Swing-tråden.
+ */
+public class FileCatalog {
+
+    private final List<FileInfo> files = new ArrayList<>();
+    private final BitSet selected = new BitSet();
+    private final Map<String, BitSet> rowsByExtension = new HashMap<>();
+    private final Map<String, Integer> selectedByExtension = new HashMap<>();
+    private int selectedCount;
+
+    public int size() { return files.size(); }
+    public boolean isEmpty() { return files.isEmpty(); }
+    public FileInfo get(int row) { return files.get(row); }
+    public boolean isSelected(int row) { return selected.get(row); }
+    public int getSelectedCount() { return selectedCount; }
+
+    /** Antall valgte filer med denne endelsen. */
+    public int getSelectedCount(String extension) {
+        return selectedByExtension.getOrDefault(extension, 0);
+    }
+
+    /** Alle filendelser som finnes i katalogen. */
+    public Set<String> getExtensions() {
+        return Collections.unmodifiableSet(rowsByExtension.keySet());
+    }
+
+    public void clear() {
+        files.clear();
+        selected.clear();
+        rowsByExtension.clear();
+        selectedByExtension.clear();
+        selectedCount = 0;
+    }
+
+    /** Legger til en fil sist og returnerer radnummeret. Valget hentes fra {@link FileInfo#isSelected()}. */
+    public int add(FileInfo file) {
+        int row = files.size();
+        files.add(file);
+        rowsByExtension.computeIfAbsent(file.getExtension(), e -> new BitSet()).set(row);
+        if (file.isSelected()) {
+            selected.set(row);
+            selectedCount++;
+            selectedByExtension.merge(file.getExtension(), 1, Integer::sum);
+        }
+        return row;
+    }
+
+    /** Radene med en av de oppgitte endelsene. */
+    public BitSet rowsWithExtensions(Collection<String> extensions) {
+        BitSet rows = new BitSet();
+        for (String ext : extensions) {
+            BitSet r = rowsByExtension.get(ext);
+            if (r != null) rows.or(r);
+        }
+        return rows;
+    }
+
+    /** Radene som hører til kategorien. */
+    public BitSet rowsInCategory(String category) {
+        if (FileCategory.ALL_FILES_CATEGORY.equals(category)) {
+            BitSet all = new BitSet(files.size());
+            all.set(0, files.size());
+            return all;
+        }
+        List<String> exts = FileCategory.CATEGORIZED_EXTENSIONS.get(category);
+        return exts != null ? rowsWithExtensions(exts) : new BitSet();
+    }
+
+    /** Velger eller fjerner én rad. Returnerer true hvis valget endret seg. */
+    public boolean setSelected(int row, boolean select) {
+        if (selected.get(row) == select) return false;
+        flip(row, select);
+        return true;
+    }
+
+    /** Velger eller fjerner alle radene i {@code rows}. Returnerer radene som faktisk endret seg. */
+    public BitSet setSelected(BitSet rows, boolean select) {
+        BitSet changed = (BitSet) rows.clone();
+        if (select) changed.andNot(selected);
+        else changed.and(selected);
+        for (int row = changed.nextSetBit(0); row >= 0; row = changed.nextSetBit(row + 1)) flip(row, select);
+        return changed;
+    }
+
+    /** Gjør {@code rows} til det nye valget. Returnerer radene som endret seg. */
+    public BitSet selectOnly(BitSet rows) {
+        BitSet changed = (BitSet) rows.clone();
+        changed.xor(selected);
+        for (int row = changed.nextSetBit(0); row >= 0; row = changed.nextSetBit(row + 1)) flip(row, rows.get(row));
+        return changed;
+    }
+
+    /** De valgte filene i radrekkefølge. */
+    public List<FileInfo> getSelectedFiles() {
+        List<FileInfo> result = new ArrayList<>(selectedCount);
+        for (int row = selected.nextSetBit(0); row >= 0; row = selected.nextSetBit(row + 1)) result.add(files.get(row));
+        return result;
+    }
+
+    private void flip(int row, boolean select) {
+        FileInfo file = files.get(row);
+        selected.set(row, select);
+        file.setSelected(select);
+        selectedCount += select ? 1 : -1;
+        selectedByExtension.merge(file.getExtension(), select ? 1 : -1, Integer::sum);
+    }
+}
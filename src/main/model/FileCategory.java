@@ -2,6 +2,7 @@
 package main.model;
 
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -14,6 +15,9 @@ public class FileCategory {
     public static final Map<String, List<String>> CATEGORIZED_EXTENSIONS = new LinkedHashMap<>();
     public static final String ALL_FILES_CATEGORY = "Alle filtyper";
 
+    /** Kategorien til hver endelse, bygget fra {@link #CATEGORIZED_EXTENSIONS} én gang. */
+    private static final Map<String, String> CATEGORY_BY_EXTENSION = new HashMap<>();
+
     static {
         CATEGORIZED_EXTENSIONS.put("Bilder", Arrays.asList(".png", ".jpg", ".jpeg", ".gif", ".svg", ".webp", ".bmp", ".tiff", ".ico"));
         CATEGORIZED_EXTENSIONS.put("Dokumenter", Arrays.asList(".pdf", ".doc", ".docx", ".xls", ".xlsx", ".ppt", ".pptx", ".txt", ".rtf", ".odt", ".csv", ".pages", ".numbers", ".key"));
@@ -21,18 +25,24 @@ public class FileCategory {
         CATEGORIZED_EXTENSIONS.put("Lydfiler", Arrays.asList(".mp3", ".wav", ".ogg", ".aac", ".flac", ".m4a", ".wma"));
         CATEGORIZED_EXTENSIONS.put("Arkiver", Arrays.asList(".zip", ".rar", ".tar", ".gz", ".7z", ".bz2", ".xz"));
         CATEGORIZED_EXTENSIONS.put("Kildekode/Tekst", Arrays.asList(".java", ".js", ".html", ".css", ".xml", ".json", ".py", ".c", ".cpp", ".h", ".cs", ".php", ".rb", ".sql", ".md"));
+        for (Map.Entry<String, List<String>> entry : CATEGORIZED_EXTENSIONS.entrySet()) {
+            // Første kategori vinner, som i den gamle lineære søkingen
+            for (String ext : entry.getValue()) CATEGORY_BY_EXTENSION.putIfAbsent(ext, entry.getKey());
+        }
     }
 
     private FileCategory() {}
 
     public static String categorizeExtension(String ext) {
         if (ext == null || ext.isEmpty()) return "Ukjent";
-        String lowerExt = ext.toLowerCase();
-        for (Map.Entry<String, List<String>> entry : CATEGORIZED_EXTENSIONS.entrySet()) {
-            if (entry.getValue().contains(lowerExt)) {
-                return entry.getKey();
-            }
-        }
-        return "Annet";
+        String category = CATEGORY_BY_EXTENSION.get(ext.toLowerCase());
+        return category != null ? category : "Annet";
+    }
+
+    /** Sann hvis filendelsen hører til kategorien. Alle endelser hører til {@link #ALL_FILES_CATEGORY}. */
+    public static boolean matchesCategory(String category, String ext) {
+        if (ALL_FILES_CATEGORY.equals(category)) return true;
+        List<String> exts = CATEGORIZED_EXTENSIONS.get(category);
+        return exts != null && exts.contains(ext);
     }
 }
\ No newline at end of file
@@ -8,18 +8,30 @@ public class FileInfo {
     private String url;
     private String extension;
     private String detectedType;
+    private String contentType;
     private boolean selected = true;
 
     public FileInfo(String url, String extension) {
+        this(url, extension, null);
+    }
+
+    /**
+     * For lenker der serveren er spurt om typen. {@code extension} er da den som passer til
+     * svaret, ikke nødvendigvis den som står i URL-en.
+     */
+    public FileInfo(String url, String extension, String contentType) {
         this.url = url;
         this.extension = (extension != null) ? extension.toLowerCase() : "";
         // Bruker FileCategory direkte her, siden den nå er i samme pakke (eller importert hvis i annen).
         this.detectedType = FileCategory.categorizeExtension(this.extension);
+        this.contentType = contentType;
     }
 
     public String getUrl() { return url; }
     public String getExtension() { return extension; }
     public String getDetectedType() { return detectedType; }
+    /** Content-Type fra serveren, eller null hvis typen bare er gjettet ut fra URL-en. */
+    public String getContentType() { return contentType; }
     public boolean isSelected() { return selected; }
     public void setSelected(boolean selected) { this.selected = selected; }
 
@@ -0,0 +1,86 @@
+// ConnectionStats.java
+package main.net;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Teller forespørsler og tilkoblinger for den delte HTTP-klienten, slik at vi kan se
+ * hvor mange håndtrykk gjenbruk av tilkoblinger sparer.
+ * <p>
+ * TLS-håndtrykk telles eksakt. For ukryptert HTTP/1.1 finnes ingen krok i klienten, så
+ * antall tilkoblinger anslås som høyeste samtidige antall forespørsler mot verten
+ * (keep-alive-poolen holder på så mange), og én tilkobling per vert for HTTP/2.
+ */
+public class ConnectionStats {
+
+    private static final class HostStats {
+        final LongAdder requests = new LongAdder();
+        final LongAdder http2Responses = new LongAdder();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger peakInFlight = new AtomicInteger();
+        final AtomicLong tlsHandshakes = new AtomicLong();
+        volatile boolean secure;
+    }
+
+    private final Map<String, HostStats> hosts = new ConcurrentHashMap<>();
+
+    private HostStats host(String host) {
+        return hosts.computeIfAbsent(host != null ? host.toLowerCase() : "", h -> new HostStats());
+    }
+
+    void requestStarted(URI uri) {
+        HostStats hs = host(uri.getHost());
+        hs.requests.increment();
+        if ("https".equalsIgnoreCase(uri.getScheme())) hs.secure = true;
+        int now = hs.inFlight.incrementAndGet();
+        hs.peakInFlight.accumulateAndGet(now, Math::max);
+    }
+
+    void requestFinished(URI uri, HttpClient.Version version) {
+        HostStats hs = host(uri.getHost());
+        hs.inFlight.decrementAndGet();
+        if (version == HttpClient.Version.HTTP_2) hs.http2Responses.increment();
+    }
+
+    void tlsHandshake(String host) {
+        host(host).tlsHandshakes.incrementAndGet();
+    }
+
+    public long getRequests() {
+        return hosts.values().stream().mapToLong(h -> h.requests.sum()).sum();
+    }
+
+    public long getHttp2Responses() {
+        return hosts.values().stream().mapToLong(h -> h.http2Responses.sum()).sum();
+    }
+
+    /** Antall tilkoblinger som er åpnet: eksakt for HTTPS, anslått for ukryptert HTTP. */
+    public long getConnections() {
+        long sum = 0;
+        for (HostStats hs : hosts.values()) {
+            if (hs.requests.sum() == 0) continue;
+            if (hs.secure) sum += hs.tlsHandshakes.get();
+            else sum += hs.http2Responses.sum() > 0 ? 1 : Math.max(1, hs.peakInFlight.get());
+        }
+        return sum;
+    }
+
+    public long getReusedRequests() {
+        return Math.max(0, getRequests() - getConnections());
+    }
+
+    @Override
+    public String toString() {
+        long req = getRequests();
+        long conn = getConnections();
+        long reused = Math.max(0, req - conn);
+        return String.format("%d forespørsler over %d tilkoblinger mot %d verter (%d gjenbrukt, %.0f%%, %d via HTTP/2)",
+                req, conn, hosts.size(), reused, req > 0 ? 100.0 * reused / req : 0.0, getHttp2Responses());
+    }
+}
@@ -0,0 +1,59 @@
+// CountingSslContext.java
+package main.net;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLContextSpi;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocketFactory;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/**
+ * SSLContext som delegerer til JVM-ens standardkontekst, men teller hver SSLEngine
+ * HTTP-klienten lager. Klienten lager én motor per ny TLS-tilkobling, så tellingen
+ * tilsvarer antall fulle håndtrykk.
+ */
+class CountingSslContext extends SSLContext {
+
+    CountingSslContext(ConnectionStats stats) throws NoSuchAlgorithmException {
+        this(SSLContext.getDefault(), stats);
+    }
+
+    private CountingSslContext(SSLContext delegate, ConnectionStats stats) {
+        super(new Spi(delegate, stats), delegate.getProvider(), delegate.getProtocol());
+    }
+
+    private static final class Spi extends SSLContextSpi {
+        private final SSLContext delegate;
+        private final ConnectionStats stats;
+
+        Spi(SSLContext delegate, ConnectionStats stats) {
+            this.delegate = delegate;
+            this.stats = stats;
+        }
+
+        @Override
+        protected void engineInit(KeyManager[] km, TrustManager[] tm, SecureRandom sr) {
+            throw new UnsupportedOperationException("Konteksten er allerede initialisert");
+        }
+
+        @Override protected SSLSocketFactory engineGetSocketFactory() { return delegate.getSocketFactory(); }
+        @Override protected SSLServerSocketFactory engineGetServerSocketFactory() { return delegate.getServerSocketFactory(); }
+        @Override protected SSLSessionContext engineGetServerSessionContext() { return delegate.getServerSessionContext(); }
+        @Override protected SSLSessionContext engineGetClientSessionContext() { return delegate.getClientSessionContext(); }
+        @Override protected SSLParameters engineGetDefaultSSLParameters() { return delegate.getDefaultSSLParameters(); }
+        @Override protected SSLParameters engineGetSupportedSSLParameters() { return delegate.getSupportedSSLParameters(); }
+        @Override protected SSLEngine engineCreateSSLEngine() { return delegate.createSSLEngine(); }
+
+        @Override
+        protected SSLEngine engineCreateSSLEngine(String host, int port) {
+            stats.tlsHandshake(host);
+            return delegate.createSSLEngine(host, port);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+// HostHealth.java
+package main.net;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hvordan en vert har svart den siste tiden: svartid, for tidsavbrudd, og en kretsbryter.
+ * <p>
+ * Svartiden måles til svarhodene kommer, og tidsavbruddet settes ut fra et glidende snitt og
+ * avvik slik TCP gjør det (RFC 6298), innenfor {@link #MIN_TIMEOUT} og det vanlige taket. Etter
+ * et tidsavbrudd dobles det til neste svar kommer.
+ * <p>
+ * Etter {@link #FAILURE_THRESHOLD} feil på rad åpner kretsbryteren, og verten får hvile i
+ * {@link #MIN_OPEN_MILLIS}. Deretter slippes én forespørsel gjennom (halvåpen); går den bra
+ * lukkes bryteren, ellers åpner den igjen med dobbelt så lang pause, opptil {@link #MAX_OPEN_MILLIS}.
+ * {@code Retry-After} fra verten gir en pause på samme måte. Alle metoder er trådsikre.
+ */
+public class HostHealth {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    public static final int FAILURE_THRESHOLD = 5;
+    public static final long MIN_OPEN_MILLIS = 5_000;
+    public static final long MAX_OPEN_MILLIS = 300_000;
+    public static final Duration MIN_TIMEOUT = Duration.ofSeconds(5);
+
+    private static final int MIN_SAMPLES = 3;
+    private static final int MAX_TIMEOUT_DOUBLINGS = 3;
+
+    private final String host;
+    private long srttNanos;
+    private long rttvarNanos;
+    private int samples;
+    private int timeoutDoublings;
+    private int consecutiveFailures;
+    /** 0 når bryteren er lukket; ellers når den slipper gjennom neste forespørsel. */
+    private long openUntilMillis;
+    private long openMillis = MIN_OPEN_MILLIS;
+    private long pausedUntilMillis;
+    private long failingSinceMillis = -1;
+
+    HostHealth(String host) { this.host = host; }
+
+    public String getHost() { return host; }
+
+    /** Verten svarte, med svarhodene etter {@code latencyNanos}. */
+    synchronized void success(long latencyNanos) {
+        if (samples == 0) {
+            srttNanos = latencyNanos;
+            rttvarNanos = latencyNanos / 2;
+        } else {
+            rttvarNanos += (Math.abs(srttNanos - latencyNanos) - rttvarNanos) / 4;
+            srttNanos += (latencyNanos - srttNanos) / 8;
+        }
+        samples++;
+        timeoutDoublings = 0;
+        consecutiveFailures = 0;
+        openUntilMillis = 0;
+        openMillis = MIN_OPEN_MILLIS;
+        failingSinceMillis = -1;
+    }
+
+    /** Forespørselen feilet, eller verten svarte med en midlertidig feil. */
+    synchronized void failure(boolean timeout) {
+        long now = System.currentTimeMillis();
+        if (timeout) timeoutDoublings = Math.min(timeoutDoublings + 1, MAX_TIMEOUT_DOUBLINGS);
+        if (failingSinceMillis < 0) failingSinceMillis = now;
+        consecutiveFailures++;
+        if (openUntilMillis > 0 && now >= openUntilMillis) {
+            // Forsøket i halvåpen tilstand feilet
+            openMillis = Math.min(openMillis * 2, MAX_OPEN_MILLIS);
+            openUntilMillis = now + openMillis;
+        } else if (openUntilMillis == 0 && consecutiveFailures >= FAILURE_THRESHOLD) {
+            openUntilMillis = now + openMillis;
+        }
+    }
+
+    /** Verten ba om en pause med {@code Retry-After}. */
+    synchronized void pause(long millis) {
+        if (millis > 0) pausedUntilMillis = Math.max(pausedUntilMillis, System.currentTimeMillis() + millis);
+    }
+
+    public synchronized State getState() {
+        if (openUntilMillis == 0) return State.CLOSED;
+        return System.currentTimeMillis() < openUntilMillis ? State.OPEN : State.HALF_OPEN;
+    }
+
+    /** Hvor lenge det er til verten kan få nye forespørsler, 0 hvis nå. */
+    public synchronized long blockedMillis() {
+        return Math.max(0, Math.max(openUntilMillis, pausedUntilMillis) - System.currentTimeMillis());
+    }
+
+    /** Hvor lenge verten har feilet uten et eneste vellykket svar, 0 hvis den svarer. */
+    public synchronized long failingForMillis() {
+        return failingSinceMillis < 0 ? 0 : System.currentTimeMillis() - failingSinceMillis;
+    }
+
+    /** Tidsavbruddet for neste forespørsel, høyst {@code max}. */
+    public synchronized Duration timeout(Duration max) {
+        long base = max.toNanos();
+        if (samples >= MIN_SAMPLES) base = Math.max(MIN_TIMEOUT.toNanos(), 4 * (srttNanos + 4 * rttvarNanos));
+        return Duration.ofNanos(Math.min(max.toNanos(), base << timeoutDoublings));
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%s: %s, svartid %d ms, tidsavbrudd %d s, %d feil på rad", host, getState(),
+                TimeUnit.NANOSECONDS.toMillis(srttNanos), timeout(HttpService.REQUEST_TIMEOUT).getSeconds(), consecutiveFailures);
+    }
+}
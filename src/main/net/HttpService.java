@@ -0,0 +1,172 @@
+// HttpService.java
+package main.net;
+
+import main.util.UrlUtil;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Felles HTTP-lag for analyse og nedlasting, bygget på {@link HttpClient}.
+ * <p>
+ * Én klient deles av hele applikasjonen, slik at tilkoblinger gjenbrukes (keep-alive)
+ * og HTTP/2 kan multiplekse mange filer over samme tilkobling mot en vert.
+ * Omdirigeringer følges, men aldri fra HTTPS til HTTP.
+ * <p>
+ * Alle svar og feil registreres i en {@link HostHealth} per vert, som gir tidsavbrudd ut fra
+ * vertens svartid og en kretsbryter som gir verter som feiler en pause.
+ * {@link #sendRetrying} prøver forbigående feil igjen etter en {@link RetryPolicy}.
+ */
+public class HttpService {
+
+    public static final String USER_AGENT = "Mozilla/5.0 ...";
+    public static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(15);
+    public static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(60);
+    /** Lengste pause mellom to biter av en svarkropp, se {@link IdleTimeout}. */
+    public static final Duration READ_TIMEOUT = Duration.ofSeconds(60);
+
+    private static volatile HttpService defaultInstance;
+
+    private final HttpClient client;
+    private final ConnectionStats stats = new ConnectionStats();
+    private final Map<String, HostHealth> health = new ConcurrentHashMap<>();
+
+    public HttpService() {
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(CONNECT_TIMEOUT);
+        try {
+            builder.sslContext(new CountingSslContext(stats));
+        } catch (NoSuchAlgorithmException e) {
+            System.err.println("Kunne ikke telle TLS-håndtrykk: " + e.getMessage());
+        }
+        this.client = builder.build();
+    }
+
+    /** Den delte instansen som brukes av applikasjonen. */
+    public static HttpService getDefault() {
+        HttpService s = defaultInstance;
+        if (s == null) {
+            synchronized (HttpService.class) {
+                s = defaultInstance;
+                if (s == null) defaultInstance = s = new HttpService();
+            }
+        }
+        return s;
+    }
+
+    /** Lager en GET-forespørsel med standard User-Agent og tidsavbrudd etter vertens svartid. */
+    public HttpRequest.Builder request(String url) {
+        return HttpRequest.newBuilder(URI.create(url))
+                .header("User-Agent", USER_AGENT)
+                .timeout(timeoutFor(url, REQUEST_TIMEOUT))
+                .GET();
+    }
+
+    /** Tidsavbruddet for neste forespørsel til URL-ens vert, høyst {@code max}. */
+    public Duration timeoutFor(String url, Duration max) {
+        return health(UrlUtil.hostOf(url)).timeout(max);
+    }
+
+    /**
+     * Vakthund for kroppen i et svar fra URL-ens vert. Stopper kroppen opp, teller det som et
+     * tidsavbrudd for verten, på samme måte som når hodene ikke kommer.
+     */
+    public IdleTimeout idleTimeout(String url, Duration timeout) {
+        HostHealth host = health(UrlUtil.hostOf(url));
+        return new IdleTimeout(timeout, () -> host.failure(true));
+    }
+
+    /** Tilstanden for verten. */
+    public HostHealth health(String host) {
+        return health.computeIfAbsent(host, HostHealth::new);
+    }
+
+    /**
+     * Sender forespørselen over den delte klienten. Strømmende svar må leses ferdig eller
+     * lukkes, ellers kan ikke tilkoblingen gå tilbake til poolen.
+     */
+    public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler) throws IOException, InterruptedException {
+        URI uri = request.uri();
+        HostHealth host = health(hostOf(uri));
+        stats.requestStarted(uri);
+        HttpClient.Version version = null;
+        long sent = System.nanoTime();
+        boolean[] answered = new boolean[1];
+        try {
+            HttpResponse<T> response = client.send(request, info -> {
+                // Svartiden måles til hodene kommer, ikke til hele kroppen er lest
+                answered[0] = true;
+                long retryAfter = RetryPolicy.retryAfterMillis(info.headers());
+                if ((info.statusCode() == 429 || info.statusCode() == 503) && retryAfter >= 0) {
+                    // Verten lever og sier selv når den vil ha mer; en pause holder, bryteren røres ikke
+                    host.pause(retryAfter);
+                } else if (RetryPolicy.isRetryableStatus(info.statusCode())) {
+                    host.failure(false);
+                } else {
+                    host.success(System.nanoTime() - sent);
+                }
+                return handler.apply(info);
+            });
+            version = response.version();
+            return response;
+        } catch (IOException e) {
+            // Feil etter at hodene kom skyldes som regel avbrudd eller disken, ikke verten
+            if (!answered[0] && RetryPolicy.isTransient(e)) host.failure(e instanceof HttpTimeoutException);
+            throw e;
+        } finally {
+            stats.requestFinished(uri, version);
+        }
+    }
+
+    /**
+     * Som {@link #send}, men prøver igjen ved forbigående feil etter {@code policy}. Forespørselen lages
+     * på nytt for hvert forsøk, så tidsavbruddet kan følge vertens svartid. Svar som skal prøves igjen
+     * leses ikke. Har vertens kretsbryter åpnet, feiler kallet med en gang.
+     */
+    public <T> HttpResponse<T> sendRetrying(Supplier<HttpRequest> request, HttpResponse.BodyHandler<T> handler, RetryPolicy policy) throws IOException, InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            HttpRequest req = request.get();
+            HostHealth host = health(hostOf(req.uri()));
+            long blocked = host.blockedMillis();
+            if (blocked > 0) throw new IOException("Verten " + host.getHost() + " har pause etter gjentatte feil (" + (blocked + 999) / 1000 + " s igjen)");
+            int current = attempt;
+            boolean[] retry = new boolean[1];
+            long[] retryAfter = {-1};
+            long delay;
+            try {
+                HttpResponse<T> resp = send(req, info -> {
+                    long ra = RetryPolicy.retryAfterMillis(info.headers());
+                    if (RetryPolicy.isRetryableStatus(info.statusCode()) && policy.canRetry(current, ra)) {
+                        retry[0] = true;
+                        retryAfter[0] = ra;
+                        return HttpResponse.BodySubscribers.replacing(null);
+                    }
+                    return handler.apply(info);
+                });
+                if (!retry[0]) return resp;
+                delay = policy.delayMillis(attempt, retryAfter[0]);
+            } catch (IOException e) {
+                if (!RetryPolicy.isTransient(e) || !policy.canRetry(attempt, -1)) throw e;
+                delay = policy.delayMillis(attempt, -1);
+            }
+            Thread.sleep(delay);
+        }
+    }
+
+    public ConnectionStats getStats() { return stats; }
+
+    private static String hostOf(URI uri) {
+        return uri.getHost() != null ? uri.getHost().toLowerCase() : "";
+    }
+}
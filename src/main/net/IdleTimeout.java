@@ -0,0 +1,148 @@
+// IdleTimeout.java
+package main.net;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Vakthund for svarkropper. Tidsavbruddet i {@link java.net.http.HttpRequest} gjelder bare til
+ * hodene kommer, så uten denne henger en lesing for alltid hvis serveren stopper midt i kroppen.
+ * <p>
+ * Kalleren melder {@link #waiting()} når den ber om mer data og {@link #received()} når data kommer.
+ * Har vi ventet lenger enn tidsavbruddet, eller er {@code cancelled} sann, kalles {@code fail} én gang
+ * med en {@link HttpTimeoutException} eller {@link InterruptedIOException}. Tid vi selv holder igjen,
+ * for eksempel for båndbreddegrensen, telles ikke. For strømmende svar gjør {@link #watch} dette selv.
+ */
+public class IdleTimeout implements AutoCloseable {
+
+    private static final long CHECK_INTERVAL_MILLIS = 250;
+    /** Sjekker alle vakthunder fra én tråd. */
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "tidsavbrudd");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Duration timeout;
+    private final Runnable timedOut;
+    private final AtomicBoolean fired = new AtomicBoolean();
+    /** Når vi begynte å vente på data, eller 0 når vi ikke venter. */
+    private volatile long waitingSince;
+    private volatile ScheduledFuture<?> check;
+
+    public IdleTimeout(Duration timeout) {
+        this(timeout, null);
+    }
+
+    /** {@code timedOut} kalles i tillegg når tidsavbruddet slår til, ikke ved avbrudd. */
+    IdleTimeout(Duration timeout, Runnable timedOut) {
+        this.timeout = timeout;
+        this.timedOut = timedOut;
+    }
+
+    /** Starter vakthunden. {@code fail} kalles fra vakthundens tråd og må ikke blokkere lenge. */
+    public void start(BooleanSupplier cancelled, Consumer<IOException> fail) {
+        long timeoutNanos = timeout.toNanos();
+        check = TIMER.scheduleWithFixedDelay(() -> {
+            IOException e = null;
+            if (cancelled != null && cancelled.getAsBoolean()) {
+                e = new InterruptedIOException("Nedlastingen ble avbrutt");
+            } else {
+                long since = waitingSince;
+                if (since != 0 && System.nanoTime() - since > timeoutNanos) {
+                    e = new HttpTimeoutException("Ingen data på " + timeout.getSeconds() + " s");
+                }
+            }
+            if (e != null && fired.compareAndSet(false, true)) {
+                close();
+                if (timedOut != null && e instanceof HttpTimeoutException) timedOut.run();
+                fail.accept(e);
+            }
+        }, CHECK_INTERVAL_MILLIS, CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starter vakthunden for en strøm. Når den slår til, lukkes {@code in} så en blokkert lesing
+     * våkner, og lesingen kaster feilen fra vakthunden. Å lukke den returnerte strømmen stopper vakthunden.
+     */
+    public InputStream watch(InputStream in, BooleanSupplier cancelled) {
+        IOException[] error = new IOException[1];
+        start(cancelled, e -> {
+            synchronized (error) {
+                error[0] = e;
+            }
+            try {
+                in.close();
+            } catch (IOException ignored) { /* Ignorer */ }
+        });
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                check();
+                waiting();
+                int n;
+                try {
+                    n = in.read(b, off, len);
+                } catch (IOException e) {
+                    check();
+                    throw e;
+                } finally {
+                    received();
+                }
+                check();
+                return n;
+            }
+
+            private void check() throws IOException {
+                synchronized (error) {
+                    if (error[0] != null) throw error[0];
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                IdleTimeout.this.close();
+                in.close();
+            }
+        };
+    }
+
+    /** Vi har bedt om mer data og venter på den. */
+    public void waiting() {
+        waitingSince = System.nanoTime() | 1; // 0 betyr at vi ikke venter
+    }
+
+    /** Data kom; vi venter ikke lenger. */
+    public void received() {
+        waitingSince = 0;
+    }
+
+    /** Om vakthunden har slått til. */
+    public boolean hasFired() {
+        return fired.get();
+    }
+
+    /** Stopper vakthunden. */
+    @Override
+    public void close() {
+        ScheduledFuture<?> c = check;
+        if (c != null) c.cancel(false);
+    }
+}
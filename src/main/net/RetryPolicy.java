@@ -0,0 +1,102 @@
+// RetryPolicy.java
+package main.net;
+
+import java.io.IOException;
+import java.net.UnknownHostException;
+import java.net.http.HttpHeaders;
+import java.nio.file.FileSystemException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+/**
+ * Hvor mange ganger og hvor lenge det ventes før en forespørsel prøves igjen etter en forbigående feil.
+ * <p>
+ * Ventetiden dobles for hvert forsøk og trekkes tilfeldig mellom null og taket ("full jitter"),
+ * så mange filer som feiler samtidig ikke prøves igjen i samme øyeblikk. Sier serveren noe i
+ * {@code Retry-After}, ventes minst så lenge; ber den om å vente lenger enn taket for {@code Retry-After},
+ * gis det opp i stedet.
+ */
+public class RetryPolicy {
+
+    public static final RetryPolicy DEFAULT = new RetryPolicy(4, 500, 30_000, 300_000);
+    /** Ett forsøk, ingen nye. */
+    public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0, 0);
+
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME.withLocale(Locale.US);
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final long maxRetryAfterMillis;
+
+    public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis, long maxRetryAfterMillis) {
+        if (maxAttempts < 1) throw new IllegalArgumentException("Må ha minst ett forsøk");
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.maxRetryAfterMillis = maxRetryAfterMillis;
+    }
+
+    /** Samme ventetider med et annet antall forsøk. */
+    public RetryPolicy withMaxAttempts(int attempts) {
+        return new RetryPolicy(attempts, baseDelayMillis, maxDelayMillis, maxRetryAfterMillis);
+    }
+
+    /** Antall forsøk totalt, det første medregnet. */
+    public int getMaxAttempts() { return maxAttempts; }
+
+    /**
+     * Sant hvis forsøk nummer {@code attempt} (fra 1) kan følges av et nytt, gitt serverens
+     * {@code Retry-After} i millisekunder (-1 hvis den ikke sa noe).
+     */
+    public boolean canRetry(int attempt, long retryAfterMillis) {
+        return attempt < maxAttempts && retryAfterMillis <= maxRetryAfterMillis;
+    }
+
+    /** Hvor lenge det skal ventes etter forsøk nummer {@code attempt} (fra 1). */
+    public long delayMillis(int attempt, long retryAfterMillis) {
+        long cap = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt - 1, 20));
+        long jitter = cap > 0 ? ThreadLocalRandom.current().nextLong(cap + 1) : 0;
+        return Math.max(jitter, retryAfterMillis);
+    }
+
+    /** Statuskoder som ofte går over av seg selv: tidsavbrudd, for mange forespørsler og midlertidige serverfeil. */
+    public static boolean isRetryableStatus(int status) {
+        switch (status) {
+            case 408: case 425: case 429: case 500: case 502: case 503: case 504:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Sant for nettverksfeil som kan gå over, som tidsavbrudd og brutte tilkoblinger. Ukjente verter,
+     * feil i sertifikater og feil i det lokale filsystemet blir ikke bedre av et nytt forsøk.
+     */
+    public static boolean isTransient(IOException e) {
+        return !(e instanceof UnknownHostException || e instanceof SSLHandshakeException
+                || e instanceof SSLPeerUnverifiedException || e instanceof FileSystemException);
+    }
+
+    /** {@code Retry-After} i millisekunder, som sekunder eller HTTP-dato, eller -1 hvis den mangler eller er ugyldig. */
+    public static long retryAfterMillis(HttpHeaders headers) {
+        String v = headers.firstValue("Retry-After").orElse(null);
+        if (v == null || v.trim().isEmpty()) return -1;
+        v = v.trim();
+        try {
+            return Math.max(0, Long.parseLong(v) * 1000);
+        } catch (NumberFormatException e) {
+            try {
+                return Math.max(0, ZonedDateTime.parse(v, HTTP_DATE).toInstant().toEpochMilli() - System.currentTimeMillis());
+            } catch (DateTimeParseException e2) {
+                return -1;
+            }
+        }
+    }
+}
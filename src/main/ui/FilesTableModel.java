@@ -2,23 +2,27 @@
 package main.ui;
 
 
+import main.model.FileCatalog;
 import main.model.FileCategory;
 import main.model.FileInfo;
 
 import javax.swing.table.AbstractTableModel;
 import javax.swing.JComboBox;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.List;
 
 /**
- * Egendefinert TableModel for JTable.
+ * Egendefinert TableModel for JTable. Radene og valget ligger i en {@link FileCatalog}, og
+ * endringer som gjelder mange rader sendes som én hendelse for hele området.
  */
 public class FilesTableModel extends AbstractTableModel {
-    private final List<FileInfo> files;
+    private final FileCatalog files;
     private final String[] columnNames = {"Velg", "Fil-URL", "Type", "Filtype (.ext)"};
     private JComboBox<String> categoryComboBoxRef;
     private Runnable onSelectionChangeCallback;
 
-    public FilesTableModel(List<FileInfo> files, JComboBox<String> categoryComboBoxRef, Runnable onSelectionChangeCallback) {
+    public FilesTableModel(FileCatalog files, JComboBox<String> categoryComboBoxRef, Runnable onSelectionChangeCallback) {
         this.files = files;
         this.categoryComboBoxRef = categoryComboBoxRef;
         this.onSelectionChangeCallback = onSelectionChangeCallback;
@@ -34,7 +38,7 @@ public class FilesTableModel extends AbstractTableModel {
     public Object getValueAt(int rowIndex, int columnIndex) {
         FileInfo fileInfo = files.get(rowIndex);
         switch (columnIndex) {
-            case 0: return fileInfo.isSelected();
+            case 0: return files.isSelected(rowIndex);
             case 1: return fileInfo.getUrl();
             case 2: return fileInfo.getDetectedType();
             case 3: return fileInfo.getExtension();
@@ -45,31 +49,50 @@ public class FilesTableModel extends AbstractTableModel {
     @Override
     public void setValueAt(Object aValue, int rowIndex, int columnIndex) {
         if (columnIndex == 0 && aValue instanceof Boolean) {
-            files.get(rowIndex).setSelected((Boolean) aValue);
+            if (!files.setSelected(rowIndex, (Boolean) aValue)) return;
             fireTableCellUpdated(rowIndex, columnIndex);
             if (onSelectionChangeCallback != null) onSelectionChangeCallback.run();
         }
     }
 
     public void setData(List<FileInfo> newFiles) {
-        this.files.clear();
-        if (newFiles != null) this.files.addAll(newFiles);
+        files.clear();
+        if (newFiles != null) newFiles.forEach(files::add);
+        fireTableDataChanged();
         filterAndSelectBasedOnCategory();
     }
 
+    /** Legger til nye rader, f.eks. fortløpende under gjennomsøking, og velger dem etter valgt kategori. */
+    public void addFiles(List<FileInfo> newFiles) {
+        if (newFiles == null || newFiles.isEmpty()) return;
+        String selectedCategory = (String) categoryComboBoxRef.getSelectedItem();
+        int firstRow = files.size();
+        for (FileInfo file : newFiles) {
+            file.setSelected(selectedCategory != null && FileCategory.matchesCategory(selectedCategory, file.getExtension()));
+            files.add(file);
+        }
+        fireTableRowsInserted(firstRow, files.size() - 1);
+        if (onSelectionChangeCallback != null) onSelectionChangeCallback.run();
+    }
+
+    /** Velger bare filene i valgt kategori. Sender én oppdatering for området som endret seg. */
     public void filterAndSelectBasedOnCategory() {
         String selectedCategory = (String) categoryComboBoxRef.getSelectedItem();
         if (selectedCategory == null) return;
-        List<String> extensionsInCurrentCategory = FileCategory.ALL_FILES_CATEGORY.equals(selectedCategory) ? null : FileCategory.CATEGORIZED_EXTENSIONS.get(selectedCategory);
-        boolean hasChanges = false;
-        for (FileInfo file : files) {
-            boolean shouldBeSelected = FileCategory.ALL_FILES_CATEGORY.equals(selectedCategory) || (extensionsInCurrentCategory != null && extensionsInCurrentCategory.contains(file.getExtension()));
-            if (file.isSelected() != shouldBeSelected) {
-                file.setSelected(shouldBeSelected);
-                hasChanges = true;
-            }
-        }
-        if (hasChanges || !files.isEmpty()) fireTableDataChanged();
+        fireSelectionChanged(files.selectOnly(files.rowsInCategory(selectedCategory)));
         if (onSelectionChangeCallback != null) onSelectionChangeCallback.run();
     }
-}
\ No newline at end of file
+
+    /** Velger eller fjerner alle filer med en av endelsene, med én tabelloppdatering. */
+    public void setExtensionsSelected(Collection<String> extensions, boolean select) {
+        BitSet changed = files.setSelected(files.rowsWithExtensions(extensions), select);
+        if (changed.isEmpty()) return;
+        fireSelectionChanged(changed);
+        if (onSelectionChangeCallback != null) onSelectionChangeCallback.run();
+    }
+
+    private void fireSelectionChanged(BitSet changedRows) {
+        if (changedRows.isEmpty()) return;
+        fireTableRowsUpdated(changedRows.nextSetBit(0), changedRows.length() - 1);
+    }
+}
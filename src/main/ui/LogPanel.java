@@ -0,0 +1,165 @@
+// LogPanel.java
+package main.ui;
+
+import main.log.LogBuffer;
+import main.log.LogLevel;
+import main.log.RollingLogFile;
+
+import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollBar;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+import javax.swing.Timer;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultCaret;
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.awt.Font;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loggvinduet. Leser nye meldinger fra en {@link LogBuffer} med fast bildefrekvens og legger dem
+ * til som én tekstbit per bilde, i stedet for ett EDT-kall per melding. Tekstområdet holder bare
+ * de siste {@value #MAX_LINES} linjene, og ligger det flere enn det i kø, vises bare de nyeste.
+ * Meldinger under valgt nivå vises ikke, og kan loggen også skrives til en roterende fil.
+ */
+public class LogPanel extends JPanel {
+
+    private static final int FRAME_MILLIS = 50;
+    private static final int MAX_LINES = 5_000;
+
+    private final LogBuffer buffer;
+    private final Path logFilePath;
+    private final JTextArea area = new JTextArea(8, 0);
+    private final JScrollPane scrollPane = new JScrollPane(area);
+    private final JComboBox<LogLevel> levelComboBox = new JComboBox<>(LogLevel.values());
+    private final JCheckBox fileCheckBox = new JCheckBox("Skriv til fil");
+    private final Timer timer = new Timer(FRAME_MILLIS, e -> appendNew());
+    private final List<LogBuffer.Entry> batch = new ArrayList<>();
+
+    private long cursor;
+    private int lines;
+    private RollingLogFile logFile;
+
+    /**
+     * @param logFilePath filen loggen skrives til når brukeren slår det på
+     */
+    public LogPanel(LogBuffer buffer, Path logFilePath) {
+        super(new BorderLayout());
+        this.buffer = buffer;
+        this.logFilePath = logFilePath;
+        area.setEditable(false);
+        area.setFont(new Font("Monospaced", Font.PLAIN, 12));
+        // Vi flytter markøren selv, og bare når brukeren står nederst i loggen
+        ((DefaultCaret) area.getCaret()).setUpdatePolicy(DefaultCaret.NEVER_UPDATE);
+
+        JPanel header = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+        header.add(new JLabel("Logg:"));
+        levelComboBox.setSelectedItem(LogLevel.INFO);
+        levelComboBox.setToolTipText("Vis bare meldinger på dette nivået og over");
+        levelComboBox.addActionListener(e -> reload());
+        header.add(levelComboBox);
+        fileCheckBox.setToolTipText("Skriv alle meldinger til " + logFilePath + " (roteres ved " + (RollingLogFile.DEFAULT_MAX_BYTES >> 20) + " MB)");
+        fileCheckBox.addActionListener(e -> setFileLogging(fileCheckBox.isSelected()));
+        header.add(fileCheckBox);
+        add(header, BorderLayout.NORTH);
+        add(scrollPane, BorderLayout.CENTER);
+
+        cursor = buffer.nextSequence();
+        timer.start();
+    }
+
+    private LogLevel minLevel() {
+        LogLevel l = (LogLevel) levelComboBox.getSelectedItem();
+        return l != null ? l : LogLevel.INFO;
+    }
+
+    /** Legger til det som er logget siden forrige bilde. */
+    private void appendNew() {
+        long next = buffer.nextSequence();
+        if (next == cursor) return;
+        // Linjer som uansett ville blitt fjernet fra toppen med en gang, hopper vi rett over
+        long from = Math.max(cursor, next - MAX_LINES);
+        long skipped = from - cursor;
+        batch.clear();
+        cursor = buffer.read(from, MAX_LINES, batch);
+        if (!batch.isEmpty()) skipped += batch.get(0).sequence - from;
+        StringBuilder sb = new StringBuilder(batch.size() * 80);
+        int added = 0;
+        if (skipped > 0) {
+            sb.append("... ").append(skipped).append(" meldinger hoppet over ...\n");
+            added++;
+        }
+        added += format(batch, sb);
+        if (added == 0) return;
+        append(sb.toString(), added);
+    }
+
+    /** Viser de siste meldingene på nytt etter at nivået er endret. */
+    private void reload() {
+        batch.clear();
+        long next = buffer.nextSequence();
+        cursor = buffer.read(Math.max(0, next - buffer.getCapacity()), buffer.getCapacity(), batch);
+        StringBuilder sb = new StringBuilder();
+        int count = format(batch, sb);
+        area.setText("");
+        lines = 0;
+        append(sb.toString(), count);
+    }
+
+    private int format(List<LogBuffer.Entry> entries, StringBuilder sb) {
+        LogLevel min = minLevel();
+        int count = 0;
+        for (LogBuffer.Entry e : entries) {
+            if (!e.level.isAtLeast(min)) continue;
+            if (e.level.isAtLeast(LogLevel.WARN)) sb.append(e.level.getTag()).append(": ");
+            sb.append(e.message).append('\n');
+            count++;
+        }
+        return count;
+    }
+
+    private void append(String text, int newLines) {
+        JScrollBar bar = scrollPane.getVerticalScrollBar();
+        boolean follow = bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - 4;
+        area.append(text);
+        lines += newLines;
+        if (lines > MAX_LINES) {
+            try {
+                int excess = lines - MAX_LINES;
+                area.replaceRange("", 0, area.getLineEndOffset(excess - 1));
+                lines = MAX_LINES;
+            } catch (BadLocationException e) {
+                lines = area.getLineCount() - 1;
+            }
+        }
+        if (follow) area.setCaretPosition(area.getDocument().getLength());
+    }
+
+    private void setFileLogging(boolean enabled) {
+        if (enabled && logFile == null) {
+            try {
+                logFile = new RollingLogFile(buffer, logFilePath);
+                buffer.info("Skriver loggen til " + logFilePath);
+            } catch (IOException e) {
+                fileCheckBox.setSelected(false);
+                buffer.error("Kan ikke skrive loggfil " + logFilePath + ": " + e.getMessage());
+            }
+        } else if (!enabled && logFile != null) {
+            logFile.close();
+            logFile = null;
+        }
+    }
+
+    /** Skriver det som gjenstår til loggfilen og lukker den. Kalles når programmet avsluttes. */
+    public void closeLogFile() {
+        if (logFile != null) logFile.close();
+        logFile = null;
+    }
+}
@@ -0,0 +1,168 @@
+// ThroughputPanel.java
+package main.ui;
+
+import main.download.TransferMetrics;
+
+import javax.swing.BorderFactory;
+import javax.swing.BoxLayout;
+import javax.swing.JComponent;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.Timer;
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Polygon;
+import java.awt.RenderingHints;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Viser overføringshastigheten under nedlasting som en graf over det siste minuttet,
+ * sammen med anslått tid igjen, snitt-TTFB og fordelingen av HTTP-statuskoder.
+ * Leser fra {@link TransferMetrics} to ganger i sekundet på EDT.
+ */
+public class ThroughputPanel extends JPanel {
+
+    private static final int SAMPLE_MILLIS = 500;
+    private static final int HISTORY = 120;
+    /** Vekt for nyeste måling i den glattede hastigheten som brukes til å anslå tid igjen. */
+    private static final double SMOOTHING = 0.2;
+
+    private final double[] samples = new double[HISTORY];
+    private int sampleCount;
+    private int head;
+
+    private final Graph graph = new Graph();
+    private final JLabel rateLabel = new JLabel(" ");
+    private final JLabel etaLabel = new JLabel(" ");
+    private final JLabel detailLabel = new JLabel(" ");
+    private final Timer timer = new Timer(SAMPLE_MILLIS, e -> sample());
+
+    private TransferMetrics metrics;
+    private Consumer<TransferMetrics.Snapshot> sampleListener;
+    private long lastBytes;
+    private long lastNanos;
+    private double smoothedRate;
+
+    public ThroughputPanel() {
+        super(new BorderLayout(0, 2));
+        setBorder(BorderFactory.createTitledBorder("Overføring"));
+        setPreferredSize(new Dimension(280, 150));
+        add(graph, BorderLayout.CENTER);
+        JPanel labels = new JPanel();
+        labels.setLayout(new BoxLayout(labels, BoxLayout.Y_AXIS));
+        labels.add(rateLabel);
+        labels.add(etaLabel);
+        labels.add(detailLabel);
+        add(labels, BorderLayout.SOUTH);
+    }
+
+    /** Får hvert øyeblikksbilde etter at panelet er oppdatert, f.eks. for å vise fremdriften i byte et annet sted. */
+    public void setSampleListener(Consumer<TransferMetrics.Snapshot> listener) {
+        this.sampleListener = listener;
+    }
+
+    /** Begynner å vise målingene for en ny batch. */
+    public void start(TransferMetrics newMetrics) {
+        metrics = newMetrics;
+        sampleCount = 0;
+        head = 0;
+        lastBytes = 0;
+        lastNanos = 0;
+        smoothedRate = 0;
+        rateLabel.setText("Starter...");
+        etaLabel.setText(" ");
+        detailLabel.setText(" ");
+        graph.repaint();
+        timer.start();
+    }
+
+    /** Stopper oppdateringen etter en siste måling. */
+    public void stop() {
+        timer.stop();
+        if (metrics != null) sample();
+    }
+
+    private void sample() {
+        if (metrics == null) return;
+        TransferMetrics.Snapshot s = metrics.snapshot();
+        long dt = s.elapsedNanos - lastNanos;
+        if (dt <= 0) return;
+        double rate = (s.bytesReceived - lastBytes) / (dt / 1e9);
+        smoothedRate = sampleCount == 0 ? rate : SMOOTHING * rate + (1 - SMOOTHING) * smoothedRate;
+        lastBytes = s.bytesReceived;
+        lastNanos = s.elapsedNanos;
+        samples[head] = rate;
+        head = (head + 1) % HISTORY;
+        sampleCount = Math.min(HISTORY, sampleCount + 1);
+        graph.repaint();
+
+        rateLabel.setText(String.format("%.2f MB/s, %d av %d filer", smoothedRate / 1e6, s.filesFinished, s.filesTotal));
+        long remaining = s.estimateRemainingNanos(smoothedRate);
+        String total = s.estimatedTotalBytes >= 0 ? String.format(" av ~%.1f MB", Math.max(s.estimatedTotalBytes, s.bytesReceived) / 1e6) : "";
+        etaLabel.setText(String.format("%.1f MB%s, tid igjen: %s", s.bytesReceived / 1e6, total, remaining >= 0 ? formatDuration(remaining) : "ukjent"));
+        detailLabel.setText(details(s));
+        if (sampleListener != null) sampleListener.accept(s);
+    }
+
+    private static String details(TransferMetrics.Snapshot s) {
+        StringBuilder sb = new StringBuilder();
+        if (s.meanTtfbNanos >= 0) sb.append(String.format("TTFB %.0f ms", s.meanTtfbNanos / 1e6));
+        for (Map.Entry<Integer, Long> e : s.statusCounts.entrySet()) {
+            sb.append(sb.length() > 0 ? "  " : "").append(e.getKey()).append('×').append(e.getValue());
+        }
+        if (s.retries > 0) sb.append(sb.length() > 0 ? "  " : "").append(s.retries).append(" nye forsøk");
+        return sb.length() > 0 ? sb.toString() : " ";
+    }
+
+    static String formatDuration(long nanos) {
+        long sec = Math.round(nanos / 1e9);
+        if (sec >= 3600) return String.format("%d:%02d:%02d", sec / 3600, (sec / 60) % 60, sec % 60);
+        return String.format("%d:%02d", sec / 60, sec % 60);
+    }
+
+    /** Hastigheten for de siste {@value #HISTORY} målingene, nyeste til høyre. */
+    private final class Graph extends JComponent {
+        private final Color line = new Color(0x2a6ebb);
+        private final Color fill = new Color(0x2a6ebb & 0xffffff | 0x50000000, true);
+
+        @Override
+        protected void paintComponent(Graphics g0) {
+            Graphics2D g = (Graphics2D) g0.create();
+            try {
+                int w = getWidth();
+                int h = getHeight();
+                g.setColor(Color.WHITE);
+                g.fillRect(0, 0, w, h);
+                g.setColor(Color.LIGHT_GRAY);
+                g.drawRect(0, 0, w - 1, h - 1);
+                if (sampleCount < 2 || w < 2 || h < 2) return;
+                double max = 1;
+                for (int i = 0; i < sampleCount; i++) max = Math.max(max, samples[i]);
+                g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+                Polygon area = new Polygon();
+                area.addPoint(w - 1, h - 1);
+                int[] xs = new int[sampleCount];
+                int[] ys = new int[sampleCount];
+                for (int i = 0; i < sampleCount; i++) {
+                    double v = samples[(head - 1 - i + HISTORY) % HISTORY];
+                    xs[i] = (int) Math.round((w - 1) - i * (w - 1) / (double) (HISTORY - 1));
+                    ys[i] = (int) Math.round((h - 1) - v / max * (h - 4));
+                    area.addPoint(xs[i], ys[i]);
+                }
+                area.addPoint(xs[sampleCount - 1], h - 1);
+                g.setColor(fill);
+                g.fillPolygon(area);
+                g.setColor(line);
+                g.drawPolyline(xs, ys, sampleCount);
+                g.setColor(Color.DARK_GRAY);
+                g.drawString(String.format("%.1f MB/s", max / 1e6), 4, g.getFontMetrics().getAscent() + 2);
+            } finally {
+                g.dispose();
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+// FileUtil.java
+package main.util;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Hjelpeklasse for filoperasjoner.
+ */
+public class FileUtil {
+
+    private FileUtil() {} // Privat konstruktør for hjelpeklasse
+
+    /**
+     * Flytter {@code source} til {@code target} og erstatter en eventuell eksisterende fil.
+     * Flyttingen er atomisk når filsystemet støtter det, slik at andre aldri ser en halvskrevet fil.
+     */
+    public static void moveReplacing(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
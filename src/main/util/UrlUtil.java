@@ -1,8 +1,12 @@
 // UrlUtil.java
 package main.util;
 
+import main.model.FileCategory;
+
 import java.net.MalformedURLException;
+import java.net.URI;
 import java.net.URL;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -11,9 +15,138 @@ import java.util.regex.Pattern;
  */
 public class UrlUtil {
 
+    /** Kjente filendelser i en åpen hashtabell, slik at de kan slås opp uten å lage en ny streng. */
+    private static final String[] KNOWN_EXTENSIONS = new String[256];
+    private static final int UNSURE = -1;
+
+    static {
+        for (List<String> exts : FileCategory.CATEGORIZED_EXTENSIONS.values()) {
+            for (String ext : exts) {
+                int i = ext.hashCode() & (KNOWN_EXTENSIONS.length - 1);
+                while (KNOWN_EXTENSIONS[i] != null && !KNOWN_EXTENSIONS[i].equals(ext)) i = (i + 1) & (KNOWN_EXTENSIONS.length - 1);
+                KNOWN_EXTENSIONS[i] = ext;
+            }
+        }
+    }
+
     private UrlUtil() {} // Privat konstruktør for hjelpeklasse
 
+    /** Vertsnavnet i små bokstaver, eller tom streng hvis URL-en ikke har noen vert. */
+    public static String hostOf(String urlString) {
+        try {
+            String host = URI.create(urlString).getHost();
+            return host != null ? host.toLowerCase() : "";
+        } catch (IllegalArgumentException e) {
+            return "";
+        }
+    }
+
+    /**
+     * Finner filendelsen i en URL, f.eks. ".jpg", eller null. Ser først på siste del av stien og
+     * deretter etter type=, format= eller ext= i spørrestrengen.
+     * <p>
+     * Går gjennom strengen én gang uten å lage hjelpeobjekter. Kjente endelser returneres som
+     * faste strenger, så vanlige lenker ikke allokerer noe. URL-er der {@link URL} kunne tolket
+     * strengen annerledes (andre skjemaer, mellomrom i endene, tegn utenfor ASCII) går via
+     * {@link #getFileExtensionFromUrlSlow(String)}, slik at svaret alltid er det samme som før.
+     */
     public static String getFileExtensionFromUrl(String urlString) {
+        if (urlString == null || urlString.isEmpty()) return null;
+        int len = urlString.length();
+        if (urlString.charAt(0) <= ' ' || urlString.charAt(len - 1) <= ' ') return getFileExtensionFromUrlSlow(urlString);
+        if (!startsWithIgnoreCase(urlString, "http://") && !startsWithIgnoreCase(urlString, "https://") && urlString.indexOf(':') >= 0) {
+            return getFileExtensionFromUrlSlow(urlString);
+        }
+        int query = urlString.indexOf('?');
+        int fragment = urlString.indexOf('#');
+        int beforeQuery = query >= 0 ? query : len;
+        if (urlString.charAt(0) == '#') {
+            // Den gamle split-tolkningen ga null når alt før '?' bare var '#'
+            int i = 1;
+            while (i < beforeQuery && urlString.charAt(i) == '#') i++;
+            if (i == beforeQuery) return null;
+        }
+
+        int end = fragment >= 0 ? Math.min(beforeQuery, fragment) : beforeQuery;
+        if (end > 0 && urlString.charAt(end - 1) != '/') {
+            int slash = urlString.lastIndexOf('/', end - 1);
+            int dot = urlString.lastIndexOf('.', end - 1);
+            if (dot > slash && end - dot > 1 && end - dot <= 6) {
+                int kind = scanAlnum(urlString, dot + 1, end);
+                if (kind == UNSURE) return getFileExtensionFromUrlSlow(urlString);
+                if (kind == end) return extension(urlString, dot + 1, end);
+            }
+        }
+
+        if (query < 0) return null;
+        for (int i = query + 1; i < len; i++) {
+            int value = matchParameterName(urlString, i);
+            if (value < 0 || value >= len || urlString.charAt(value) == '&') continue;
+            int stop = scanAlnum(urlString, value, len);
+            if (stop == UNSURE) return getFileExtensionFromUrlSlow(urlString);
+            int n = stop - value;
+            return (n > 0 && n <= 5) ? extension(urlString, value, stop) : null;
+        }
+        return null;
+    }
+
+    /**
+     * Posisjonen til første tegn fra {@code from} som ikke er en ASCII-bokstav eller et siffer.
+     * Gir {@link #UNSURE} hvis det tegnet ikke er ASCII eller er 'I', fordi små bokstaver da
+     * avhenger av språkinnstillingen og bare den gamle tolkningen vet svaret.
+     */
+    private static int scanAlnum(String s, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c == 'I' || c >= 0x80) return UNSURE;
+            if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9'))) return i;
+        }
+        return to;
+    }
+
+    /** "." + tegnene i små bokstaver, som fast streng hvis endelsen er kjent. */
+    private static String extension(String s, int from, int to) {
+        int h = '.';
+        for (int i = from; i < to; i++) h = 31 * h + toLowerAscii(s.charAt(i));
+        for (int i = h & (KNOWN_EXTENSIONS.length - 1); KNOWN_EXTENSIONS[i] != null; i = (i + 1) & (KNOWN_EXTENSIONS.length - 1)) {
+            String known = KNOWN_EXTENSIONS[i];
+            if (known.length() == to - from + 1 && known.regionMatches(true, 1, s, from, to - from)) return known;
+        }
+        char[] ext = new char[to - from + 1];
+        ext[0] = '.';
+        for (int i = from; i < to; i++) ext[i - from + 1] = toLowerAscii(s.charAt(i));
+        return new String(ext);
+    }
+
+    /** Slutten på "type=", "format=" eller "ext=" (uten hensyn til store/små ASCII-bokstaver) ved {@code i}, ellers -1. */
+    private static int matchParameterName(String s, int i) {
+        char c = toLowerAscii(s.charAt(i));
+        String name = c == 't' ? "type=" : c == 'f' ? "format=" : c == 'e' ? "ext=" : null;
+        if (name == null || i + name.length() > s.length()) return -1;
+        for (int k = 1; k < name.length(); k++) {
+            if (toLowerAscii(s.charAt(i + k)) != name.charAt(k)) return -1;
+        }
+        return i + name.length();
+    }
+
+    private static boolean startsWithIgnoreCase(String s, String prefix) {
+        if (s.length() < prefix.length()) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (toLowerAscii(s.charAt(i)) != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static char toLowerAscii(char c) {
+        return (c >= 'A' && c <= 'Z') ? (char) (c + 32) : c;
+    }
+
+    /**
+     * Den opprinnelige tolkningen med regulære uttrykk og {@link URL}. Brukes for de sjeldne
+     * URL-ene der den raske tolkningen ikke kan garantere samme svar, og som fasit når den
+     * raske tolkningen sjekkes.
+     */
+    static String getFileExtensionFromUrlSlow(String urlString) {
         if (urlString == null || urlString.isEmpty()) return null;
         try {
             String pathPart = urlString.split("\\?")[0].split("#")[0];
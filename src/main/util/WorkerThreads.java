@@ -0,0 +1,33 @@
+// WorkerThreads.java
+package main.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lager trådpooler for nettverksarbeid.
+ */
+public class WorkerThreads {
+
+    private WorkerThreads() {} // Privat konstruktør for hjelpeklasse
+
+    /**
+     * Virtuelle tråder når JVM-en har dem (JDK 21+), ellers en fast pool med {@code maxThreads}
+     * daemon-tråder. Kalleren må selv begrense hvor mange oppgaver som kjører samtidig.
+     */
+    public static ExecutorService newExecutor(int maxThreads, String threadName) {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            AtomicInteger n = new AtomicInteger();
+            return Executors.newFixedThreadPool(maxThreads, r -> {
+                Thread t = new Thread(r, threadName + "-" + n.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+}